@@ -0,0 +1,425 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Headless batch mode: applies one operation chain to every image in a directory.
+ *
+ * Usage:
+ * <pre>
+ * java ImageEditor --input photos/ --output out/ --ops "brightness(20),poster(4)" [--format png] [--threads 8]
+ * java ImageEditor --input photos/ --output out/ --ops "blur(2)" --format jpeg --quality 0.85 --progressive true
+ * java ImageEditor --job nightly.properties
+ * java ImageEditor --input scans/ --output out/ --ops "blur(4)" --strip-rows 512
+ * </pre>
+ *
+ * The input may be a directory or a glob such as {@code photos/*.jpg}. A job
+ * file is a properties file with the keys {@code input}, {@code output},
+ * {@code ops}, {@code format} and {@code threads}, plus any of the other
+ * options without their dashes; command-line options override it.
+ *
+ * Images flow through a {@link StagedPipeline} of four stages: read the file,
+ * decode it, filter it and encode and write the result. Each stage has its
+ * own threads ({@code --read-threads}, 1 by default; {@code --decode-threads}
+ * and {@code --encode-threads}, half of {@code --threads} by default;
+ * {@code --threads} filter threads) and a queue of {@code --queue-depth}
+ * images (2 by default), so reading and writing files overlaps with
+ * filtering and the images in memory stay bounded. Each stage's queue depth
+ * and utilisation are printed at the end, with the bottleneck stage.
+ *
+ * Output is written by an {@link ImageEncoder}: {@code --quality} (0 to 1)
+ * and {@code --progressive} control lossy formats, {@code --compression-level}
+ * (0 to 9) the deflate level of PNG, and {@code --format raster} writes the
+ * uncompressed {@link RawRasterFormat} for results that feed another job.
+ *
+ * With {@code --strip-rows} every image is streamed through the chain in strips
+ * of that many rows by {@link StripProcessor} and written as TIFF, for images
+ * too large to decode into memory at once.
+ *
+ * With {@code --raster-cache <dir>} decoded images are kept in a
+ * {@link RasterCache}, so jobs that revisit the same masters skip decoding;
+ * {@code --raster-cache-mb} bounds its size on disk (1024 MB by default).
+ * With {@code --result-cache-mb <n>} results are also kept in a
+ * {@link ResultCache}, so inputs with identical pixels are processed once.
+ * {@code --pool-mb <n>} caps the free buffers kept by the shared
+ * {@link RasterPool} ({@value RasterPool#DEFAULT_MAX_MEGABYTES} MB by default, 0 to turn pooling off).
+ *
+ * With {@code --metrics <file>} the per-stage {@link Metrics} are written to
+ * that file every {@code --metrics-period-s} seconds (10 by default) and once
+ * more when the job ends.
+ */
+public final class BatchProcessor {
+
+    private final List<Path> inputs;
+    private final Path outputDir;
+    private final OperationChain chain;
+    private final ImageEncoder encoder;
+    private final int threads;
+    private final int readThreads;
+    private final int decodeThreads;
+    private final int encodeThreads;
+    private final int queueDepth;
+    private final int stripRows;
+    private final RasterCache rasterCache;
+    private final ResultCache resultCache;
+    private final Path metricsFile;
+    private final long metricsPeriodSeconds;
+
+    private BatchProcessor(List<Path> inputs, Path outputDir, OperationChain chain, ImageEncoder encoder, int threads,
+                           int readThreads, int decodeThreads, int encodeThreads, int queueDepth, int stripRows,
+                           RasterCache rasterCache, ResultCache resultCache, Path metricsFile,
+                           long metricsPeriodSeconds) {
+        this.inputs = inputs;
+        this.outputDir = outputDir;
+        this.chain = chain;
+        this.encoder = encoder;
+        this.threads = threads;
+        this.readThreads = readThreads;
+        this.decodeThreads = decodeThreads;
+        this.encodeThreads = encodeThreads;
+        this.queueDepth = queueDepth;
+        this.stripRows = stripRows;
+        this.rasterCache = rasterCache;
+        this.resultCache = resultCache;
+        this.metricsFile = metricsFile;
+        this.metricsPeriodSeconds = metricsPeriodSeconds;
+    }
+
+    /**
+     * Runs a batch job described by command-line arguments.
+     *
+     * @param args The command-line arguments.
+     */
+    public static void main(String[] args) {
+        try {
+            BatchProcessor processor = fromArguments(args);
+            int failures = processor.run();
+            if (failures > 0) {
+                System.exit(1);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: --input <dir|glob> --output <dir> --ops <chain> "
+                    + "[--format <jpeg|png|raster|...>] [--quality <0-1>] [--compression-level <0-9>] "
+                    + "[--progressive <true|false>] [--threads <n>] [--read-threads <n>] [--decode-threads <n>] [--encode-threads <n>] "
+                    + "[--queue-depth <n>] [--strip-rows <n>] [--raster-cache <dir>] [--result-cache-mb <n>] [--pool-mb <n>] "
+                    + "[--metrics <file[.json]>] [--metrics-period-s <n>] | --job <file>");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Builds a batch job from command-line arguments and an optional job file.
+     *
+     * @param args The command-line arguments.
+     * @return The configured batch job.
+     * @throws IOException if the job file or the input directory cannot be read.
+     */
+    public static BatchProcessor fromArguments(String[] args) throws IOException {
+        Properties options = new Properties();
+        Properties overrides = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            overrides.setProperty(args[i].substring(2), args[++i]);
+        }
+        String job = overrides.getProperty("job");
+        if (job != null) {
+            try (InputStream in = new FileInputStream(job)) {
+                options.load(in);
+            }
+        }
+        options.putAll(overrides);
+
+        String input = require(options, "input");
+        Path outputDir = Paths.get(require(options, "output"));
+        OperationChain chain = OperationChain.parse(require(options, "ops"));
+        int stripRows = Integer.parseInt(options.getProperty("strip-rows", "0"));
+        if (stripRows > 0 && !StripProcessor.canStream(chain)) {
+            throw new IllegalArgumentException("Chain cannot be processed in strips: " + chain);
+        }
+        String format = stripRows > 0 ? "tiff" : options.getProperty("format", "jpeg").toLowerCase(Locale.ROOT);
+        int threads = Integer.parseInt(options.getProperty("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        int readThreads = positive(options, "read-threads", 1);
+        int decodeThreads = positive(options, "decode-threads", Math.max(1, threads / 2));
+        int encodeThreads = positive(options, "encode-threads", Math.max(1, threads / 2));
+        int queueDepth = positive(options, "queue-depth", 2);
+        ImageEncoder encoder = ImageEncoder.forFormat(format);
+        if (options.getProperty("quality") != null) {
+            encoder = encoder.withQuality(Float.parseFloat(options.getProperty("quality")));
+        }
+        if (options.getProperty("compression-level") != null) {
+            encoder = encoder.withCompressionLevel(Integer.parseInt(options.getProperty("compression-level")));
+        }
+        encoder = encoder.withProgressive(Boolean.parseBoolean(options.getProperty("progressive", "false")));
+        RasterCache rasterCache = null;
+        if (options.getProperty("raster-cache") != null) {
+            long megabytes = Long.parseLong(options.getProperty("raster-cache-mb", "1024"));
+            rasterCache = new RasterCache(Paths.get(options.getProperty("raster-cache")), megabytes << 20);
+        }
+        ResultCache resultCache = null;
+        if (options.getProperty("result-cache-mb") != null) {
+            resultCache = new ResultCache(Long.parseLong(options.getProperty("result-cache-mb")) << 20);
+        }
+        if (options.getProperty("pool-mb") != null) {
+            RasterPool.shared().setMaxBytes(Long.parseLong(options.getProperty("pool-mb")) << 20);
+        }
+        Path metricsFile = options.getProperty("metrics") != null ? Paths.get(options.getProperty("metrics")) : null;
+        long metricsPeriodSeconds = Long.parseLong(options.getProperty("metrics-period-s", "10"));
+        return new BatchProcessor(listInputs(input), outputDir, chain, encoder, threads, readThreads, decodeThreads,
+                encodeThreads, queueDepth, stripRows, rasterCache, resultCache, metricsFile, metricsPeriodSeconds);
+    }
+
+    /**
+     * Processes every input image and prints per-file timings and a summary.
+     *
+     * Whole images run in parallel, so while this runs the filters get a share
+     * of the cores through {@link TileExecutor#setParallelism}. The previous
+     * parallelism is restored before it returns.
+     *
+     * @return The number of images that failed.
+     * @throws IOException if the output directory cannot be created.
+     */
+    public int run() throws IOException {
+        Files.createDirectories(outputDir);
+        if (metricsFile != null) {
+            Metrics.startDump(metricsFile, metricsPeriodSeconds);
+        }
+
+        // Whole images already run in parallel, so split the cores between the image workers.
+        int previousParallelism = TileExecutor.getParallelism();
+        TileExecutor.setParallelism(Math.max(1, Runtime.getRuntime().availableProcessors() / threads));
+
+        AtomicInteger failures = new AtomicInteger();
+        StagedPipeline<Job> stages = null;
+        long start = System.nanoTime();
+        try {
+            if (stripRows > 0) {
+                streamAll(failures);
+            } else {
+                stages = stages(failures);
+                stages.start();
+                for (Path input : inputs) {
+                    stages.submit(new Job(input));
+                }
+                stages.finish();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            TileExecutor.setParallelism(previousParallelism);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int done = inputs.size() - failures.get();
+        System.out.printf(Locale.ROOT, "Processed %d image(s), %d failed, in %.2f s (%.2f images/s)%n",
+                done, failures.get(), seconds, seconds > 0 ? done / seconds : 0.0);
+        if (stages != null) {
+            System.out.print(stages.report());
+        }
+        if (resultCache != null) {
+            System.out.println(resultCache);
+        }
+        System.out.println(RasterPool.shared());
+        if (metricsFile != null) {
+            // Write the final numbers rather than waiting for the next period.
+            Metrics.dump(metricsFile);
+        }
+        return failures.get();
+    }
+
+    // One image on its way through the stages, and what each stage measured.
+    private static final class Job {
+
+        final Path input;
+        byte[] bytes;
+        Pipeline pipeline;
+        BufferedImage output;
+        long readNanos;
+        long decodeNanos;
+        long filterNanos;
+
+        Job(Path input) {
+            this.input = input;
+        }
+    }
+
+    // The read, decode, filter and encode stages. Each stage drops what the next no longer needs.
+    private StagedPipeline<Job> stages(AtomicInteger failures) {
+        StagedPipeline<Job> stages = new StagedPipeline<>((job, stage, failure) -> {
+            failures.incrementAndGet();
+            System.err.println(job.input.getFileName() + ": failed in " + stage + ": " + failure.getMessage());
+        });
+        return stages.stage("read", readThreads, queueDepth, this::read)
+                .stage("decode", decodeThreads, queueDepth, this::decode)
+                .stage("filter", threads, queueDepth, this::filter)
+                .stage("encode", encodeThreads, queueDepth, this::encode);
+    }
+
+    private void read(Job job) throws IOException {
+        if (rasterCache != null) {
+            // The cache maps its own file, or decodes the source itself on a miss.
+            return;
+        }
+        long start = System.nanoTime();
+        try (Metrics.Timer timer = Metrics.start("read")) {
+            job.bytes = Files.readAllBytes(job.input);
+            // Nothing is decoded yet, so the read stage counts file bytes in place of pixels.
+            timer.pixels(job.bytes.length);
+        }
+        job.readNanos = System.nanoTime() - start;
+    }
+
+    private void decode(Job job) throws IOException {
+        long start = System.nanoTime();
+        try (Metrics.Timer timer = Metrics.start("decode")) {
+            if (rasterCache != null) {
+                MappedRaster raster = rasterCache.open(job.input);
+                timer.pixels((long) raster.getWidth() * raster.getHeight());
+                job.pipeline = Pipeline.of(raster);
+            } else {
+                // Decode from memory without ImageIO's temporary file cache.
+                BufferedImage image = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(job.bytes)));
+                job.bytes = null;
+                if (image == null) {
+                    throw new IOException("Unsupported image format");
+                }
+                timer.pixels((long) image.getWidth() * image.getHeight());
+                job.pipeline = Pipeline.of(image);
+            }
+        }
+        job.decodeNanos = System.nanoTime() - start;
+    }
+
+    private void filter(Job job) {
+        long start = System.nanoTime();
+        chain.applyTo(job.pipeline);
+        try (Metrics.Timer timer = Metrics.start("filter")) {
+            job.output = (resultCache != null) ? resultCache.apply(job.pipeline) : job.pipeline.apply();
+            timer.pixels((long) job.output.getWidth() * job.output.getHeight());
+        }
+        job.pipeline = null;
+        job.filterNanos = System.nanoTime() - start;
+    }
+
+    private void encode(Job job) throws IOException {
+        long start = System.nanoTime();
+        try (Metrics.Timer timer = Metrics.start("encode")) {
+            timer.pixels((long) job.output.getWidth() * job.output.getHeight());
+            encoder.write(job.output, outputDir.resolve(outputName(job.input)));
+        }
+        job.output = null;
+        System.out.printf(Locale.ROOT, "%s: read %.1f ms, decode %.1f ms, process %.1f ms, encode %.1f ms%n",
+                job.input.getFileName(), job.readNanos / 1e6, job.decodeNanos / 1e6, job.filterNanos / 1e6,
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    // Streams every image through the chain in strips on a bounded pool. When the pool's queue is full the
+    // submitting thread streams the next image itself, which keeps the number of images in flight bounded.
+    private void streamAll(AtomicInteger failures) throws InterruptedException {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (Path input : inputs) {
+                pool.execute(() -> {
+                    if (!stream(input)) {
+                        failures.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+    }
+
+    // Streams one image through the chain in strips, printing its time.
+    private boolean stream(Path input) {
+        try {
+            long start = System.nanoTime();
+            try (Metrics.Timer timer = Metrics.start("stream")) {
+                timer.pixels(StripProcessor.process(input.toFile(), outputDir.resolve(outputName(input)).toFile(),
+                        chain, stripRows));
+            }
+            System.out.printf(Locale.ROOT, "%s: streamed in %.1f ms%n",
+                    input.getFileName(), (System.nanoTime() - start) / 1e6);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println(input.getFileName() + ": failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Replaces the extension of the input file name with the output format's.
+    private String outputName(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "." + encoder.getFormat();
+    }
+
+    // Lists the files in a directory, or the files matching a glob such as photos/*.jpg.
+    private static List<Path> listInputs(String input) throws IOException {
+        Path path = Paths.get(input);
+        Path dir;
+        String pattern;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            pattern = "*";
+        } else {
+            dir = path.getParent() != null ? path.getParent() : Paths.get(".");
+            pattern = path.getFileName().toString();
+        }
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, pattern)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    inputs.add(file);
+                }
+            }
+        }
+        Collections.sort(inputs);
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input files match: " + input);
+        }
+        return inputs;
+    }
+
+    private static int positive(Properties options, String key, int defaultValue) {
+        int value = Integer.parseInt(options.getProperty(key, String.valueOf(defaultValue)));
+        if (value < 1) {
+            throw new IllegalArgumentException(key + " must be at least 1");
+        }
+        return value;
+    }
+
+    private static String require(Properties options, String key) {
+        String value = options.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Missing --" + key);
+        }
+        return value.trim();
+    }
+}
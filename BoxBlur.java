@@ -0,0 +1,299 @@
+/**
+ * Separable box blur over packed ARGB int rasters.
+ *
+ * The blur keeps running sums in both directions, so the cost per pixel is
+ * constant whatever the radius. Edges are handled by clamping coordinates to
+ * the image, exactly like the original averaging loop in {@link ImageEditor}.
+ * Single-channel gray rasters have their own entry points.
+ */
+public final class BoxBlur {
+
+    /** Default number of box passes used to approximate a Gaussian. */
+    public static final int GAUSSIAN_PASSES = 3;
+
+    private BoxBlur() {
+    }
+
+    /**
+     * Applies a box blur of the given radius.
+     *
+     * Each output pixel is the truncated mean of the (2 * radius + 1)^2 window
+     * centred on it, with coordinates outside the image clamped to the border.
+     * Only the colour is averaged; every pixel keeps its own alpha.
+     *
+     * @param src    The source pixels, packed as 0xAARRGGBB in row-major order.
+     * @param dst    The destination pixels. May not be the same array as {@code src}.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param radius The radius of the blur window.
+     */
+    public static void blur(int[] src, int[] dst, int width, int height, int radius) {
+        // Every band reads its halo rows straight from src, so bands run independently.
+        TileExecutor.forEachBand(height, width,
+                (startRow, endRow) -> blurRows(src, dst, width, height, radius, startRow, endRow));
+    }
+
+    /**
+     * Applies a box blur to the rows {@code [startRow, endRow)} only.
+     *
+     * The rows above and below the band are read from {@code src} as needed,
+     * so bands can be blurred independently and still match a full pass.
+     *
+     * @param src      The source pixels, packed as 0xAARRGGBB in row-major order.
+     * @param dst      The destination pixels. May not be the same array as {@code src}.
+     * @param width    The width of the raster.
+     * @param height   The height of the raster.
+     * @param radius   The radius of the blur window.
+     * @param startRow The first row to write.
+     * @param endRow   The row after the last row to write.
+     */
+    public static void blurRows(int[] src, int[] dst, int width, int height, int radius,
+                                int startRow, int endRow) {
+        if (radius <= 0) {
+            // A zero radius window is the pixel itself.
+            for (int y = startRow; y < endRow; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[offset + x] = src[offset + x];
+                }
+            }
+            return;
+        }
+
+        int window = 2 * radius + 1;
+        long area = (long) window * window;
+
+        // Running vertical sums for every column of the current row.
+        int[] columnRed = new int[width];
+        int[] columnGreen = new int[width];
+        int[] columnBlue = new int[width];
+
+        // Seed the column sums with the window centred on the first row of the band.
+        for (int dy = -radius; dy <= radius; dy++) {
+            addRow(src, width, clamp(startRow + dy, height), columnRed, columnGreen, columnBlue, 1);
+        }
+
+        for (int y = startRow; y < endRow; y++) {
+            // Slide horizontally across the column sums to get the window totals.
+            long sumRed = seed(columnRed, width, radius);
+            long sumGreen = seed(columnGreen, width, radius);
+            long sumBlue = seed(columnBlue, width, radius);
+
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                dst[offset + x] = ColorMath.pack(ColorMath.alpha(src[offset + x]),
+                        (int) (sumRed / area), (int) (sumGreen / area), (int) (sumBlue / area));
+
+                int leaving = Math.max(x - radius, 0);
+                int entering = Math.min(x + radius + 1, width - 1);
+                sumRed += columnRed[entering] - columnRed[leaving];
+                sumGreen += columnGreen[entering] - columnGreen[leaving];
+                sumBlue += columnBlue[entering] - columnBlue[leaving];
+            }
+
+            // Move the vertical window down by one row.
+            if (y + 1 < endRow) {
+                addRow(src, width, clamp(y - radius, height), columnRed, columnGreen, columnBlue, -1);
+                addRow(src, width, clamp(y + radius + 1, height), columnRed, columnGreen, columnBlue, 1);
+            }
+        }
+    }
+
+    /**
+     * Applies a box blur of the given radius to a single-channel gray raster.
+     *
+     * The window and edge handling are the same as {@link #blur}.
+     *
+     * @param src    The source gray levels in row-major order.
+     * @param dst    The destination gray levels. May not be the same array as {@code src}.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param radius The radius of the blur window.
+     */
+    public static void blurGray(byte[] src, byte[] dst, int width, int height, int radius) {
+        TileExecutor.forEachBand(height, width,
+                (startRow, endRow) -> blurGrayRows(src, dst, width, height, radius, startRow, endRow));
+    }
+
+    /**
+     * Applies a box blur to the rows {@code [startRow, endRow)} of a gray raster only.
+     *
+     * @param src      The source gray levels in row-major order.
+     * @param dst      The destination gray levels. May not be the same array as {@code src}.
+     * @param width    The width of the raster.
+     * @param height   The height of the raster.
+     * @param radius   The radius of the blur window.
+     * @param startRow The first row to write.
+     * @param endRow   The row after the last row to write.
+     */
+    public static void blurGrayRows(byte[] src, byte[] dst, int width, int height, int radius,
+                                    int startRow, int endRow) {
+        if (radius <= 0) {
+            System.arraycopy(src, startRow * width, dst, startRow * width, (endRow - startRow) * width);
+            return;
+        }
+
+        long area = (long) (2 * radius + 1) * (2 * radius + 1);
+        int[] column = new int[width];
+        for (int dy = -radius; dy <= radius; dy++) {
+            addGrayRow(src, width, clamp(startRow + dy, height), column, 1);
+        }
+
+        for (int y = startRow; y < endRow; y++) {
+            long sum = seed(column, width, radius);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                dst[offset + x] = (byte) (sum / area);
+                sum += column[Math.min(x + radius + 1, width - 1)] - column[Math.max(x - radius, 0)];
+            }
+            if (y + 1 < endRow) {
+                addGrayRow(src, width, clamp(y - radius, height), column, -1);
+                addGrayRow(src, width, clamp(y + radius + 1, height), column, 1);
+            }
+        }
+    }
+
+    /**
+     * Approximates a Gaussian blur with several successive box blurs.
+     *
+     * The box sizes are chosen so that the combined variance matches the
+     * requested standard deviation.
+     *
+     * @param src    The source pixels, packed as 0xAARRGGBB in row-major order.
+     * @param dst    The destination pixels. May not be the same array as {@code src}.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param sigma  The standard deviation of the Gaussian, in pixels.
+     * @param passes The number of box passes, usually {@link #GAUSSIAN_PASSES}.
+     */
+    public static void gaussian(int[] src, int[] dst, int width, int height, double sigma, int passes) {
+        int[] radii = boxRadiiForGaussian(sigma, passes);
+        RasterPool pool = RasterPool.shared();
+        int[] scratch = pool.ints(src.length);
+
+        // Ping-pong between dst and scratch so the final pass lands in dst.
+        int[] in = src;
+        int[] out = (radii.length % 2 == 0) ? scratch : dst;
+        for (int radius : radii) {
+            blur(in, out, width, height, radius);
+            in = out;
+            out = (out == dst) ? scratch : dst;
+        }
+        if (radii.length == 0) {
+            System.arraycopy(src, 0, dst, 0, src.length);
+        }
+        pool.release(scratch);
+    }
+
+    /**
+     * Approximates a Gaussian blur of a single-channel gray raster, like {@link #gaussian}.
+     *
+     * @param src    The source gray levels in row-major order.
+     * @param dst    The destination gray levels. May not be the same array as {@code src}.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param sigma  The standard deviation of the Gaussian, in pixels.
+     * @param passes The number of box passes, usually {@link #GAUSSIAN_PASSES}.
+     */
+    public static void gaussianGray(byte[] src, byte[] dst, int width, int height, double sigma, int passes) {
+        int[] radii = boxRadiiForGaussian(sigma, passes);
+        RasterPool pool = RasterPool.shared();
+        byte[] scratch = pool.bytes(src.length);
+
+        byte[] in = src;
+        byte[] out = (radii.length % 2 == 0) ? scratch : dst;
+        for (int radius : radii) {
+            blurGray(in, out, width, height, radius);
+            in = out;
+            out = (out == dst) ? scratch : dst;
+        }
+        if (radii.length == 0) {
+            System.arraycopy(src, 0, dst, 0, src.length);
+        }
+        pool.release(scratch);
+    }
+
+    /**
+     * Computes the box radii whose successive application approximates a Gaussian.
+     *
+     * @param sigma  The standard deviation of the Gaussian, in pixels.
+     * @param passes The number of box passes.
+     * @return The radius to use for each pass.
+     */
+    public static int[] boxRadiiForGaussian(double sigma, int passes) {
+        if (passes <= 0) {
+            return new int[0];
+        }
+        // Ideal box width for n passes, then split between the two nearest odd widths.
+        double ideal = Math.sqrt(12 * sigma * sigma / passes + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        lower = Math.max(lower, 1);
+        int upper = lower + 2;
+        double m = (12 * sigma * sigma - passes * lower * lower - 4.0 * passes * lower - 3.0 * passes)
+                / (-4.0 * lower - 4);
+        long lowerPasses = Math.round(m);
+
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            radii[i] = ((i < lowerPasses) ? lower : upper) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * Returns how far a Gaussian approximation reads from each output pixel.
+     *
+     * A pixel of the result depends only on the source pixels within this
+     * distance of it, horizontally and vertically.
+     *
+     * @param sigma  The standard deviation of the Gaussian, in pixels.
+     * @param passes The number of box passes.
+     * @return The sum of the box radii.
+     */
+    public static int gaussianReach(double sigma, int passes) {
+        int reach = 0;
+        for (int radius : boxRadiiForGaussian(sigma, passes)) {
+            reach += radius;
+        }
+        return reach;
+    }
+
+    // Adds (sign = 1) or removes (sign = -1) one source row from the column sums.
+    private static void addRow(int[] src, int width, int row, int[] red, int[] green, int[] blue, int sign) {
+        int offset = row * width;
+        for (int x = 0; x < width; x++) {
+            int pixel = src[offset + x];
+            red[x] += sign * ColorMath.red(pixel);
+            green[x] += sign * ColorMath.green(pixel);
+            blue[x] += sign * ColorMath.blue(pixel);
+        }
+    }
+
+    // Adds (sign = 1) or removes (sign = -1) one gray row from the column sums.
+    private static void addGrayRow(byte[] src, int width, int row, int[] column, int sign) {
+        int offset = row * width;
+        for (int x = 0; x < width; x++) {
+            column[x] += sign * (src[offset + x] & 0xFF);
+        }
+    }
+
+    // Sum of the clamped window [-radius, radius] around column 0.
+    private static long seed(int[] column, int width, int radius) {
+        long sum = (long) (radius + 1) * column[0];
+        int last = Math.min(radius, width - 1);
+        for (int x = 1; x <= last; x++) {
+            sum += column[x];
+        }
+        if (radius > width - 1) {
+            sum += (long) (radius - (width - 1)) * column[width - 1];
+        }
+        return sum;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.min(Math.max(value, 0), size - 1);
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Primitive colour arithmetic for packed 0xAARRGGBB pixels.
+ *
+ * Everything here works on ints, so the filters never need a java.awt.Color
+ * per pixel. Point operations that treat the three channels alike are
+ * expressed as 256-entry lookup tables built once per call.
+ */
+public final class ColorMath {
+
+    /** The gray level of an 18% gray card in sRGB, the usual target for automatic exposure. */
+    public static final int MIDDLE_GRAY = 118;
+
+    private ColorMath() {
+    }
+
+    /**
+     * Extracts the red component of a packed pixel.
+     *
+     * @param pixel The packed 0xAARRGGBB pixel.
+     * @return The red component in the range [0, 255].
+     */
+    public static int red(int pixel) {
+        return (pixel >> 16) & 0xFF;
+    }
+
+    /**
+     * Extracts the green component of a packed pixel.
+     *
+     * @param pixel The packed 0xAARRGGBB pixel.
+     * @return The green component in the range [0, 255].
+     */
+    public static int green(int pixel) {
+        return (pixel >> 8) & 0xFF;
+    }
+
+    /**
+     * Extracts the blue component of a packed pixel.
+     *
+     * @param pixel The packed 0xAARRGGBB pixel.
+     * @return The blue component in the range [0, 255].
+     */
+    public static int blue(int pixel) {
+        return pixel & 0xFF;
+    }
+
+    /**
+     * Extracts the alpha component of a packed pixel.
+     *
+     * @param pixel The packed 0xAARRGGBB pixel.
+     * @return The alpha component in the range [0, 255].
+     */
+    public static int alpha(int pixel) {
+        return pixel >>> 24;
+    }
+
+    /**
+     * Packs three components into an opaque pixel.
+     *
+     * @param red   The red component in the range [0, 255].
+     * @param green The green component in the range [0, 255].
+     * @param blue  The blue component in the range [0, 255].
+     * @return The packed 0xFFRRGGBB pixel.
+     */
+    public static int pack(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Packs four components into a pixel.
+     *
+     * @param alpha The alpha component in the range [0, 255].
+     * @param red   The red component in the range [0, 255].
+     * @param green The green component in the range [0, 255].
+     * @param blue  The blue component in the range [0, 255].
+     * @return The packed 0xAARRGGBB pixel.
+     */
+    public static int pack(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Clamps a value to [0, 255] without branching.
+     *
+     * @param value The value to clamp.
+     * @return The value limited to the range [0, 255].
+     */
+    public static int clamp(int value) {
+        // Negative values become 0, then anything above 255 becomes all ones and is masked to 255.
+        value &= ~(value >> 31);
+        return (value | ((255 - value) >> 31)) & 0xFF;
+    }
+
+    /**
+     * Builds the lookup table for a brightness change.
+     *
+     * @param increase The percentage increase in brightness. Negative values darken.
+     * @return A table mapping each component value to its adjusted value.
+     */
+    public static int[] brightnessTable(int increase) {
+        int[] table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = clamp(value + (increase * value / 100));
+        }
+        return table;
+    }
+
+    /**
+     * Computes the brightness change that brings a metered gray level to a target.
+     *
+     * The brightness table scales every component by (100 + increase) / 100,
+     * so the increase is the percentage that scales the metered level onto the
+     * target. Black images, which no scaling can brighten, get the largest
+     * increase.
+     *
+     * @param meteredLuma The measured gray level, between 0 and 255.
+     * @param target      The gray level to aim for, between 1 and 255.
+     * @return The increase for {@link #brightnessTable}, between -100 and 400.
+     */
+    public static int exposureIncrease(double meteredLuma, int target) {
+        if (target < 1 || target > 255) {
+            throw new IllegalArgumentException("target must be between 1 and 255: " + target);
+        }
+        if (meteredLuma <= 0) {
+            return 400;
+        }
+        long increase = Math.round(100 * (target / meteredLuma - 1));
+        return (int) Math.max(-100, Math.min(400, increase));
+    }
+
+    /**
+     * Builds the lookup table that inverts each component.
+     *
+     * @return A table mapping each component value to 255 minus that value.
+     */
+    public static int[] negativeTable() {
+        int[] table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = 255 - value;
+        }
+        return table;
+    }
+
+    /**
+     * Builds the lookup table that posterizes each component.
+     *
+     * @param numLevels The number of levels per component, between 1 and 256.
+     * @return A table mapping each component value down to the start of its level.
+     */
+    public static int[] posterTable(int numLevels) {
+        if (numLevels < 1 || numLevels > 256) {
+            throw new IllegalArgumentException("numLevels must be between 1 and 256: " + numLevels);
+        }
+        int interval = 256 / numLevels;
+        int[] table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = (value / interval) * interval;
+        }
+        return table;
+    }
+
+    /**
+     * Applies a component lookup table to the red, green and blue channels.
+     *
+     * The alpha of each pixel is kept. {@code src} and {@code dst} may be the same array.
+     *
+     * @param src   The source pixels.
+     * @param dst   The destination pixels.
+     * @param table The 256-entry table applied to each component.
+     * @param start The first index to process.
+     * @param end   The index after the last one to process.
+     */
+    public static void applyTable(int[] src, int[] dst, int[] table, int start, int end) {
+        for (int i = start; i < end; i++) {
+            int pixel = src[i];
+            dst[i] = (pixel & 0xFF000000)
+                    | (table[(pixel >> 16) & 0xFF] << 16)
+                    | (table[(pixel >> 8) & 0xFF] << 8)
+                    | table[pixel & 0xFF];
+        }
+    }
+}
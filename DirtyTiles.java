@@ -0,0 +1,156 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks which tiles of an image need to be rendered again.
+ *
+ * The image is divided into a grid of square tiles. Marking a rectangle flags
+ * every tile it touches; {@link #rectangles()} then hands the flagged tiles
+ * back as a few large rectangles, so a renderer can redo the changed parts of
+ * an image in a handful of passes instead of one per tile.
+ */
+public final class DirtyTiles {
+
+    /** Tile size used when none is given. */
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final boolean[] dirty;
+    private int count;
+
+    /**
+     * Creates a tracker with every tile clean.
+     *
+     * @param width    The width of the image.
+     * @param height   The height of the image.
+     * @param tileSize The width and height of a tile.
+     */
+    public DirtyTiles(int width, int height, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be at least 1: " + tileSize);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.dirty = new boolean[columns * rows];
+    }
+
+    /**
+     * Flags every tile that a rectangle touches.
+     *
+     * @param region The changed rectangle. Parts outside the image are ignored.
+     */
+    public void mark(Rectangle region) {
+        Rectangle area = Regions.clip(region, width, height);
+        if (area.isEmpty()) {
+            return;
+        }
+        int lastColumn = (area.x + area.width - 1) / tileSize;
+        int lastRow = (area.y + area.height - 1) / tileSize;
+        for (int row = area.y / tileSize; row <= lastRow; row++) {
+            for (int column = area.x / tileSize; column <= lastColumn; column++) {
+                int tile = row * columns + column;
+                if (!dirty[tile]) {
+                    dirty[tile] = true;
+                    count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flags every tile.
+     */
+    public void markAll() {
+        mark(new Rectangle(0, 0, width, height));
+    }
+
+    /**
+     * Flags every tile as clean.
+     */
+    public void clear() {
+        Arrays.fill(dirty, false);
+        count = 0;
+    }
+
+    /**
+     * Returns true if no tile is flagged.
+     *
+     * @return Whether nothing needs rendering.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Returns how many tiles are flagged.
+     *
+     * @return The number of dirty tiles.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Returns the flagged tiles as disjoint rectangles, clipped to the image.
+     *
+     * Flagged tiles in a row are joined into runs, and runs covering the same
+     * columns in consecutive rows are joined into one rectangle.
+     *
+     * @return The dirty rectangles, from top to bottom.
+     */
+    public List<Rectangle> rectangles() {
+        List<Rectangle> done = new ArrayList<>();
+        // Rectangles that reached the previous tile row and may grow further down.
+        List<Rectangle> open = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            List<Rectangle> next = new ArrayList<>();
+            int column = 0;
+            while (column < columns) {
+                if (!dirty[row * columns + column]) {
+                    column++;
+                    continue;
+                }
+                int start = column;
+                while (column < columns && dirty[row * columns + column]) {
+                    column++;
+                }
+                Rectangle run = tiles(start, row, column - start);
+                Rectangle above = null;
+                for (Rectangle candidate : open) {
+                    if (candidate.x == run.x && candidate.width == run.width) {
+                        above = candidate;
+                        break;
+                    }
+                }
+                if (above != null) {
+                    open.remove(above);
+                    above.height += run.height;
+                    next.add(above);
+                } else {
+                    next.add(run);
+                }
+            }
+            done.addAll(open);
+            open = next;
+        }
+        done.addAll(open);
+        done.sort((a, b) -> a.y != b.y ? Integer.compare(a.y, b.y) : Integer.compare(a.x, b.x));
+        return done;
+    }
+
+    // The pixel rectangle covered by a run of tiles in one tile row, clipped to the image.
+    private Rectangle tiles(int column, int row, int columnCount) {
+        int x = column * tileSize;
+        int y = row * tileSize;
+        return new Rectangle(x, y, Math.min(columnCount * tileSize, width - x), Math.min(tileSize, height - y));
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * How a neighbourhood filter reads pixels beyond the edges of the image.
+ */
+public enum EdgeMode {
+
+    /** Repeats the border pixel, like {@link BoxBlur}: -2, -1 read 0. */
+    CLAMP,
+
+    /** Continues from the opposite edge, as if the image were tiled: -1 reads width - 1. */
+    WRAP,
+
+    /** Mirrors the image around the border pixel without repeating it: -1 reads 1, -2 reads 2. */
+    REFLECT;
+
+    /**
+     * Maps a coordinate that may lie outside the image to one inside it.
+     *
+     * @param index The coordinate.
+     * @param size  The width or height of the image, at least 1.
+     * @return The coordinate to read, between 0 and size - 1.
+     */
+    public int index(int index, int size) {
+        if (index >= 0 && index < size) {
+            return index;
+        }
+        switch (this) {
+            case CLAMP:
+                return index < 0 ? 0 : size - 1;
+            case WRAP:
+                return Math.floorMod(index, size);
+            default:
+                if (size == 1) {
+                    return 0;
+                }
+                // Reflection repeats every 2 * (size - 1) pixels.
+                int period = 2 * (size - 1);
+                int folded = Math.floorMod(index, period);
+                return folded < size ? folded : period - folded;
+        }
+    }
+
+    /**
+     * Builds the lookup table for a padded range of coordinates.
+     *
+     * Entry {@code i} is the coordinate to read for position {@code i - margin},
+     * so filters can read a neighbourhood without checking the edges.
+     *
+     * @param size   The width or height of the image.
+     * @param margin The number of positions before and after the image.
+     * @return A table of size + 2 * margin coordinates.
+     */
+    public int[] table(int size, int margin) {
+        int[] table = new int[size + 2 * margin];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = index(i - margin, size);
+        }
+        return table;
+    }
+}
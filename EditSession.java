@@ -0,0 +1,250 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of local edits on one image that is re-rendered incrementally.
+ *
+ * Each edit is an {@link OperationChain} applied to a rectangle of the image,
+ * on top of the edits before it. When an edit is added, changed, moved or
+ * removed, the session flags the tiles whose pixels can change in a
+ * {@link DirtyTiles} tracker: the edit's rectangle, plus whatever later blurs
+ * spread it to. {@link #render()} then recomputes only those tiles, reading
+ * just the source pixels they depend on, so adjusting a local edit costs time
+ * in proportion to the edited area rather than to the image.
+ *
+ * <pre>
+ * EditSession session = new EditSession(image);
+ * int face = session.add(OperationChain.parse("blur(8)"), new Rectangle(400, 300, 200, 200));
+ * BufferedImage shown = session.render();
+ * session.set(face, OperationChain.parse("blur(12)"));
+ * session.render();   // redoes the tiles around the rectangle only
+ * </pre>
+ *
+ * Only operations that keep every pixel in place can be local: the point
+ * operations and the blurs. A session is not thread-safe. Renders are
+ * recorded in {@link Metrics} as {@code session.render}.
+ */
+public final class EditSession {
+
+    private final int width;
+    private final int height;
+    private final int[] source;
+    private final int[] rendered;
+    private final BufferedImage image;
+    private final List<Edit> edits = new ArrayList<>();
+    private final DirtyTiles dirty;
+    private long lastRenderedPixels;
+
+    /**
+     * Starts a session with no edits, using tiles of {@link DirtyTiles#DEFAULT_TILE_SIZE} pixels.
+     *
+     * @param source The image to edit. It is read once and never modified.
+     */
+    public EditSession(BufferedImage source) {
+        this(source, DirtyTiles.DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Starts a session with no edits.
+     *
+     * @param source   The image to edit. It is read once and never modified.
+     * @param tileSize The size of the tiles that are re-rendered.
+     */
+    public EditSession(BufferedImage source, int tileSize) {
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.source = PixelLayout.read(source);
+        this.rendered = new int[width * height];
+        this.image = RasterAccess.createImage(rendered, width, height, BufferedImage.TYPE_INT_RGB);
+        this.dirty = new DirtyTiles(width, height, tileSize);
+        dirty.markAll();
+    }
+
+    /**
+     * Returns true if a chain can be applied to part of an image.
+     *
+     * @param chain The operation chain.
+     * @return true if the chain contains no rotations, flips, mirrors or steps that meter the image.
+     */
+    public static boolean isLocal(OperationChain chain) {
+        // Content-aware steps measure whatever part of the image they are given, so they would differ per tile.
+        return chain.count("rotate") == 0 && chain.count("horizontalFlip") == 0 && chain.count("verticalFlip") == 0
+                && chain.count("mirror") == 0 && chain.count("mirrorVertical") == 0 && !chain.metersImage();
+    }
+
+    /**
+     * Adds an edit on top of the existing ones.
+     *
+     * @param chain  The operations to apply.
+     * @param region The rectangle to apply them to. Parts outside the image are ignored.
+     * @return The index of the new edit.
+     * @throws IllegalArgumentException if the chain moves pixels or the region misses the image.
+     */
+    public int add(OperationChain chain, Rectangle region) {
+        Edit edit = new Edit(chain, region);
+        edits.add(edit);
+        invalidate(edit.region, edits.size());
+        return edits.size() - 1;
+    }
+
+    /**
+     * Replaces the operations of an edit, for example to change a parameter.
+     *
+     * @param index The index of the edit.
+     * @param chain The new operations.
+     */
+    public void set(int index, OperationChain chain) {
+        Edit edit = edits.get(index);
+        edits.set(index, new Edit(chain, edit.region));
+        invalidate(edit.region, index + 1);
+    }
+
+    /**
+     * Moves an edit to another rectangle.
+     *
+     * @param index  The index of the edit.
+     * @param region The new rectangle. Parts outside the image are ignored.
+     */
+    public void move(int index, Rectangle region) {
+        Edit edit = edits.get(index);
+        Edit moved = new Edit(edit.chain, region);
+        edits.set(index, moved);
+        invalidate(edit.region, index + 1);
+        invalidate(moved.region, index + 1);
+    }
+
+    /**
+     * Removes an edit. The edits after it move down by one index.
+     *
+     * @param index The index of the edit.
+     */
+    public void remove(int index) {
+        Edit edit = edits.remove(index);
+        invalidate(edit.region, index);
+    }
+
+    /**
+     * Returns how many edits the session has.
+     *
+     * @return The number of edits.
+     */
+    public int size() {
+        return edits.size();
+    }
+
+    /**
+     * Returns how many tiles the next {@link #render()} will recompute.
+     *
+     * @return The number of dirty tiles.
+     */
+    public int dirtyTiles() {
+        return dirty.count();
+    }
+
+    /**
+     * Brings the result up to date by re-rendering the dirty tiles.
+     *
+     * @return The TYPE_INT_RGB result. The same image is returned by every call
+     *         and is updated in place, so a viewer can simply repaint it.
+     */
+    public BufferedImage render() {
+        long pixels = 0;
+        try (Metrics.Timer timer = Metrics.start("session.render")) {
+            for (Rectangle area : dirty.rectangles()) {
+                renderArea(area);
+                pixels += (long) area.width * area.height;
+            }
+            timer.pixels(pixels);
+        }
+        dirty.clear();
+        lastRenderedPixels = pixels;
+        return image;
+    }
+
+    /**
+     * Returns how many pixels the last {@link #render()} recomputed.
+     *
+     * @return The number of pixels.
+     */
+    public long lastRenderedPixels() {
+        return lastRenderedPixels;
+    }
+
+    // Flags a changed rectangle and everything the edits from index "first" on spread it to.
+    private void invalidate(Rectangle changed, int first) {
+        List<Rectangle> reached = new ArrayList<>();
+        reached.add(changed);
+        dirty.mark(changed);
+        for (int i = first; i < edits.size(); i++) {
+            Edit edit = edits.get(i);
+            if (edit.reach == 0) {
+                continue;
+            }
+            // A blur pulls changed pixels up to its reach into the part of its rectangle around them.
+            List<Rectangle> spread = new ArrayList<>();
+            for (Rectangle area : reached) {
+                Rectangle blurred = Regions.expand(area, edit.reach, width, height).intersection(edit.region);
+                if (!blurred.isEmpty()) {
+                    spread.add(blurred);
+                    dirty.mark(blurred);
+                }
+            }
+            reached.addAll(spread);
+        }
+    }
+
+    // Recomputes one rectangle of the result from the source.
+    private void renderArea(Rectangle area) {
+        // Walk back through the edits to find the rectangle of input each one needs.
+        Rectangle[] needed = new Rectangle[edits.size() + 1];
+        needed[edits.size()] = area;
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            Edit edit = edits.get(i);
+            Rectangle after = needed[i + 1];
+            needed[i] = (edit.reach > 0 && edit.region.intersects(after))
+                    ? Regions.expand(after, edit.reach, width, height) : after;
+        }
+
+        Rectangle bounds = needed[0];
+        int[] work = Regions.crop(source, width, bounds);
+        for (int i = 0; i < edits.size(); i++) {
+            Edit edit = edits.get(i);
+            Rectangle target = edit.region.intersection(needed[i + 1]);
+            if (target.isEmpty()) {
+                continue;
+            }
+            // The edit reads its target plus its reach, all of which lies inside needed[i].
+            Rectangle input = Regions.expand(target, edit.reach, width, height);
+            int[] crop = Regions.crop(work, bounds.width,
+                    new Rectangle(input.x - bounds.x, input.y - bounds.y, input.width, input.height));
+            BufferedImage result = edit.chain.applyTo(Pipeline.of(
+                    RasterAccess.createImage(crop, input.width, input.height, BufferedImage.TYPE_INT_RGB))).apply();
+            Regions.copy(RasterAccess.readPixels(result), input.width, target.x - input.x, target.y - input.y,
+                    work, bounds.width, target.x - bounds.x, target.y - bounds.y, target.width, target.height);
+        }
+        Regions.copy(work, bounds.width, area.x - bounds.x, area.y - bounds.y,
+                rendered, width, area.x, area.y, area.width, area.height);
+    }
+
+    // One chain applied to one rectangle, with the distance its blurs read.
+    private final class Edit {
+
+        final OperationChain chain;
+        final Rectangle region;
+        final int reach;
+
+        Edit(OperationChain chain, Rectangle region) {
+            if (!isLocal(chain)) {
+                throw new IllegalArgumentException("Chain moves pixels and cannot be applied to a region: " + chain);
+            }
+            this.chain = chain;
+            this.region = Regions.clip(region, width, height);
+            if (this.region.isEmpty()) {
+                throw new IllegalArgumentException("Region does not overlap the image: " + region);
+            }
+            this.reach = chain.haloRows();
+        }
+    }
+}
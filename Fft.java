@@ -0,0 +1,128 @@
+/**
+ * An in-place radix-2 fast Fourier transform of one size.
+ *
+ * The bit-reversal order and the twiddle factors are computed once by the
+ * constructor, so one instance can be shared by every thread that
+ * transforms arrays of its size.
+ */
+public final class Fft {
+
+    private final int size;
+    private final int[] reversed;
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * Prepares transforms of a given length.
+     *
+     * @param size The length, a power of two.
+     */
+    public Fft(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cos[i] = Math.cos(-2 * Math.PI * i / size);
+            sin[i] = Math.sin(-2 * Math.PI * i / size);
+        }
+    }
+
+    /**
+     * Returns the length this instance transforms.
+     *
+     * @return The length.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Transforms one strided run of complex values in place.
+     *
+     * The inverse transform includes the 1 / size scaling, so a forward
+     * transform followed by an inverse one returns the input.
+     *
+     * @param re      The real parts.
+     * @param im      The imaginary parts.
+     * @param offset  The index of the first value.
+     * @param stride  The distance between consecutive values.
+     * @param inverse Whether to compute the inverse transform.
+     */
+    public void transform(double[] re, double[] im, int offset, int stride, boolean inverse) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                int a = offset + i * stride;
+                int b = offset + j * stride;
+                double swap = re[a];
+                re[a] = re[b];
+                re[b] = swap;
+                swap = im[a];
+                im[a] = im[b];
+                im[b] = swap;
+            }
+        }
+        double sign = inverse ? -1 : 1;
+        for (int length = 2; length <= size; length <<= 1) {
+            int half = length >> 1;
+            int step = size / length;
+            for (int start = 0; start < size; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = offset + (start + k) * stride;
+                    int b = a + half * stride;
+                    double tr = re[b] * wr - im[b] * wi;
+                    double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+        if (inverse) {
+            double scale = 1.0 / size;
+            for (int i = 0; i < size; i++) {
+                int a = offset + i * stride;
+                re[a] *= scale;
+                im[a] *= scale;
+            }
+        }
+    }
+
+    /**
+     * Transforms a square size x size array of complex values in place, rows first.
+     *
+     * @param re      The real parts in row-major order.
+     * @param im      The imaginary parts in row-major order.
+     * @param inverse Whether to compute the inverse transform.
+     */
+    public void transform2d(double[] re, double[] im, boolean inverse) {
+        for (int row = 0; row < size; row++) {
+            transform(re, im, row * size, 1, inverse);
+        }
+        // Columns are copied out and back so the butterflies run over contiguous memory.
+        double[] columnRe = new double[size];
+        double[] columnIm = new double[size];
+        for (int column = 0; column < size; column++) {
+            for (int row = 0; row < size; row++) {
+                columnRe[row] = re[row * size + column];
+                columnIm[row] = im[row * size + column];
+            }
+            transform(columnRe, columnIm, 0, 1, inverse);
+            for (int row = 0; row < size; row++) {
+                re[row * size + column] = columnRe[row];
+                im[row * size + column] = columnIm[row];
+            }
+        }
+    }
+}
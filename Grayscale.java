@@ -0,0 +1,181 @@
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Grayscale conversion and single-channel gray rasters.
+ *
+ * Luma is computed with integer weights scaled by 2^16 and written straight
+ * into the {@link DataBufferByte} of a TYPE_BYTE_GRAY image, one byte per pixel,
+ * without going through Java2D colour conversion. Gray rasters are a third of
+ * the size of packed RGB ones, so filters that support them (see
+ * {@link BoxBlur#blurGray} and {@link #applyTable}) do a third of the work.
+ */
+public final class Grayscale {
+
+    /**
+     * How the red, green and blue components are combined into one gray level.
+     */
+    public enum Weighting {
+
+        /** ITU-R BT.601 luma: 0.299 R + 0.587 G + 0.114 B. */
+        BT601(19595, 38470, 7471),
+
+        /** ITU-R BT.709 luma: 0.2126 R + 0.7152 G + 0.0722 B. */
+        BT709(13933, 46871, 4732),
+
+        /** The plain mean of the three components. */
+        AVERAGE(21845, 21846, 21845),
+
+        /** The midpoint of the largest and smallest component. */
+        LIGHTNESS(0, 0, 0);
+
+        // Weights in 16.16 fixed point; each triple sums to 65536.
+        final int red;
+        final int green;
+        final int blue;
+
+        Weighting(int red, int green, int blue) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+        }
+    }
+
+    private Grayscale() {
+    }
+
+    /**
+     * Computes the gray level of one pixel.
+     *
+     * @param pixel     The pixel, packed as 0xAARRGGBB.
+     * @param weighting How to combine the components.
+     * @return The gray level, between 0 and 255.
+     */
+    public static int luma(int pixel, Weighting weighting) {
+        int red = (pixel >> 16) & 0xFF;
+        int green = (pixel >> 8) & 0xFF;
+        int blue = pixel & 0xFF;
+        if (weighting == Weighting.LIGHTNESS) {
+            return (Math.max(red, Math.max(green, blue)) + Math.min(red, Math.min(green, blue)) + 1) >> 1;
+        }
+        // Round to nearest; the weights sum to 65536, so the result never exceeds 255.
+        return (weighting.red * red + weighting.green * green + weighting.blue * blue + 0x8000) >>> 16;
+    }
+
+    /**
+     * Converts packed pixels to gray levels over the indices {@code [start, end)}.
+     *
+     * @param src       The source pixels, packed as 0xAARRGGBB.
+     * @param dst       The gray levels, one unsigned byte per pixel.
+     * @param weighting How to combine the components.
+     * @param start     The first index to convert.
+     * @param end       The index after the last one to convert.
+     */
+    public static void luma(int[] src, byte[] dst, Weighting weighting, int start, int end) {
+        if (weighting == Weighting.LIGHTNESS) {
+            for (int i = start; i < end; i++) {
+                dst[i] = (byte) luma(src[i], weighting);
+            }
+            return;
+        }
+        int redWeight = weighting.red;
+        int greenWeight = weighting.green;
+        int blueWeight = weighting.blue;
+        for (int i = start; i < end; i++) {
+            int pixel = src[i];
+            dst[i] = (byte) ((redWeight * ((pixel >> 16) & 0xFF) + greenWeight * ((pixel >> 8) & 0xFF)
+                    + blueWeight * (pixel & 0xFF) + 0x8000) >>> 16);
+        }
+    }
+
+    /**
+     * Converts a packed raster to gray levels.
+     *
+     * @param pixels    The pixels, packed as 0xAARRGGBB in row-major order.
+     * @param width     The width of the raster.
+     * @param height    The height of the raster.
+     * @param weighting How to combine the components.
+     * @return A new array of width * height gray levels.
+     */
+    public static byte[] toGray(int[] pixels, int width, int height, Weighting weighting) {
+        byte[] gray = new byte[pixels.length];
+        TileExecutor.forEachBand(height, width,
+                (startRow, endRow) -> luma(pixels, gray, weighting, startRow * width, endRow * width));
+        return gray;
+    }
+
+    /**
+     * Reads the gray levels of an image.
+     *
+     * Packed TYPE_BYTE_GRAY images are copied as they are. Anything else is
+     * converted with BT.601 weights.
+     *
+     * @param image The image to read.
+     * @return A new array of width * height gray levels.
+     */
+    public static byte[] readGray(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (isPackedGray(image)) {
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            return data.clone();
+        }
+        return toGray(RasterAccess.readPixels(image), width, height, Weighting.BT601);
+    }
+
+    /**
+     * Returns true if an image is a gray image whose levels can be read with {@link #readGray} without conversion.
+     *
+     * @param image The image to check.
+     * @return Whether the image is a packed TYPE_BYTE_GRAY image.
+     */
+    public static boolean isPackedGray(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            return false;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        return buffer.getNumBanks() == 1 && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && buffer.getSize() == image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Creates a TYPE_BYTE_GRAY image showing the given gray levels.
+     *
+     * The array is wrapped without copying, so the caller must not modify it afterwards.
+     *
+     * @param gray   The gray levels in row-major order.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return A new BufferedImage backed by {@code gray}.
+     */
+    public static BufferedImage createImage(byte[] gray, int width, int height) {
+        ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                new int[] {8}, false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(gray, width * height),
+                width, height, width, 1, new int[] {0}, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Applies a 256-entry lookup table to gray levels over the indices {@code [start, end)}.
+     *
+     * @param src   The source gray levels.
+     * @param dst   The destination gray levels. May be the same array as {@code src}.
+     * @param table The table, as built by {@link ColorMath}.
+     * @param start The first index to process.
+     * @param end   The index after the last one to process.
+     */
+    public static void applyTable(byte[] src, byte[] dst, int[] table, int start, int end) {
+        for (int i = start; i < end; i++) {
+            dst[i] = (byte) table[src[i] & 0xFF];
+        }
+    }
+}
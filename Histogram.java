@@ -0,0 +1,311 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Per-channel and luma histograms of an image, and the lookup tables derived from them.
+ *
+ * The histogram is counted in one parallel pass. Every band of rows counts
+ * into its own arrays, split into two stripes for even and odd pixels so
+ * that runs of equal values do not wait on the same counter, and the bands
+ * are merged once at the end. No counter is shared while counting.
+ *
+ * The content-aware tables ({@link #levelsTable}, {@link #equalizationTable}
+ * and {@link #posterTable}) are built from the red, green and blue counts
+ * together, so one table serves all three channels and neutral grays stay
+ * neutral, like the tables in {@link ColorMath}.
+ */
+public final class Histogram {
+
+    /**
+     * A channel that is counted.
+     */
+    public enum Channel {
+
+        /** The red component. */
+        RED,
+
+        /** The green component. */
+        GREEN,
+
+        /** The blue component. */
+        BLUE,
+
+        /** The BT.601 luma, as computed by {@link Grayscale#luma(int, Grayscale.Weighting)}. */
+        LUMA
+    }
+
+    /** The fraction of values {@link #levelsTable} is usually asked to clip at each end. */
+    public static final double DEFAULT_CLIP = 0.005;
+
+    private static final int BINS = 256;
+    private static final int CHANNELS = 4;
+
+    // CHANNELS * BINS counts, one run of BINS per channel in Channel order.
+    private final long[] counts;
+    private final long total;
+
+    private Histogram(long[] counts, long total) {
+        this.counts = counts;
+        this.total = total;
+    }
+
+    /**
+     * Counts the histograms of an image. Gray images are counted on their gray levels.
+     *
+     * @param image The image.
+     * @return The histograms.
+     */
+    public static Histogram of(BufferedImage image) {
+        if (Grayscale.isPackedGray(image)) {
+            return ofGray(Grayscale.readGray(image), image.getWidth(), image.getHeight());
+        }
+        return of(RasterAccess.readPixels(image), image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Counts the histograms of a packed raster.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @return The histograms.
+     */
+    public static Histogram of(int[] pixels, int width, int height) {
+        long[] merged = new long[CHANNELS * BINS];
+        int redWeight = Grayscale.Weighting.BT601.red;
+        int greenWeight = Grayscale.Weighting.BT601.green;
+        int blueWeight = Grayscale.Weighting.BT601.blue;
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            int[] even = new int[CHANNELS * BINS];
+            int[] odd = new int[CHANNELS * BINS];
+            int start = startRow * width;
+            int end = endRow * width;
+            int i = start;
+            for (; i + 1 < end; i += 2) {
+                count(pixels[i], even, redWeight, greenWeight, blueWeight);
+                count(pixels[i + 1], odd, redWeight, greenWeight, blueWeight);
+            }
+            if (i < end) {
+                count(pixels[i], even, redWeight, greenWeight, blueWeight);
+            }
+            merge(merged, even, odd);
+        });
+        return new Histogram(merged, (long) width * height);
+    }
+
+    /**
+     * Counts the histogram of a gray raster. Every channel gets the gray levels.
+     *
+     * @param gray   The gray levels in row-major order.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @return The histograms.
+     */
+    public static Histogram ofGray(byte[] gray, int width, int height) {
+        long[] merged = new long[CHANNELS * BINS];
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            int[] even = new int[BINS];
+            int[] odd = new int[BINS];
+            int start = startRow * width;
+            int end = endRow * width;
+            int i = start;
+            for (; i + 1 < end; i += 2) {
+                even[gray[i] & 0xFF]++;
+                odd[gray[i + 1] & 0xFF]++;
+            }
+            if (i < end) {
+                even[gray[i] & 0xFF]++;
+            }
+            synchronized (merged) {
+                for (int channel = 0; channel < CHANNELS; channel++) {
+                    for (int value = 0; value < BINS; value++) {
+                        merged[channel * BINS + value] += even[value] + odd[value];
+                    }
+                }
+            }
+        });
+        return new Histogram(merged, (long) width * height);
+    }
+
+    /**
+     * Returns how many pixels were counted.
+     *
+     * @return The number of pixels.
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Returns how many pixels have a value in a channel.
+     *
+     * @param channel The channel.
+     * @param value   The value, between 0 and 255.
+     * @return The count.
+     */
+    public long count(Channel channel, int value) {
+        return counts[channel.ordinal() * BINS + value];
+    }
+
+    /**
+     * Returns the mean value of a channel.
+     *
+     * @param channel The channel.
+     * @return The mean, between 0 and 255, or 0 for an empty image.
+     */
+    public double mean(Channel channel) {
+        if (total == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int value = 0; value < BINS; value++) {
+            sum += value * count(channel, value);
+        }
+        return (double) sum / total;
+    }
+
+    /**
+     * Returns the smallest value that at least a fraction of the pixels are at or below.
+     *
+     * @param channel  The channel.
+     * @param fraction The fraction of pixels, between 0 and 1.
+     * @return The value, between 0 and 255.
+     */
+    public int percentile(Channel channel, double fraction) {
+        long[] single = new long[BINS];
+        System.arraycopy(counts, channel.ordinal() * BINS, single, 0, BINS);
+        return percentile(single, total, fraction);
+    }
+
+    /**
+     * Builds the table that stretches the colours to the full range, ignoring a fraction of outliers.
+     *
+     * The darkest and brightest {@code clip} of the component values are
+     * pushed to 0 and 255, and everything in between is spread linearly.
+     *
+     * @param clip The fraction of values to clip at each end, between 0 and 0.5, usually {@link #DEFAULT_CLIP}.
+     * @return A table mapping each component value to its stretched value.
+     */
+    public int[] levelsTable(double clip) {
+        if (clip < 0 || clip >= 0.5) {
+            throw new IllegalArgumentException("clip must be at least 0 and below 0.5: " + clip);
+        }
+        long[] rgb = rgbCounts();
+        int low = percentile(rgb, 3 * total, clip);
+        int high = percentile(rgb, 3 * total, 1 - clip);
+        int[] table = new int[BINS];
+        for (int value = 0; value < BINS; value++) {
+            table[value] = (high <= low) ? value
+                    : ColorMath.clamp((int) Math.round((value - low) * 255.0 / (high - low)));
+        }
+        return table;
+    }
+
+    /**
+     * Builds the table that equalises the histogram, spreading the component values evenly over the range.
+     *
+     * @return A table mapping each component value through the cumulative distribution.
+     */
+    public int[] equalizationTable() {
+        long[] rgb = rgbCounts();
+        long all = 3 * total;
+        // The first occupied value maps to 0, so the output always uses the whole range.
+        long first = 0;
+        for (int value = 0; value < BINS && first == 0; value++) {
+            first = rgb[value];
+        }
+        int[] table = new int[BINS];
+        long cumulative = 0;
+        for (int value = 0; value < BINS; value++) {
+            cumulative += rgb[value];
+            table[value] = (all == first) ? value
+                    : (int) Math.max(0, Math.round((cumulative - first) * 255.0 / (all - first)));
+        }
+        return table;
+    }
+
+    /**
+     * Builds a posterize table whose levels follow the image content.
+     *
+     * Unlike {@link ColorMath#posterTable}, which cuts the range into equal
+     * intervals, the intervals here hold roughly equal numbers of component
+     * values, and each maps to the mean value inside it. Busy parts of the
+     * range get more levels and empty parts none.
+     *
+     * @param numLevels The number of levels, between 1 and 256.
+     * @return A table mapping each component value to the level it falls in.
+     */
+    public int[] posterTable(int numLevels) {
+        if (numLevels < 1 || numLevels > BINS) {
+            throw new IllegalArgumentException("numLevels must be between 1 and 256: " + numLevels);
+        }
+        long[] rgb = rgbCounts();
+        long all = 3 * total;
+        int[] table = new int[BINS];
+        int start = 0;
+        long cumulative = 0;
+        for (int level = 1; level <= numLevels && start < BINS; level++) {
+            // Extend the interval until it reaches this level's share of the values.
+            long limit = all * level / numLevels;
+            int end = start;
+            long sum = 0;
+            long count = 0;
+            while (end < BINS && (cumulative < limit || count == 0 || level == numLevels)) {
+                cumulative += rgb[end];
+                sum += end * rgb[end];
+                count += rgb[end];
+                end++;
+            }
+            int mean = (count > 0) ? (int) ((sum + count / 2) / count) : (start + end - 1) / 2;
+            for (int value = start; value < end; value++) {
+                table[value] = mean;
+            }
+            start = end;
+        }
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram(pixels=" + total + ", mean luma=" + String.format("%.1f", mean(Channel.LUMA)) + ")";
+    }
+
+    private static void count(int pixel, int[] counts, int redWeight, int greenWeight, int blueWeight) {
+        int red = (pixel >> 16) & 0xFF;
+        int green = (pixel >> 8) & 0xFF;
+        int blue = pixel & 0xFF;
+        counts[red]++;
+        counts[BINS + green]++;
+        counts[2 * BINS + blue]++;
+        counts[3 * BINS + ((redWeight * red + greenWeight * green + blueWeight * blue + 0x8000) >>> 16)]++;
+    }
+
+    // Adds one band's stripes to the shared counts; bands finish at different times, so merging is locked.
+    private static void merge(long[] merged, int[] even, int[] odd) {
+        synchronized (merged) {
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += even[i] + odd[i];
+            }
+        }
+    }
+
+    // The red, green and blue counts added together.
+    private long[] rgbCounts() {
+        long[] rgb = new long[BINS];
+        for (int value = 0; value < BINS; value++) {
+            rgb[value] = counts[value] + counts[BINS + value] + counts[2 * BINS + value];
+        }
+        return rgb;
+    }
+
+    private static int percentile(long[] bins, long all, double fraction) {
+        long needed = (long) Math.ceil(fraction * all);
+        long cumulative = 0;
+        for (int value = 0; value < BINS; value++) {
+            cumulative += bins[value];
+            if (cumulative >= needed && cumulative > 0) {
+                return value;
+            }
+        }
+        return BINS - 1;
+    }
+}
@@ -1,11 +1,14 @@
 import java.io.File;
 import java.awt.Desktop;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.awt.Color;
 import java.lang.Math;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 public class ImageEditor {
 
@@ -20,11 +23,14 @@ public static void printImagePixels(BufferedImage inputImage) {
     int height = inputImage.getHeight();
     int width = inputImage.getWidth();
 
+    // Read all the pixels of the input image at once.
+    int[] pixels = RasterAccess.readPixels(inputImage);
+
     // Iterate through each row (height) and column (width) of the image.
     for (int i = 0; i < height; i++) {
         for (int j = 0; j < width; j++) {
             // Get the pixel value at the current position (i, j).
-            int pixel = inputImage.getRGB(j, i);
+            int pixel = pixels[i * width + j];
 
             // Print the pixel value to the console.
             System.out.print(pixel);
@@ -36,33 +42,38 @@ public static void printImagePixels(BufferedImage inputImage) {
 
 	
 /**
- * Converts a BufferedImage to grayscale.
+ * Converts a BufferedImage to grayscale using BT.601 luma weights.
  *
  * @param inputImage The input BufferedImage to be converted to grayscale.
  * @return A new BufferedImage representing the grayscale version of the input image.
  */
 
 public static BufferedImage grayScaleImage(BufferedImage inputImage) {
+    return grayScaleImage(inputImage, Grayscale.Weighting.BT601);
+}
+
+/**
+ * Converts a BufferedImage to grayscale with the given weighting of the color components.
+ *
+ * @param inputImage The input BufferedImage to be converted.
+ * @param weighting  How the red, green and blue components are combined.
+ * @return A new TYPE_BYTE_GRAY image holding the gray levels.
+ */
+public static BufferedImage grayScaleImage(BufferedImage inputImage, Grayscale.Weighting weighting) {
     // Get the width and height of the input image.
     int width = inputImage.getWidth();
     int height = inputImage.getHeight();
     
-    // Create a new BufferedImage with grayscale color representation.
-    BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(inputImage, pool);
 
-    // Iterate through each pixel in the input image.
-    for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-            // Get the color value of the pixel in the input image.
-            int pixel = inputImage.getRGB(j, i);
-
-            // Set the same color value in the output grayscale image.
-            outputImage.setRGB(j, i, pixel);
-        }
-    }
+    // Compute the luma of every pixel straight into the gray bytes of the output image.
+    byte[] gray = Grayscale.toGray(pixels, width, height, weighting);
+    pool.release(pixels);
 
     // Return the grayscale image.
-    return outputImage;
+    return Grayscale.createImage(gray, width, height);
 }
 
 
@@ -78,58 +89,101 @@ public static BufferedImage changeBrightness(BufferedImage inputImage, int incre
     int width = inputImage.getWidth();
     int height = inputImage.getHeight();
     
-    // Create a new BufferedImage with 3-byte BGR color representation.
-    BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(inputImage, pool);
 
-    // Iterate through each pixel in the input image.
-    for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-            // Get the color value of the pixel in the input image.
-            Color pixel = new Color(inputImage.getRGB(j, i));
-            
-            // Extract the red, green, and blue components of the pixel.
-            int red = pixel.getRed();
-            int blue = pixel.getBlue();
-            int green = pixel.getGreen();
-            
-            // Adjust the brightness of each component based on the percentage increase.
-            red = red + (increase * red / 100);
-            blue = blue + (increase * blue / 100);
-            green = green + (increase * green / 100);
-
-            // Ensure that the color components stay within the valid range [0, 255].
-            if (red > 255) {
-                red = 255;
-            }
-            if (blue > 255) {
-                blue = 255;
-            }
-            if (green > 255) {
-                green = 255;
-            }
-            if (red < 0) {
-                red = 0;
-            }
-            if (blue < 0) {
-                blue = 0;
-            }
-            if (green < 0) {
-                green = 0;
-            }
+    // Adjust the red, green, and blue components of each pixel, clamped to the valid range [0, 255],
+    // one band of rows per task.
+    PointKernels kernels = PointFilters.kernels();
+    TileExecutor.forEachBand(height, width,
+            (startRow, endRow) -> kernels.brightness(pixels, increase, startRow * width, endRow * width));
 
-            // Create a new Color object with the adjusted components.
-            Color newPixel = new Color(red, green, blue);
-            
-            // Set the adjusted pixel color in the output image.
-            outputImage.setRGB(j, i, newPixel.getRGB());
-        }
-    }
+    // Create a new BufferedImage in the layout of the input image from the adjusted pixels.
+    BufferedImage outputImage = PixelLayout.write(pixels, width, height, inputImage, pool);
 
     // Return the image with adjusted brightness.
     return outputImage;
 }
 
 
+/**
+ * Adjusts the brightness of a BufferedImage automatically so that it is exposed for middle gray.
+ *
+ * @param inputImage The input BufferedImage.
+ * @return A new BufferedImage with the adjusted brightness.
+ */
+public static BufferedImage autoBrightness(BufferedImage inputImage) {
+    return autoBrightness(inputImage, ColorMath.MIDDLE_GRAY);
+}
+
+/**
+ * Adjusts the brightness of a BufferedImage automatically.
+ *
+ * The image is metered with a {@link SummedAreaTable}, weighting the centre
+ * like a camera does, and then brightened or darkened by the percentage
+ * that brings the metered level to the target, as {@link #changeBrightness} would.
+ *
+ * @param inputImage The input BufferedImage.
+ * @param target     The gray level to aim for, between 1 and 255.
+ * @return A new BufferedImage with the adjusted brightness.
+ */
+public static BufferedImage autoBrightness(BufferedImage inputImage, int target) {
+    int width = inputImage.getWidth();
+    int height = inputImage.getHeight();
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(inputImage, pool);
+
+    // Meter the image, then apply the matching brightness change in place.
+    int increase = ColorMath.exposureIncrease(SummedAreaTable.of(pixels, width, height).meteredLuma(), target);
+    PointKernels kernels = PointFilters.kernels();
+    TileExecutor.forEachBand(height, width,
+            (startRow, endRow) -> kernels.brightness(pixels, increase, startRow * width, endRow * width));
+
+    return PixelLayout.write(pixels, width, height, inputImage, pool);
+}
+
+/**
+ * Blurs each pixel of a BufferedImage by an amount taken from a mask, for depth-of-field effects.
+ *
+ * Black areas of the mask stay sharp and white areas get the largest
+ * radius, with gray levels in between. The windows are averaged with a
+ * {@link SummedAreaTable}, so the cost does not depend on the radii.
+ *
+ * @param image     The input BufferedImage to be blurred.
+ * @param mask      An image of the same size whose gray levels select the radius of each pixel.
+ * @param maxRadius The radius used where the mask is white.
+ * @return A new BufferedImage representing the blurred image.
+ */
+public static BufferedImage variableBlur(BufferedImage image, BufferedImage mask, int maxRadius) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    if (mask.getWidth() != width || mask.getHeight() != height) {
+        throw new IllegalArgumentException("mask must be " + width + "x" + height + ": "
+                + mask.getWidth() + "x" + mask.getHeight());
+    }
+
+    // Scale each gray level of the mask to a radius, rounding to the nearest pixel.
+    byte[] levels = Grayscale.readGray(mask);
+    int[] radii = new int[levels.length];
+    for (int i = 0; i < radii.length; i++) {
+        radii[i] = ((levels[i] & 0xFF) * maxRadius + 127) / 255;
+    }
+
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] blurred = pool.ints(width * height);
+    SummedAreaTable.of(pixels, width, height).blur(radii, blurred);
+
+    // The table only averages the colour; every pixel keeps its own alpha.
+    for (int i = 0; i < blurred.length; i++) {
+        blurred[i] = (pixels[i] & 0xFF000000) | (blurred[i] & 0x00FFFFFF);
+    }
+    pool.release(pixels);
+    return PixelLayout.write(blurred, width, height, image, pool);
+}
+
+
 /**
  * Rotates a BufferedImage by 90 degrees clockwise.
  *
@@ -141,19 +195,17 @@ public static BufferedImage rotateBy90(BufferedImage image) {
     int width = image.getWidth();
     int height = image.getHeight();
 
-    // Create a new BufferedImage with swapped width and height.
-    BufferedImage outputImage = new BufferedImage(height, width, BufferedImage.TYPE_3BYTE_BGR);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
 
-    // Iterate through each pixel in the input image.
-    for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-            // Get the color value of the pixel in the input image.
-            int pixel = image.getRGB(j, i);
-            
-            // Set the pixel in the output image with swapped coordinates.
-            outputImage.setRGB(height - i - 1, j, pixel);
-        }
-    }
+    // Move every pixel to its rotated position, one cache-sized tile at a time.
+    int[] rotated = GeometricTransform.reorient(pixels, width, height, Orientation.ROTATE_90, null,
+            pool.ints(pixels.length));
+    pool.release(pixels);
+
+    // Create a new BufferedImage with swapped width and height.
+    BufferedImage outputImage = PixelLayout.write(rotated, height, width, image, pool);
 
     // Return the rotated image.
     return outputImage;
@@ -219,18 +271,21 @@ public static BufferedImage horizontalFlip(BufferedImage image) {
     int width = image.getWidth();
     int height = image.getHeight();
 
-    // Create a new BufferedImage to store the flipped image.
-    BufferedImage flippedImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] flipped = pool.ints(pixels.length);
 
-    // Iterate through each row in the input image up to its midpoint.
-    for (int i = 0; i < height / 2; i++) {
-        for (int j = 0; j < width; j++) {
-            // Swap the pixels horizontally between the current row and its corresponding row from the bottom.
-            int temp = image.getRGB(j, i);
-            flippedImage.setRGB(j, i, image.getRGB(j, height - i - 1));
-            flippedImage.setRGB(j, height - i - 1, temp);
+    // Copy each row of the input image to its corresponding row from the bottom.
+    TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+        for (int i = startRow; i < endRow; i++) {
+            System.arraycopy(pixels, (height - i - 1) * width, flipped, i * width, width);
         }
-    }
+    });
+
+    // Create a new BufferedImage to store the flipped image.
+    pool.release(pixels);
+    BufferedImage flippedImage = PixelLayout.write(flipped, width, height, image, pool);
 
     // Return the horizontally flipped image.
     return flippedImage;
@@ -248,18 +303,23 @@ public static BufferedImage mirror(BufferedImage image) {
     int width = image.getWidth();
     int height = image.getHeight();
 
-    // Create a new BufferedImage to store the vertically mirrored image.
-    BufferedImage mirroredImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-
-    // Iterate through each row in the input image up to its midpoint.
-    for (int i = 0; i < height / 2; i++) {
-        for (int j = 0; j < width; j++) {
-            // Swap the pixels vertically between the current row and its corresponding row from the bottom.
-            int temp = image.getRGB(j, i);
-            mirroredImage.setRGB(j, height - i - 1, temp);
-            mirroredImage.setRGB(j, i, temp);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] mirrored = pool.ints(pixels.length);
+
+    // Iterate through each row in the top half of the input image, including the middle row.
+    TileExecutor.forEachBand((height + 1) / 2, width, (startRow, endRow) -> {
+        for (int i = startRow; i < endRow; i++) {
+            // Copy the row to itself and to its corresponding row from the bottom.
+            System.arraycopy(pixels, i * width, mirrored, i * width, width);
+            System.arraycopy(pixels, i * width, mirrored, (height - i - 1) * width, width);
         }
-    }
+    });
+
+    // Create a new BufferedImage to store the vertically mirrored image.
+    pool.release(pixels);
+    BufferedImage mirroredImage = PixelLayout.write(mirrored, width, height, image, pool);
 
     // Return the vertically mirrored image.
     return mirroredImage;
@@ -277,18 +337,27 @@ public static BufferedImage mirrorVertical(BufferedImage image) {
     int width = image.getWidth();
     int height = image.getHeight();
 
-    // Create a new BufferedImage to store the horizontally mirrored image.
-    BufferedImage mirroredImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] mirrored = pool.ints(pixels.length);
 
     // Iterate through each row in the input image.
-    for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width / 2; j++) {
-            // Swap the pixels horizontally between the current column and its corresponding column from the right.
-            int temp = image.getRGB(j, i);
-            mirroredImage.setRGB(width - j - 1, i, temp);
-            mirroredImage.setRGB(j, i, temp);
+    TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+        for (int i = startRow; i < endRow; i++) {
+            int row = i * width;
+            for (int j = 0; j < (width + 1) / 2; j++) {
+                // Copy the left-half pixel to itself and to its corresponding column from the right.
+                int temp = pixels[row + j];
+                mirrored[row + width - j - 1] = temp;
+                mirrored[row + j] = temp;
+            }
         }
-    }
+    });
+
+    // Create a new BufferedImage to store the horizontally mirrored image.
+    pool.release(pixels);
+    BufferedImage mirroredImage = PixelLayout.write(mirrored, width, height, image, pool);
 
     // Return the horizontally mirrored image.
     return mirroredImage;
@@ -305,18 +374,25 @@ public static BufferedImage verticalFlip(BufferedImage image) {
     int width = image.getWidth();
     int height = image.getHeight();
 
-    // Create a new BufferedImage to store the vertically flipped image.
-    BufferedImage flippedImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] flipped = pool.ints(pixels.length);
 
     // Iterate through each row in the input image.
-    for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width / 2; j++) {
-            // Swap the pixels vertically between the current column and its corresponding column from the right.
-            int temp = image.getRGB(j, i);
-            flippedImage.setRGB(j, i, image.getRGB(width - j - 1, i));
-            flippedImage.setRGB(width - j - 1, i, temp);
+    TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+        for (int i = startRow; i < endRow; i++) {
+            int row = i * width;
+            for (int j = 0; j < width; j++) {
+                // Take each pixel from its corresponding column from the right.
+                flipped[row + j] = pixels[row + width - j - 1];
+            }
         }
-    }
+    });
+
+    // Create a new BufferedImage to store the vertically flipped image.
+    pool.release(pixels);
+    BufferedImage flippedImage = PixelLayout.write(flipped, width, height, image, pool);
 
     // Return the vertically flipped image.
     return flippedImage;
@@ -327,20 +403,14 @@ public static BufferedImage verticalFlip(BufferedImage image) {
 		int width = image.getWidth();
 		int height = image.getHeight();
 		
-		BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				int pixel = image.getRGB(j, i);
-				Color color = new Color(pixel);
-				int red = 255 - color.getRed();
-				int green = 255 - color.getGreen();
-				int blue = 255 - color.getBlue();
-
-				Color new_pixel = new Color(red, green, blue);
-				outputImage.setRGB(j, i, new_pixel.getRGB());
-			}
-		}
+		RasterPool pool = RasterPool.shared();
+		int[] pixels = PixelLayout.read(image, pool);
+
+		PointKernels kernels = PointFilters.kernels();
+		TileExecutor.forEachBand(height, width,
+				(startRow, endRow) -> kernels.negative(pixels, startRow * width, endRow * width));
+
+		BufferedImage outputImage = PixelLayout.write(pixels, width, height, image, pool);
 
 		return outputImage;
 
@@ -350,30 +420,133 @@ public static BufferedImage verticalFlip(BufferedImage image) {
 	public static BufferedImage poster(BufferedImage image, int numLevels) {
 		int width = image.getWidth();
 		int height = image.getHeight();
-		BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
-		int interval = 256 / numLevels;  // Calculate the interval size
+		if (numLevels < 1 || numLevels > 256) {
+			throw new IllegalArgumentException("numLevels must be between 1 and 256: " + numLevels);
+		}
 
-     for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-            Color color = new Color(image.getRGB(j, i));
+		// Gray images are posterized on their single channel and stay gray.
+		if (Grayscale.isPackedGray(image)) {
+			byte[] gray = Grayscale.readGray(image);
+			int[] table = ColorMath.posterTable(numLevels);
+			TileExecutor.forEachBand(height, width,
+					(startRow, endRow) -> Grayscale.applyTable(gray, gray, table, startRow * width, endRow * width));
+			return Grayscale.createImage(gray, width, height);
+		}
 
-            int red = (color.getRed() / interval) * interval;
-            int blue = (color.getBlue() / interval) * interval;
-            int green = (color.getGreen() / interval) * interval;
+		RasterPool pool = RasterPool.shared();
+		int[] pixels = PixelLayout.read(image, pool);
 
-            Color newColor = new Color(red, green, blue);
-            outputImage.setRGB(j, i, newColor.getRGB());
-        }
-    }
+		// Each component drops to the start of its interval of 256 / numLevels values.
+		PointKernels kernels = PointFilters.kernels();
+		TileExecutor.forEachBand(height, width,
+				(startRow, endRow) -> kernels.poster(pixels, numLevels, startRow * width, endRow * width));
+
+    BufferedImage outputImage = PixelLayout.write(pixels, width, height, image, pool);
 
     return outputImage;
 }
 
 
+/**
+ * Stretches the colors of a BufferedImage to the full range, like the auto-levels of a photo editor.
+ *
+ * The darkest and brightest half percent of the component values are clipped,
+ * so a few extreme pixels do not stop the stretch.
+ *
+ * @param image The input BufferedImage.
+ * @return A new BufferedImage with the stretched colors.
+ */
+public static BufferedImage autoLevels(BufferedImage image) {
+    return withHistogramTable(image, histogram -> histogram.levelsTable(Histogram.DEFAULT_CLIP));
+}
+
+/**
+ * Equalizes the histogram of a BufferedImage, spreading its component values evenly over the range.
+ *
+ * @param image The input BufferedImage.
+ * @return A new BufferedImage with the equalized colors.
+ */
+public static BufferedImage equalize(BufferedImage image) {
+    return withHistogramTable(image, Histogram::equalizationTable);
+}
+
+/**
+ * Posterizes a BufferedImage with levels chosen from its content.
+ *
+ * Where {@link #poster} cuts the range into equal intervals, the intervals
+ * here each hold a similar share of the pixels, so the levels land where
+ * the image has detail.
+ *
+ * @param image     The input BufferedImage.
+ * @param numLevels The number of levels per component, between 1 and 256.
+ * @return A new BufferedImage with the posterized colors.
+ */
+public static BufferedImage adaptivePoster(BufferedImage image, int numLevels) {
+    if (numLevels < 1 || numLevels > 256) {
+        throw new IllegalArgumentException("numLevels must be between 1 and 256: " + numLevels);
+    }
+    return withHistogramTable(image, histogram -> histogram.posterTable(numLevels));
+}
+
+/**
+ * Reduces the colours of a BufferedImage to a palette generated from it.
+ *
+ * The palette is generated by median cut or an octree, and every pixel is
+ * mapped to it through the 32x32x32 lookup cube of {@link Palette}.
+ * Dithering hides the bands that a small palette leaves in gradients.
+ * The result keeps the layout and alpha of the input.
+ *
+ * @param image  The input BufferedImage.
+ * @param colors The most colours to keep, between 1 and 256.
+ * @param method How to choose the colours.
+ * @param dither How to spread the rounding.
+ * @return A new BufferedImage with at most {@code colors} colours.
+ */
+public static BufferedImage quantize(BufferedImage image, int colors, Palette.Method method, Quantizer.Dither dither) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    Palette palette = Palette.of(pixels, width, height, colors, method);
+    Quantizer.quantize(pixels, pixels, width, height, palette, dither);
+    return PixelLayout.write(pixels, width, height, image, pool);
+}
+
+/**
+ * Counts the histogram of an image and applies the lookup table built from it.
+ *
+ * @param image The input BufferedImage.
+ * @param table Builds the table from the histogram.
+ * @return A new image in the layout of the input.
+ */
+private static BufferedImage withHistogramTable(BufferedImage image, Function<Histogram, int[]> table) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+
+    // Gray images are counted and mapped on their single channel and stay gray.
+    if (Grayscale.isPackedGray(image)) {
+        byte[] gray = Grayscale.readGray(image);
+        int[] lookup = table.apply(Histogram.ofGray(gray, width, height));
+        TileExecutor.forEachBand(height, width,
+                (startRow, endRow) -> Grayscale.applyTable(gray, gray, lookup, startRow * width, endRow * width));
+        return Grayscale.createImage(gray, width, height);
+    }
+
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] lookup = table.apply(Histogram.of(pixels, width, height));
+    TileExecutor.forEachBand(height, width,
+            (startRow, endRow) -> ColorMath.applyTable(pixels, pixels, lookup, startRow * width, endRow * width));
+    return PixelLayout.write(pixels, width, height, image, pool);
+}
+
 /**
  * Applies a blur effect to a BufferedImage.
  *
+ * Each output pixel is the average of the pixels within the given radius around it,
+ * computed with a separable sliding-window box blur so the cost does not grow with the radius.
+ *
  * @param image The input BufferedImage to be blurred.
  * @param rad   The radius of the blur effect. Larger values result in stronger blur.
  * @return A new BufferedImage representing the blurred image.
@@ -382,68 +555,307 @@ public static BufferedImage blur(BufferedImage image, int rad) {
     // Get the width and height of the input image.
     int width = image.getWidth();
     int height = image.getHeight();
-    
-    // Create a new BufferedImage to store the blurred image with the same dimensions and RGB color representation.
-    BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-    // Iterate through each pixel in the input image.
-    for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-            int sumRed = 0, sumBlue = 0, sumGreen = 0, pixels = 0;
-
-            // Iterate through the pixels within the specified radius around the current pixel.
-            for (int dy = -rad; dy <= rad; dy++) {
-                for (int dx = -rad; dx <= rad; dx++) {
-                    int newX = Math.min(Math.max(x + dx, 0), width - 1);
-                    int newY = Math.min(Math.max(y + dy, 0), height - 1);
-
-                    // Get the color of the nearby pixel.
-                    Color pixel = new Color(image.getRGB(newX, newY));
-                    sumBlue += pixel.getBlue();
-                    sumRed += pixel.getRed();
-                    sumGreen += pixel.getGreen();
-
-                    pixels++;
-                }
-            }
 
-            // Calculate the average color values within the specified radius.
-            int avgRed = sumRed / pixels;
-            int avgBlue = sumBlue / pixels;
-            int avgGreen = sumGreen / pixels;
-
-            // Create a new Color object with the average color values.
-            Color newPixel = new Color(avgRed, avgGreen, avgBlue);
-
-            // Set the blurred color to the pixels within the specified radius around the current pixel.
-            for (int dy = -rad; dy <= rad; dy++) {
-                for (int dx = -rad; dx <= rad; dx++) {
-                    int newX = Math.min(Math.max(x + dx, 0), width - 1);
-                    int newY = Math.min(Math.max(y + dy, 0), height - 1);
-                    outputImage.setRGB(newX, newY, newPixel.getRGB());
-                }
-            }
-        }
+    // Gray images are blurred on their single channel and stay gray.
+    if (Grayscale.isPackedGray(image)) {
+        byte[] gray = Grayscale.readGray(image);
+        byte[] blurred = new byte[gray.length];
+        BoxBlur.blurGray(gray, blurred, width, height, rad);
+        return Grayscale.createImage(blurred, width, height);
     }
 
+    // Read all the pixels of the input image into a packed raster.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] blurred = pool.ints(pixels.length);
+
+    // Average every pixel over its (2 * rad + 1) square window.
+    BoxBlur.blur(pixels, blurred, width, height, rad);
+    pool.release(pixels);
+
+    // Create a new BufferedImage to store the blurred image with the same dimensions and layout.
+    BufferedImage outputImage = PixelLayout.write(blurred, width, height, image, pool);
+
     // Return the blurred image.
     return outputImage;
 }
 
-	public static BufferedImage rotate(BufferedImage image) {
+/**
+ * Applies a Gaussian-like blur effect to a BufferedImage.
+ *
+ * The Gaussian is approximated by several successive box blurs, which keeps the cost per pixel constant.
+ *
+ * @param image The input BufferedImage to be blurred.
+ * @param rad   The standard deviation of the blur in pixels. Larger values result in stronger blur.
+ * @return A new BufferedImage representing the blurred image.
+ */
+public static BufferedImage gaussianBlur(BufferedImage image, int rad) {
+    // Get the width and height of the input image.
+    int width = image.getWidth();
+    int height = image.getHeight();
 
-                BufferedImage output = image;
+    // Gray images are blurred on their single channel and stay gray.
+    if (Grayscale.isPackedGray(image)) {
+        byte[] gray = Grayscale.readGray(image);
+        byte[] blurred = new byte[gray.length];
+        BoxBlur.gaussianGray(gray, blurred, width, height, rad, BoxBlur.GAUSSIAN_PASSES);
+        return Grayscale.createImage(blurred, width, height);
+    }
+
+    // Read all the pixels of the input image into a packed raster.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] blurred = pool.ints(pixels.length);
+
+    // Run the box passes that approximate the Gaussian.
+    BoxBlur.gaussian(pixels, blurred, width, height, rad, BoxBlur.GAUSSIAN_PASSES);
+    pool.release(pixels);
+
+    BufferedImage outputImage = PixelLayout.write(blurred, width, height, image, pool);
+
+    // Return the blurred image.
+    return outputImage;
+}
+
+/**
+ * Applies a convolution kernel to a BufferedImage.
+ *
+ * The kernel is applied with the cheapest {@link Convolution.Strategy} for its
+ * size, so large kernels are multiplied in the frequency domain.
+ *
+ * @param image  The input BufferedImage.
+ * @param kernel The kernel to apply.
+ * @param edges  How pixels beyond the edges of the image are read.
+ * @return A new BufferedImage representing the filtered image.
+ */
+public static BufferedImage convolve(BufferedImage image, Kernel kernel, EdgeMode edges) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+    int[] filtered = pool.ints(pixels.length);
+    Convolution.convolve(pixels, filtered, width, height, kernel, edges);
+    pool.release(pixels);
+    return PixelLayout.write(filtered, width, height, image, pool);
+}
+
+/**
+ * Sharpens a BufferedImage with {@link Kernel#sharpen()}.
+ *
+ * @param image The input BufferedImage.
+ * @return A new BufferedImage representing the sharpened image.
+ */
+public static BufferedImage sharpen(BufferedImage image) {
+    return convolve(image, Kernel.sharpen(), EdgeMode.CLAMP);
+}
+
+/**
+ * Highlights the edges of a BufferedImage with {@link Kernel#edgeDetect()}.
+ *
+ * @param image The input BufferedImage.
+ * @return A new BufferedImage where flat areas are black and edges bright.
+ */
+public static BufferedImage edgeDetect(BufferedImage image) {
+    return convolve(image, Kernel.edgeDetect(), EdgeMode.CLAMP);
+}
+
+/**
+ * Embosses a BufferedImage with {@link Kernel#emboss()}.
+ *
+ * @param image The input BufferedImage.
+ * @return A new BufferedImage representing the embossed image.
+ */
+public static BufferedImage emboss(BufferedImage image) {
+    return convolve(image, Kernel.emboss(), EdgeMode.CLAMP);
+}
+
+/**
+ * Applies a true Gaussian blur to a BufferedImage.
+ *
+ * Unlike {@link #gaussianBlur(BufferedImage, int)}, which approximates the
+ * Gaussian with box passes, this convolves with the sampled Gaussian itself.
+ * It is slower but has no box artefacts and accepts fractional deviations.
+ *
+ * @param image The input BufferedImage to be blurred.
+ * @param sigma The standard deviation of the blur in pixels, greater than 0.
+ * @return A new BufferedImage representing the blurred image.
+ */
+public static BufferedImage exactGaussianBlur(BufferedImage image, double sigma) {
+    return convolve(image, Kernel.gaussian(sigma), EdgeMode.CLAMP);
+}
+
+/**
+ * Converts the part of a BufferedImage inside a region to grayscale.
+ *
+ * @param inputImage The input BufferedImage.
+ * @param weighting  How the red, green and blue components are combined.
+ * @param region     The region to convert. Parts outside the image are ignored.
+ * @return A new image with the region in gray and the rest unchanged.
+ */
+public static BufferedImage grayScaleImage(BufferedImage inputImage, Grayscale.Weighting weighting, Rectangle region) {
+    return inRegion(inputImage, region, 0, image -> grayScaleImage(image, weighting));
+}
+
+/**
+ * Adjusts the brightness of the part of a BufferedImage inside a region.
+ *
+ * @param inputImage The input BufferedImage.
+ * @param increase   The percentage increase in brightness.
+ * @param region     The region to adjust. Parts outside the image are ignored.
+ * @return A new image with the region adjusted and the rest unchanged.
+ */
+public static BufferedImage changeBrightness(BufferedImage inputImage, int increase, Rectangle region) {
+    return inRegion(inputImage, region, 0, image -> changeBrightness(image, increase));
+}
+
+/**
+ * Inverts the colors of the part of a BufferedImage inside a region.
+ *
+ * @param image  The input BufferedImage.
+ * @param region The region to invert. Parts outside the image are ignored.
+ * @return A new image with the region inverted and the rest unchanged.
+ */
+public static BufferedImage negative(BufferedImage image, Rectangle region) {
+    return inRegion(image, region, 0, ImageEditor::negative);
+}
+
+/**
+ * Posterizes the part of a BufferedImage inside a region.
+ *
+ * @param image     The input BufferedImage.
+ * @param numLevels The number of levels per component, between 1 and 256.
+ * @param region    The region to posterize. Parts outside the image are ignored.
+ * @return A new image with the region posterized and the rest unchanged.
+ */
+public static BufferedImage poster(BufferedImage image, int numLevels, Rectangle region) {
+    return inRegion(image, region, 0, input -> poster(input, numLevels));
+}
+
+/**
+ * Blurs the part of a BufferedImage inside a region.
+ *
+ * Pixels near the edge of the region are averaged with the unblurred pixels
+ * just outside it, exactly as in a blur of the whole image.
+ *
+ * @param image  The input BufferedImage.
+ * @param rad    The radius of the blur.
+ * @param region The region to blur. Parts outside the image are ignored.
+ * @return A new image with the region blurred and the rest unchanged.
+ */
+public static BufferedImage blur(BufferedImage image, int rad, Rectangle region) {
+    return inRegion(image, region, Math.max(rad, 0), input -> blur(input, rad));
+}
+
+/**
+ * Applies a Gaussian-like blur to the part of a BufferedImage inside a region.
+ *
+ * @param image  The input BufferedImage.
+ * @param rad    The standard deviation of the blur in pixels.
+ * @param region The region to blur. Parts outside the image are ignored.
+ * @return A new image with the region blurred and the rest unchanged.
+ */
+public static BufferedImage gaussianBlur(BufferedImage image, int rad, Rectangle region) {
+    return inRegion(image, region, BoxBlur.gaussianReach(rad, BoxBlur.GAUSSIAN_PASSES),
+            input -> gaussianBlur(input, rad));
+}
+
+/**
+ * Runs a filter on the region of an image only.
+ *
+ * The filter sees a crop of the region widened by {@code reach} pixels, the
+ * distance it reads around each output pixel, so the cost follows the size
+ * of the region rather than the image. The filtered region is then copied
+ * into the rest of the image. The result is in the layout of the input image.
+ *
+ * @param image  The input BufferedImage.
+ * @param region The region to filter.
+ * @param reach  How many pixels around each output pixel the filter reads.
+ * @param filter The filter, applied to the crop.
+ * @return A new image with the region filtered.
+ */
+private static BufferedImage inRegion(BufferedImage image, Rectangle region, int reach,
+        UnaryOperator<BufferedImage> filter) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Rectangle area = Regions.clip(region, width, height);
+    if (area.isEmpty()) {
+        throw new IllegalArgumentException("Region does not overlap the image: " + region);
+    }
+    Rectangle input = Regions.expand(area, reach, width, height);
+    int offsetX = area.x - input.x;
+    int offsetY = area.y - input.y;
+
+    // Gray images are cropped on their single channel so gray filters keep their fast paths.
+    if (Grayscale.isPackedGray(image)) {
+        byte[] gray = Grayscale.readGray(image);
+        BufferedImage filtered = filter.apply(
+                Grayscale.createImage(Regions.crop(gray, width, input), input.width, input.height));
+        if (Grayscale.isPackedGray(filtered)) {
+            Regions.copy(Grayscale.readGray(filtered), input.width, offsetX, offsetY, gray, width, area.x, area.y, area.width, area.height);
+            return Grayscale.createImage(gray, width, height);
+        }
+        int[] pixels = PixelLayout.read(image);
+        Regions.copy(PixelLayout.read(filtered), input.width, offsetX, offsetY,
+                pixels, width, area.x, area.y, area.width, area.height);
+        return PixelLayout.write(pixels, width, height, image);
+    }
+
+    // The crop is packed, with alpha if the image has it, so the filter converts nothing.
+    int[] pixels = PixelLayout.read(image);
+    int cropType = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    BufferedImage filtered = filter.apply(RasterAccess.createImage(Regions.crop(pixels, width, input),
+            input.width, input.height, cropType));
+    Regions.copy(PixelLayout.read(filtered), input.width, offsetX, offsetY,
+            pixels, width, area.x, area.y, area.width, area.height);
+    return PixelLayout.write(pixels, width, height, image);
+}
+
+/**
+ * Rotates a BufferedImage clockwise by any angle.
+ *
+ * The output is enlarged to fit the whole rotated image. The uncovered corners
+ * are transparent if the image has alpha and black otherwise.
+ *
+ * @param image   The input BufferedImage to be rotated.
+ * @param degrees The clockwise rotation angle in degrees.
+ * @return A new BufferedImage representing the rotated image.
+ */
+public static BufferedImage rotateByAngle(BufferedImage image, double degrees) {
+    // Quarter turns are exact and much cheaper than sampling.
+    if (degrees % 90 == 0) {
+        return Pipeline.of(image).rotate((int) degrees).apply();
+    }
+
+    // Read all the pixels of the input image at once.
+    RasterPool pool = RasterPool.shared();
+    int[] pixels = PixelLayout.read(image, pool);
+
+    // Sample the source at the inverse-rotated position of every output pixel.
+    int background = image.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+    GeometricTransform.Rotated rotated = GeometricTransform.rotate(pixels, image.getWidth(), image.getHeight(),
+            degrees, background);
+    pool.release(pixels);
+
+    // Return the rotated image.
+    return PixelLayout.write(rotated.pixels, rotated.width, rotated.height, image);
+}
+
+	public static BufferedImage rotate(BufferedImage image) {
 
 		Scanner sc = new Scanner(System.in);
 		System.out.println("The angle by which you wanna rotate it --> ");
-		System.out.println("1.)90   2.)180   3.) 270");
+		System.out.println("1.)90   2.)180   3.) 270   4.) another angle");
 		int angle_num = sc.nextInt();
 
-                for (int i = 0; i < angle_num; i++) {
-                     output = rotateBy90(output);
-        }
+		if (angle_num == 4) {
+			System.out.println("Enter the angle in degrees (clockwise):");
+			double degrees = sc.nextDouble();
+			return measured("rotateByAngle", image, input -> rotateByAngle(input, degrees));
+		}
 
-		return output;
+		// The quarter turns are composed into a single pass over the image.
+		return measured("rotate", image,
+				input -> Pipeline.of(input).rotate(90 * angle_num).apply());
 	}
 
 /**
@@ -456,6 +868,31 @@ public static BufferedImage handleBlur(BufferedImage image) {
     // Create a Scanner object to read user input.
     Scanner sc = new Scanner(System.in);
     
+    // Prompt the user to choose the kind of blur.
+    System.out.println("Which blur do you want to apply?");
+    System.out.println("1. Box blur");
+    System.out.println("2. Gaussian blur");
+    System.out.println("3. Variable blur from a mask image");
+    System.out.println("4. Exact Gaussian blur");
+    int mode = sc.nextInt();
+
+    // A variable blur takes its radii from a mask; white areas get the full intensity.
+    BufferedImage mask = null;
+    if (mode == 3) {
+        System.out.println("Enter the path of the mask image:");
+        String path = sc.next();
+        try {
+            mask = ImageIO.read(new File(path));
+        } catch (IOException e) {
+            System.out.println("Could not read the mask: " + e.getMessage());
+            return image;
+        }
+        if (mask == null) {
+            System.out.println("Unsupported mask format: " + path);
+            return image;
+        }
+    }
+
     // Prompt the user to enter the intensity of blur.
     System.out.println("Enter the intensity of blur:");
     
@@ -465,8 +902,68 @@ public static BufferedImage handleBlur(BufferedImage image) {
     // Close the Scanner to release resources.
      
     
-    // Apply the blur effect to the input image with the specified intensity.
-    return blur(image, num);
+    // Apply the selected blur effect to the input image with the specified intensity.
+    if (mode == 2) {
+        return measured("gaussianBlur", image, input -> gaussianBlur(input, num));
+    }
+    if (mode == 4) {
+        return measured("exactGaussianBlur", image, input -> exactGaussianBlur(input, num));
+    }
+    if (mode == 3) {
+        BufferedImage radii = mask;
+        return measured("variableBlur", image, input -> variableBlur(input, radii, num));
+    }
+    return measured("blur", image, input -> blur(input, num));
+}
+
+/**
+ * Handles the colour reduction of a BufferedImage based on user input.
+ *
+ * @param image The input BufferedImage.
+ * @return A new BufferedImage with the reduced colours.
+ */
+public static BufferedImage handleQuantize(BufferedImage image) {
+    Scanner sc = new Scanner(System.in);
+
+    // Prompt the user for the palette size, how to choose it and how to dither.
+    System.out.println("How many colours should the image keep (1 to 256)?");
+    int colors = sc.nextInt();
+    System.out.println("How should the colours be chosen?");
+    System.out.println("1. Median cut");
+    System.out.println("2. Octree");
+    Palette.Method method = sc.nextInt() == 2 ? Palette.Method.OCTREE : Palette.Method.MEDIAN_CUT;
+    System.out.println("Which dithering do you want?");
+    System.out.println("1. None");
+    System.out.println("2. Ordered (Bayer)");
+    System.out.println("3. Floyd-Steinberg");
+    int mode = sc.nextInt();
+    Quantizer.Dither dither = mode == 2 ? Quantizer.Dither.ORDERED
+            : mode == 3 ? Quantizer.Dither.FLOYD_STEINBERG : Quantizer.Dither.NONE;
+
+    return measured("quantize", image, input -> quantize(input, colors, method, dither));
+}
+
+/**
+ * Handles the grayscale conversion of a BufferedImage based on user input.
+ *
+ * @param image The input BufferedImage to be converted.
+ * @return A new BufferedImage representing the grayscale image.
+ */
+public static BufferedImage handleGrayScale(BufferedImage image) {
+    Scanner sc = new Scanner(System.in);
+
+    // Prompt the user to choose how the color components are weighted.
+    System.out.println("Which grayscale weighting do you want to use?");
+    Grayscale.Weighting[] weightings = Grayscale.Weighting.values();
+    for (int i = 0; i < weightings.length; i++) {
+        System.out.println((i + 1) + ". " + weightings[i]);
+    }
+    int mode = sc.nextInt();
+
+    // Fall back to BT.601 for choices outside the list.
+    Grayscale.Weighting weighting = (mode < 1 || mode > weightings.length)
+            ? Grayscale.Weighting.BT601 : weightings[mode - 1];
+    return measured("grayScaleImage", image, input -> grayScaleImage(input, weighting));
 }
 
 /**
@@ -480,16 +977,20 @@ public static BufferedImage handleChangeBrightness(BufferedImage image) {
     Scanner sc = new Scanner(System.in);
 
     // Prompt the user to enter the value by which to increase the brightness.
-    System.out.println("Enter the value by which you want to increase the brightness:");
+    System.out.println("Enter the value by which you want to increase the brightness, or auto to expose automatically:");
 
-    // Read the user's input as an integer.
-    int num = sc.nextInt();
+    // Read the user's input as an integer, unless automatic exposure was asked for.
+    String answer = sc.next();
+    if (answer.equalsIgnoreCase("auto")) {
+        return measured("autoBrightness", image, ImageEditor::autoBrightness);
+    }
+    int num = Integer.parseInt(answer);
 
     // Close the Scanner to release resources.
      
 
     // Apply the brightness adjustment to the input image with the specified value.
-    return changeBrightness(image, num);
+    return measured("changeBrightness", image, input -> changeBrightness(input, num));
 }
 
 public static BufferedImage handleMirror(BufferedImage image) {
@@ -502,9 +1003,9 @@ public static BufferedImage handleMirror(BufferedImage image) {
         int num = sc.nextInt();
 
         if (num == 1) {
-            output = mirror(image);
+            output = measured("mirror", image, ImageEditor::mirror);
         } else if (num == 2) {
-            output = mirrorVertical(image);
+            output = measured("mirrorVertical", image, ImageEditor::mirrorVertical);
         }
     
          
@@ -532,6 +1033,13 @@ public static int takingInput() {
     System.out.println("7. Apply blur effect");
     System.out.println("8. Apply negative effect");
     System.out.println("9. Apply poster effect");
+    System.out.println("10. Apply auto-levels");
+    System.out.println("11. Equalize the histogram");
+    System.out.println("12. Apply adaptive poster effect");
+    System.out.println("13. Sharpen the image");
+    System.out.println("14. Detect edges");
+    System.out.println("15. Apply emboss effect");
+    System.out.println("16. Reduce the colours");
 
     // Read the user's choice as an integer.
     int input = sc.nextInt();
@@ -552,13 +1060,13 @@ public static int takingInput() {
 public static void handlingInput(int input, BufferedImage image) {
     switch (input) {
         case 1:
-            handleOutputImage(horizontalFlip(image));
+            handleOutputImage(measured("horizontalFlip", image, ImageEditor::horizontalFlip));
             break;
         case 2:
-            handleOutputImage(verticalFlip(image));
+            handleOutputImage(measured("verticalFlip", image, ImageEditor::verticalFlip));
             break;
         case 3:
-            handleOutputImage(grayScaleImage(image));
+            handleOutputImage(handleGrayScale(image));
             break;
         case 4:
             handleOutputImage(handleChangeBrightness(image));
@@ -573,42 +1081,119 @@ public static void handlingInput(int input, BufferedImage image) {
             handleOutputImage(handleBlur(image));
             break;
         case 8:
-            handleOutputImage(negative(image));
+            handleOutputImage(measured("negative", image, ImageEditor::negative));
             break;
         case 9:
             Scanner sc = new Scanner(System.in);
             System.out.println("Please enter the numLevels of the poster effect..");
             int num = sc.nextInt();
-            handleOutputImage(poster(image, num));
-             
+            handleOutputImage(measured("poster", image, source -> poster(source, num)));
+            break;
+        case 10:
+            handleOutputImage(measured("autoLevels", image, ImageEditor::autoLevels));
+            break;
+        case 11:
+            handleOutputImage(measured("equalize", image, ImageEditor::equalize));
+            break;
+        case 12:
+            Scanner levels = new Scanner(System.in);
+            System.out.println("Please enter the numLevels of the adaptive poster effect..");
+            int count = levels.nextInt();
+            handleOutputImage(measured("adaptivePoster", image, source -> adaptivePoster(source, count)));
+            break;
+        case 13:
+            handleOutputImage(measured("sharpen", image, ImageEditor::sharpen));
+            break;
+        case 14:
+            handleOutputImage(measured("edgeDetect", image, ImageEditor::edgeDetect));
+            break;
+        case 15:
+            handleOutputImage(measured("emboss", image, ImageEditor::emboss));
+            break;
+        case 16:
+            handleOutputImage(handleQuantize(image));
+            break;
         default:
             break;
     }
 }
 
 /**
- * Handles the output image by saving it as a JPEG file and opening it using the default application.
+ * Runs one filter and records its time, pixels and allocations under {@code filter.<name>} in {@link Metrics}.
+ *
+ * @param name   The name of the filter.
+ * @param image  The input BufferedImage.
+ * @param filter The filter to run.
+ * @return The filtered image.
+ */
+public static BufferedImage measured(String name, BufferedImage image, UnaryOperator<BufferedImage> filter) {
+    long pixels = (long) image.getWidth() * image.getHeight();
+    try (Metrics.Timer timer = Metrics.start("filter." + name)) {
+        // The input and output rasters are both alive while the filter runs.
+        timer.pixels(pixels).rasterBytes(8 * pixels);
+        return filter.apply(image);
+    }
+}
+
+/**
+ * Handles the output image by saving it to a file chosen by the user and opening it when a desktop is available.
  *
  * @param image The BufferedImage to be handled as output.
  */
 public static void handleOutputImage(BufferedImage image) {
     try {
-        // Create a File object with the desired output file name and format.
-        File file = new File("output.jpeg");
-        
-        // Write the BufferedImage to the output file as a JPEG image.
-        ImageIO.write(image, "jpeg", file);
-        
-        // Open the output file using the default application.
-        Desktop.getDesktop().open(file);
-    } catch (IOException e) {
+        // Ask where to save the result; the extension picks the format.
+        Scanner sc = new Scanner(System.in);
+        System.out.println("Enter the output file (press Enter for output.jpeg):");
+        String name = sc.hasNextLine() ? sc.nextLine().trim() : "";
+        File file = new File(name.isEmpty() ? "output.jpeg" : name);
+
+        // Write the BufferedImage to the output file.
+        saveImage(image, file);
+
+        // Open the output file with the default application, if there is a desktop to open it on.
+        if (!GraphicsEnvironment.isHeadless() && Desktop.isDesktopSupported()
+                && Desktop.getDesktop().isSupported(Desktop.Action.OPEN)) {
+            Desktop.getDesktop().open(file);
+        } else {
+            System.out.println("Saved " + file.getAbsolutePath());
+        }
+    } catch (IOException | IllegalArgumentException e) {
         // Handle any potential IOException by printing the stack trace.
         e.printStackTrace();
     }
 }
 
+/**
+ * Saves an image in the format given by the file's extension, or as JPEG if it has none.
+ *
+ * @param image The BufferedImage to save.
+ * @param file  The destination file.
+ * @throws IOException if the image cannot be encoded or written.
+ * @throws IllegalArgumentException if no writer supports the extension.
+ */
+public static void saveImage(BufferedImage image, File file) throws IOException {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    String format = dot > 0 ? name.substring(dot + 1) : "jpeg";
+    try (Metrics.Timer timer = Metrics.start("encode")) {
+        timer.pixels((long) image.getWidth() * image.getHeight());
+        ImageEncoder.forFormat(format).write(image, file.toPath());
+    }
+}
+
 	public static void main(String[] args) {
 
+		// --serve starts the HTTP service; any other command-line arguments switch to the headless batch mode.
+		if (args.length > 0 && args[0].equals("--serve")) {
+			ImageServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		if (args.length > 0) {
+			BatchProcessor.main(args);
+			return;
+		}
+
 		boolean isValid = false;
 
 		while (!isValid) {
@@ -617,7 +1202,13 @@ public static void handleOutputImage(BufferedImage image) {
 				System.out.println("Please enter the valid path of the image on which you wanna make changes...");
 				String path = sc.nextLine();
 				File file = new File(path);
-				BufferedImage image = ImageIO.read(file);
+				BufferedImage image;
+				try (Metrics.Timer timer = Metrics.start("decode")) {
+					image = ImageIO.read(file);
+					if (image != null) {
+						timer.pixels((long) image.getWidth() * image.getHeight());
+					}
+				}
 				File o_file = new File("output.jpeg");
 			//System.out.println("Opening original file ...");
 			//Desktop.getDesktop().open(file);
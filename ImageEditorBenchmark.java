@@ -0,0 +1,358 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Throughput and allocation benchmark for every ImageEditor operation.
+ *
+ * Each operation runs over synthetic images of several sizes and BufferedImage
+ * types. After a few warm-up calls the median time of the measured calls is
+ * reported as megapixels per second, together with the bytes allocated per
+ * call across all threads. Results are printed as a table and written as JSON
+ * so two runs can be diffed.
+ *
+ * The point-filter kernels are also timed on their own, directly on a packed
+ * int raster, once with the scalar code and once with the vector code when the
+ * Vector API is available (run with {@code --add-modules jdk.incubator.vector}).
+ * Use {@code --kernels false} to skip them.
+ *
+ * With {@code --convolution true} every {@link Convolution} strategy is timed
+ * for kernels from 3x3 to 129x129, to show where one strategy overtakes
+ * another. The direct strategy is skipped above {@value #MAX_DIRECT_KERNEL}
+ * pixels wide, where a single call takes minutes.
+ *
+ * Usage:
+ * <pre>
+ * java -Xmx8g ImageEditorBenchmark [--sizes 1,12,48] [--types int_rgb,3byte_bgr,int_argb,byte_gray]
+ *                                  [--warmup 3] [--iterations 5] [--only blur] [--kernels true]
+ *                                  [--convolution false] [--output bench.json]
+ * </pre>
+ */
+public final class ImageEditorBenchmark {
+
+    /** The widest kernel the direct convolution strategy is timed with. */
+    static final int MAX_DIRECT_KERNEL = 41;
+
+    private static final Map<String, Integer> TYPES = new LinkedHashMap<>();
+
+    static {
+        TYPES.put("int_rgb", BufferedImage.TYPE_INT_RGB);
+        TYPES.put("int_argb", BufferedImage.TYPE_INT_ARGB);
+        TYPES.put("3byte_bgr", BufferedImage.TYPE_3BYTE_BGR);
+        TYPES.put("4byte_abgr", BufferedImage.TYPE_4BYTE_ABGR);
+        TYPES.put("byte_gray", BufferedImage.TYPE_BYTE_GRAY);
+    }
+
+    private ImageEditorBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark suite.
+     *
+     * @param args The command-line options described in the class comment.
+     * @throws IOException if the JSON results cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        String only = options.get("only");
+        String output = options.getOrDefault("output", "bench.json");
+        boolean kernels = Boolean.parseBoolean(options.getOrDefault("kernels", "true"));
+        boolean convolution = Boolean.parseBoolean(options.getOrDefault("convolution", "false"));
+
+        List<Result> results = new ArrayList<>();
+        for (String size : options.getOrDefault("sizes", "1,12,48").split(",")) {
+            double megapixels = Double.parseDouble(size.trim());
+            for (String typeName : options.getOrDefault("types", "int_rgb,3byte_bgr,int_argb,byte_gray").split(",")) {
+                Integer type = TYPES.get(typeName.trim());
+                if (type == null) {
+                    throw new IllegalArgumentException("Unknown image type: " + typeName);
+                }
+                BufferedImage image = syntheticImage(megapixels, type);
+                for (Map.Entry<String, UnaryOperator<BufferedImage>> operation : operations().entrySet()) {
+                    if (only != null && !operation.getKey().contains(only)) {
+                        continue;
+                    }
+                    Result result = measure(operation.getKey(), typeName.trim(), image, operation.getValue(),
+                            warmup, iterations);
+                    results.add(result);
+                    System.out.println(result);
+                }
+            }
+            if (kernels) {
+                BufferedImage image = syntheticImage(megapixels, BufferedImage.TYPE_INT_RGB);
+                int[] pixels = RasterAccess.readPixels(image);
+                for (Map.Entry<String, UnaryOperator<BufferedImage>> operation : kernelOperations(pixels).entrySet()) {
+                    if (only != null && !operation.getKey().contains(only)) {
+                        continue;
+                    }
+                    Result result = measure(operation.getKey(), "int[]", image, operation.getValue(), warmup,
+                            iterations);
+                    results.add(result);
+                    System.out.println(result);
+                }
+            }
+            if (convolution) {
+                BufferedImage image = syntheticImage(megapixels, BufferedImage.TYPE_INT_RGB);
+                int[] pixels = RasterAccess.readPixels(image);
+                for (Map.Entry<String, UnaryOperator<BufferedImage>> operation
+                        : convolutionOperations(pixels, image.getWidth(), image.getHeight()).entrySet()) {
+                    if (only != null && !operation.getKey().contains(only)) {
+                        continue;
+                    }
+                    Result result = measure(operation.getKey(), "int[]", image, operation.getValue(), warmup,
+                            iterations);
+                    results.add(result);
+                    System.out.println(result);
+                }
+            }
+        }
+        writeJson(results, output);
+        System.out.println("Results written to " + output);
+    }
+
+    /**
+     * Lists the benchmarked operations by name.
+     *
+     * @return The operations, in a stable order.
+     */
+    static Map<String, UnaryOperator<BufferedImage>> operations() {
+        Map<String, UnaryOperator<BufferedImage>> operations = new LinkedHashMap<>();
+        operations.put("grayScaleImage", ImageEditor::grayScaleImage);
+        operations.put("changeBrightness(20)", image -> ImageEditor.changeBrightness(image, 20));
+        operations.put("rotateBy90", ImageEditor::rotateBy90);
+        operations.put("horizontalFlip", ImageEditor::horizontalFlip);
+        operations.put("verticalFlip", ImageEditor::verticalFlip);
+        operations.put("mirror", ImageEditor::mirror);
+        operations.put("mirrorVertical", ImageEditor::mirrorVertical);
+        operations.put("negative", ImageEditor::negative);
+        operations.put("poster(4)", image -> ImageEditor.poster(image, 4));
+        operations.put("adaptivePoster(4)", image -> ImageEditor.adaptivePoster(image, 4));
+        operations.put("autoLevels", ImageEditor::autoLevels);
+        operations.put("equalize", ImageEditor::equalize);
+        operations.put("autoBrightness", ImageEditor::autoBrightness);
+        for (int radius : new int[] {1, 5, 20}) {
+            operations.put("blur(" + radius + ")", image -> ImageEditor.blur(image, radius));
+        }
+        operations.put("gaussianBlur(5)", image -> ImageEditor.gaussianBlur(image, 5));
+        operations.put("exactGaussianBlur(5)", image -> ImageEditor.exactGaussianBlur(image, 5));
+        operations.put("sharpen", ImageEditor::sharpen);
+        operations.put("edgeDetect", ImageEditor::edgeDetect);
+        operations.put("emboss", ImageEditor::emboss);
+        for (Quantizer.Dither dither : Quantizer.Dither.values()) {
+            operations.put("quantize(16, " + dither + ")",
+                    image -> ImageEditor.quantize(image, 16, Palette.Method.MEDIAN_CUT, dither));
+        }
+        operations.put("quantize(16, OCTREE)",
+                image -> ImageEditor.quantize(image, 16, Palette.Method.OCTREE, Quantizer.Dither.NONE));
+        return operations;
+    }
+
+    /**
+     * Lists the point-filter kernels by name, once per available implementation.
+     *
+     * The kernels work in place on {@code pixels} on the calling thread, so the
+     * timings compare instruction throughput without banding or image conversion.
+     *
+     * @param pixels The raster the kernels modify.
+     * @return The kernel operations, in a stable order. Their input and result images are ignored.
+     */
+    static Map<String, UnaryOperator<BufferedImage>> kernelOperations(int[] pixels) {
+        List<PointKernels> implementations = new ArrayList<>();
+        implementations.add(PointFilters.scalar());
+        if (PointFilters.vector() != null) {
+            implementations.add(PointFilters.vector());
+        }
+        Map<String, UnaryOperator<BufferedImage>> operations = new LinkedHashMap<>();
+        for (PointKernels kernels : implementations) {
+            String suffix = " [" + kernels + "]";
+            operations.put("negative" + suffix, image -> {
+                kernels.negative(pixels, 0, pixels.length);
+                return image;
+            });
+            operations.put("brightness(20)" + suffix, image -> {
+                kernels.brightness(pixels, 20, 0, pixels.length);
+                return image;
+            });
+            operations.put("poster(4)" + suffix, image -> {
+                kernels.poster(pixels, 4, 0, pixels.length);
+                return image;
+            });
+        }
+        return operations;
+    }
+
+    /**
+     * Lists the convolution strategies by kernel size and name.
+     *
+     * Gaussian kernels are used so that every strategy applies; the direct
+     * strategy costs the same for any kernel of a given size.
+     *
+     * @param pixels The raster to convolve.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @return The operations, by increasing kernel size.
+     */
+    static Map<String, UnaryOperator<BufferedImage>> convolutionOperations(int[] pixels, int width, int height) {
+        Map<String, UnaryOperator<BufferedImage>> operations = new LinkedHashMap<>();
+        int[] output = new int[pixels.length];
+        for (int size : new int[] {3, 5, 9, 15, 25, 41, 65, 129}) {
+            Kernel kernel = Kernel.gaussian((size / 2) / 3.0);
+            for (Convolution.Strategy strategy : new Convolution.Strategy[] {
+                    Convolution.Strategy.DIRECT, Convolution.Strategy.SEPARABLE, Convolution.Strategy.FFT}) {
+                if (strategy == Convolution.Strategy.DIRECT && size > MAX_DIRECT_KERNEL) {
+                    continue;
+                }
+                String name = "convolve " + size + "x" + size + " [" + strategy.name().toLowerCase(Locale.ROOT) + "]";
+                operations.put(name, image -> {
+                    Convolution.convolve(pixels, output, width, height, kernel, EdgeMode.CLAMP, strategy);
+                    return image;
+                });
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Creates a reproducible test image of roughly the given size.
+     *
+     * @param megapixels The number of megapixels, laid out as 4:3.
+     * @param type       The BufferedImage type.
+     * @return The synthetic image.
+     */
+    static BufferedImage syntheticImage(double megapixels, int type) {
+        int height = (int) Math.max(1, Math.round(Math.sqrt(megapixels * 1e6 * 3 / 4)));
+        int width = (int) Math.max(1, Math.round(megapixels * 1e6 / height));
+        int[] pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // A gradient with some noise, so neither compression nor branch prediction is trivial.
+                int noise = random.nextInt(32);
+                pixels[y * width + x] = ColorMath.pack(random.nextInt(256),
+                        (x * 255 / width + noise) & 0xFF, (y * 255 / height + noise) & 0xFF, (x ^ y) & 0xFF);
+            }
+        }
+        return RasterAccess.createImage(pixels, width, height, type);
+    }
+
+    /**
+     * Times one operation on one image.
+     *
+     * @param name       The name of the operation.
+     * @param typeName   The name of the image type.
+     * @param image      The input image.
+     * @param operation  The operation to time.
+     * @param warmup     The number of untimed calls made first.
+     * @param iterations The number of timed calls.
+     * @return The measurement.
+     */
+    static Result measure(String name, String typeName, BufferedImage image, UnaryOperator<BufferedImage> operation,
+                          int warmup, int iterations) {
+        for (int i = 0; i < warmup; i++) {
+            operation.apply(image);
+        }
+        long[] nanos = new long[Math.max(1, iterations)];
+        long allocated = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            operation.apply(image);
+            nanos[i] = System.nanoTime() - start;
+            allocated += allocatedBytes() - bytesBefore;
+        }
+        Arrays.sort(nanos);
+        long median = nanos[nanos.length / 2];
+        double megapixels = (double) image.getWidth() * image.getHeight() / 1e6;
+        return new Result(name, typeName, megapixels, median / 1e6, megapixels / (median / 1e9),
+                allocated / nanos.length);
+    }
+
+    /**
+     * Returns the bytes allocated so far by all live threads, or 0 if the JVM cannot tell.
+     *
+     * @return The total allocated bytes.
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Writes results as a JSON array.
+     *
+     * @param results The measurements.
+     * @param path    The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    static void writeJson(List<Result> results, String path) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(path)), false, "UTF-8")) {
+            out.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                out.print("  " + results.get(i).toJson());
+                out.println(i + 1 < results.size() ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+
+    /**
+     * One benchmark measurement.
+     */
+    static final class Result {
+
+        final String benchmark;
+        final String type;
+        final double megapixels;
+        final double millisPerOp;
+        final double megapixelsPerSecond;
+        final long allocatedBytesPerOp;
+
+        Result(String benchmark, String type, double megapixels, double millisPerOp, double megapixelsPerSecond,
+               long allocatedBytesPerOp) {
+            this.benchmark = benchmark;
+            this.type = type;
+            this.megapixels = megapixels;
+            this.millisPerOp = millisPerOp;
+            this.megapixelsPerSecond = megapixelsPerSecond;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\": \"%s\", \"type\": \"%s\", \"megapixels\": %.2f, \"msPerOp\": %.3f, "
+                            + "\"mpPerSecond\": %.2f, \"allocatedBytesPerOp\": %d}",
+                    benchmark, type, megapixels, millisPerOp, megapixelsPerSecond, allocatedBytesPerOp);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-34s %-10s %6.1f MP %10.2f ms %10.1f MP/s %14d B/op",
+                    benchmark, type, megapixels, millisPerOp, megapixelsPerSecond, allocatedBytesPerOp);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes images with explicit format and compression settings.
+ *
+ * An encoder is an immutable set of settings; the {@code with} methods return
+ * a modified copy, so one encoder can be shared between threads:
+ * <pre>
+ * ImageEncoder jpeg = ImageEncoder.forFormat("jpeg").withQuality(0.85f).withProgressive(true);
+ * jpeg.write(image, Paths.get("out.jpg"));
+ * </pre>
+ *
+ * Writers are borrowed from a small pool per format shared by every thread,
+ * and reset and returned after each image instead of being looked up again;
+ * writers beyond the pool's size are disposed. Files are written through a
+ * {@link FileChannel} behind a large buffer, and ImageIO's temporary-file
+ * cache is bypassed. The {@value RawRasterFormat#FORMAT_NAME} format skips
+ * ImageIO entirely and writes the uncompressed {@link RawRasterFormat}, for
+ * intermediate results that are read back with {@link RawRasterFormat#map}.
+ */
+public final class ImageEncoder {
+
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    // The idle writers kept per format. ImageWriters are not thread-safe, so each write borrows one.
+    private static final int IDLE_WRITERS = Runtime.getRuntime().availableProcessors();
+
+    // Idle writers by format, reset and ready for the next image.
+    private static final ConcurrentHashMap<String, BlockingQueue<ImageWriter>> WRITERS = new ConcurrentHashMap<>();
+
+    private final String format;
+    private final float quality;
+    private final boolean progressive;
+    private final String compressionType;
+
+    private ImageEncoder(String format, float quality, boolean progressive, String compressionType) {
+        this.format = format;
+        this.quality = quality;
+        this.progressive = progressive;
+        this.compressionType = compressionType;
+    }
+
+    /**
+     * Creates an encoder for a format with the writer's default settings.
+     *
+     * @param format The format name, e.g. {@code "jpeg"}, {@code "png"} or {@code "raster"}.
+     * @return The encoder.
+     * @throws IllegalArgumentException if no writer supports the format.
+     */
+    public static ImageEncoder forFormat(String format) {
+        String name = format.toLowerCase(Locale.ROOT);
+        if (!isSupported(name)) {
+            throw new IllegalArgumentException("No image writer for format: " + format);
+        }
+        return new ImageEncoder(name, -1, false, null);
+    }
+
+    /**
+     * Returns true if images can be written in a format.
+     *
+     * @param format The format name.
+     * @return Whether {@link #forFormat} accepts the format.
+     */
+    public static boolean isSupported(String format) {
+        String name = format.toLowerCase(Locale.ROOT);
+        return name.equals(RawRasterFormat.FORMAT_NAME) || ImageIO.getImageWritersByFormatName(name).hasNext();
+    }
+
+    /**
+     * Returns a copy that compresses with the given quality.
+     *
+     * For lossy formats such as JPEG this is the image quality. For lossless
+     * formats such as PNG it trades speed for size: 1 stores quickly with
+     * little compression, 0 compresses hardest.
+     *
+     * @param quality The quality between 0 and 1.
+     * @return The modified encoder.
+     */
+    public ImageEncoder withQuality(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("quality must be between 0 and 1: " + quality);
+        }
+        return new ImageEncoder(format, quality, progressive, compressionType);
+    }
+
+    /**
+     * Returns a copy that sets the deflate level of PNG output.
+     *
+     * @param level The level between 0 (store) and 9 (smallest).
+     * @return The modified encoder.
+     */
+    public ImageEncoder withCompressionLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("level must be between 0 and 9: " + level);
+        }
+        // The JDK's PNG writer derives its deflate level as (1 - quality) * 9.
+        return withQuality(1 - level / 9f);
+    }
+
+    /**
+     * Returns a copy that writes progressive (interlaced) output where the format supports it.
+     *
+     * @param progressive Whether to write progressively.
+     * @return The modified encoder.
+     */
+    public ImageEncoder withProgressive(boolean progressive) {
+        return new ImageEncoder(format, quality, progressive, compressionType);
+    }
+
+    /**
+     * Returns a copy that uses a named compression scheme, e.g. {@code "LZW"} or {@code "Deflate"} for TIFF.
+     *
+     * @param compressionType One of the writer's compression types.
+     * @return The modified encoder.
+     */
+    public ImageEncoder withCompressionType(String compressionType) {
+        return new ImageEncoder(format, quality, progressive, compressionType);
+    }
+
+    /**
+     * Returns the format this encoder writes.
+     *
+     * @return The lower-case format name.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Writes an image to a file, replacing it if it exists.
+     *
+     * @param image The image to write.
+     * @param file  The destination file.
+     * @throws IOException if the image cannot be encoded or the file cannot be written.
+     */
+    public void write(BufferedImage image, Path file) throws IOException {
+        if (format.equals(RawRasterFormat.FORMAT_NAME)) {
+            RawRasterFormat.write(PixelLayout.read(image), image.getWidth(), image.getHeight(), image, file);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES)) {
+            write(image, out);
+        }
+    }
+
+    /**
+     * Writes an image to a stream.
+     *
+     * @param image The image to write.
+     * @param out   The stream to write to. It is flushed but not closed.
+     * @throws IOException if the image cannot be encoded or the stream cannot be written.
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        if (format.equals(RawRasterFormat.FORMAT_NAME)) {
+            RawRasterFormat.write(PixelLayout.read(image), image.getWidth(), image.getHeight(), image, out);
+            out.flush();
+            return;
+        }
+        BufferedImage encodable = withoutAlphaIfNeeded(image);
+        ImageWriter writer = borrowWriter();
+        // A memory-backed stream avoids the temporary file ImageIO would otherwise create per image.
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(encodable, null, null), writeParam(writer));
+            stream.flush();
+        } finally {
+            returnWriter(writer);
+        }
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        return format + (quality >= 0 ? "(quality=" + quality + ")" : "") + (progressive ? "(progressive)" : "")
+                + (compressionType != null ? "(" + compressionType + ")" : "");
+    }
+
+    private ImageWriteParam writeParam(ImageWriter writer) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if ((quality >= 0 || compressionType != null) && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (compressionType != null) {
+                param.setCompressionType(compressionType);
+            } else if (param.getCompressionType() == null && param.getCompressionTypes() != null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            if (quality >= 0) {
+                param.setCompressionQuality(quality);
+            }
+        }
+        if (progressive && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        return param;
+    }
+
+    private ImageWriter borrowWriter() {
+        ImageWriter writer = idleWriters().poll();
+        return (writer != null) ? writer : ImageIO.getImageWritersByFormatName(format).next();
+    }
+
+    // Resets a writer for the next image, and disposes of it if enough writers are idle already.
+    private void returnWriter(ImageWriter writer) {
+        writer.reset();
+        if (!idleWriters().offer(writer)) {
+            writer.dispose();
+        }
+    }
+
+    private BlockingQueue<ImageWriter> idleWriters() {
+        return WRITERS.computeIfAbsent(format, f -> new ArrayBlockingQueue<>(IDLE_WRITERS));
+    }
+
+    // JPEG and BMP have no alpha channel, and the JDK writers reject or miscolour images that have one.
+    // GIF only has a transparent palette entry, so only images that already have a palette keep theirs.
+    private BufferedImage withoutAlphaIfNeeded(BufferedImage image) {
+        boolean opaqueFormat = format.equals("jpeg") || format.equals("jpg") || format.equals("bmp")
+                || (format.equals("gif") && !(image.getColorModel() instanceof IndexColorModel));
+        if (!opaqueFormat || !image.getColorModel().hasAlpha()) {
+            return image;
+        }
+        return RasterAccess.createImage(RasterAccess.readPixels(image), image.getWidth(), image.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+    }
+}
@@ -0,0 +1,146 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * A source image together with copies at 1/2, 1/4 and 1/8 of its resolution.
+ *
+ * Each level is built from the one above it by averaging 2x2 blocks, so
+ * building all of them costs about a third of one pass over the source. Edits
+ * can be previewed on a small level with {@link #preview}, which scales the
+ * blur radii to match, and rendered at full size once they are settled:
+ * <pre>
+ * ImagePyramid pyramid = ImagePyramid.of(image);
+ * BufferedImage quick = pyramid.preview(2, OperationChain.parse("blur(12),poster(4)"));
+ * BufferedImage full = pyramid.preview(0, OperationChain.parse("blur(12),poster(4)"));
+ * </pre>
+ */
+public final class ImagePyramid {
+
+    /** The number of levels, including the full-resolution source. */
+    public static final int LEVELS = 4;
+
+    private final BufferedImage source;
+    private final int[][] pixels = new int[LEVELS][];
+    private final int[] widths = new int[LEVELS];
+    private final int[] heights = new int[LEVELS];
+
+    private ImagePyramid(BufferedImage source) {
+        this.source = source;
+        pixels[0] = PixelLayout.read(source);
+        widths[0] = source.getWidth();
+        heights[0] = source.getHeight();
+        for (int level = 1; level < LEVELS; level++) {
+            widths[level] = (widths[level - 1] + 1) / 2;
+            heights[level] = (heights[level - 1] + 1) / 2;
+            pixels[level] = halve(pixels[level - 1], widths[level - 1], heights[level - 1]);
+        }
+    }
+
+    /**
+     * Builds the pyramid of an image.
+     *
+     * @param source The full-resolution image. It is never modified.
+     * @return The pyramid.
+     */
+    public static ImagePyramid of(BufferedImage source) {
+        return new ImagePyramid(source);
+    }
+
+    /**
+     * Returns the full-resolution image the pyramid was built from.
+     *
+     * @return The source image.
+     */
+    public BufferedImage getSource() {
+        return source;
+    }
+
+    /**
+     * Returns one level as an image.
+     *
+     * Level 0 is the source itself; level {@code n} is downscaled by {@code 2^n}.
+     * The returned images share the pyramid's pixels and must not be modified.
+     * Every ImageEditor operation and {@link Pipeline} can run on them.
+     *
+     * @param level The level, from 0 to {@link #LEVELS} - 1.
+     * @return The image at that level.
+     */
+    public BufferedImage level(int level) {
+        checkLevel(level);
+        if (level == 0) {
+            return source;
+        }
+        return RasterAccess.createImage(pixels[level], widths[level], heights[level], BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Runs an operation chain on one level, with the blur radii scaled to that level.
+     *
+     * @param level The level, from 0 to {@link #LEVELS} - 1.
+     * @param chain The operations, written for the full-resolution image.
+     * @return The result at the level's resolution.
+     */
+    public BufferedImage preview(int level, OperationChain chain) {
+        checkLevel(level);
+        return chain.scaledBy(1 << level).applyTo(Pipeline.of(level(level))).apply();
+    }
+
+    /**
+     * Returns the smallest level that is still at least a given size, for picking a preview resolution.
+     *
+     * @param maxWidth  The width the preview is shown at.
+     * @param maxHeight The height the preview is shown at.
+     * @return The level whose image is the smallest one covering that size, or the smallest level.
+     */
+    public int levelFor(int maxWidth, int maxHeight) {
+        int level = 0;
+        while (level + 1 < LEVELS && widths[level + 1] >= maxWidth && heights[level + 1] >= maxHeight) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Scales a blur radius written for the full-resolution image to a downscaled copy.
+     *
+     * @param radius The full-resolution radius.
+     * @param factor The downscaling factor.
+     * @return The radius rounded to the nearest pixel at the smaller size.
+     */
+    public static int scaleRadius(int radius, int factor) {
+        return (radius + factor / 2) / factor;
+    }
+
+    private static void checkLevel(int level) {
+        if (level < 0 || level >= LEVELS) {
+            throw new IllegalArgumentException("level must be between 0 and " + (LEVELS - 1) + ": " + level);
+        }
+    }
+
+    // Averages each 2x2 block into one pixel; odd last rows and columns average the pixels they have.
+    private static int[] halve(int[] src, int width, int height) {
+        int dstWidth = (width + 1) / 2;
+        int dstHeight = (height + 1) / 2;
+        int[] dst = new int[dstWidth * dstHeight];
+        TileExecutor.forEachBand(dstHeight, dstWidth * 4, (startRow, endRow) -> {
+            for (int y = startRow; y < endRow; y++) {
+                int top = 2 * y * width;
+                int bottom = (2 * y + 1 < height) ? top + width : top;
+                for (int x = 0; x < dstWidth; x++) {
+                    int left = 2 * x;
+                    int right = (left + 1 < width) ? left + 1 : left;
+                    dst[y * dstWidth + x] = average(src[top + left], src[top + right],
+                            src[bottom + left], src[bottom + right]);
+                }
+            }
+        });
+        return dst;
+    }
+
+    // Rounded per-channel mean of four pixels, opaque.
+    private static int average(int a, int b, int c, int d) {
+        int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+        int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+        int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+        return ColorMath.pack(red, green, blue);
+    }
+}
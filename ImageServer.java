@@ -0,0 +1,345 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An embedded HTTP service that runs operation chains on uploaded images.
+ *
+ * Usage:
+ * <pre>
+ * java ImageEditor --serve [--port 8080] [--max-inflight-mb 512] [--max-upload-mb 64] [--queue-timeout-ms 10000]
+ * curl --data-binary @photo.jpg "http://localhost:8080/process?ops=brightness(20),blur(3)&amp;format=png" -o out.png
+ * curl http://localhost:8080/stats
+ * </pre>
+ *
+ * {@code POST /process} takes the encoded image as the request body and the
+ * operations in the {@code ops} query parameter, in the syntax of
+ * {@link OperationChain}. The result is encoded in {@code format} (jpeg by
+ * default, with optional {@code quality} and {@code progressive}) by an
+ * {@link ImageEncoder} and streamed back with chunked transfer encoding.
+ * {@code level=1..3} renders a preview at 1/2, 1/4 or 1/8 resolution through
+ * an {@link ImagePyramid}, with blur radii scaled to match.
+ *
+ * Requests run on virtual threads when the JVM has them and on a cached
+ * thread pool otherwise. Before decoding, each request reserves the memory its
+ * rasters will need from a semaphore sized by {@code --max-inflight-mb}; if the
+ * memory does not become free within {@code --queue-timeout-ms} the request
+ * is turned away with 503. {@code GET /stats} reports request counts, memory
+ * in use and p50/p99 latency as JSON. {@code GET /metrics} returns the
+ * per-stage {@link Metrics} as text, or as JSON with {@code ?format=json};
+ * {@code --metrics <file>} also writes them to a file periodically.
+ */
+public final class ImageServer {
+
+    // The decoded source, the working raster and the encoded copy each hold about four bytes per pixel.
+    private static final long BYTES_PER_PIXEL = 12;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Semaphore memory;
+    private final int memoryPermits;
+    private final long maxUploadBytes;
+    private final long queueTimeoutMillis;
+
+    private final LatencyRecorder latencies = new LatencyRecorder(10_000);
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a server. It does not accept connections until {@link #start()} is called.
+     *
+     * @param port               The port to listen on, or 0 for any free port.
+     * @param maxInflightBytes   The raster memory all running requests may reserve together.
+     * @param maxUploadBytes     The largest request body accepted.
+     * @param queueTimeoutMillis How long a request waits for memory before it is rejected.
+     * @throws IOException if the port cannot be bound.
+     */
+    public ImageServer(int port, long maxInflightBytes, long maxUploadBytes, long queueTimeoutMillis)
+            throws IOException {
+        // Permits count kilobytes, so even large limits fit in an int.
+        this.memoryPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxInflightBytes >> 10));
+        this.memory = new Semaphore(memoryPermits, true);
+        this.maxUploadBytes = maxUploadBytes;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtualThreads ? virtual : Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/process", this::handleProcess);
+        server.createContext("/stats", this::handleStats);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    /**
+     * Starts a server configured by command-line arguments and serves until the process ends.
+     *
+     * @param args The command-line options described in the class comment.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        try {
+            ImageServer server = new ImageServer(
+                    Integer.parseInt(options.getOrDefault("port", "8080")),
+                    Long.parseLong(options.getOrDefault("max-inflight-mb", "512")) << 20,
+                    Long.parseLong(options.getOrDefault("max-upload-mb", "64")) << 20,
+                    Long.parseLong(options.getOrDefault("queue-timeout-ms", "10000")));
+            if (options.containsKey("metrics")) {
+                Metrics.startDump(Paths.get(options.get("metrics")),
+                        Long.parseLong(options.getOrDefault("metrics-period-s", "10")));
+            }
+            server.start();
+            System.out.println("Listening on port " + server.getPort() + " with "
+                    + (server.virtualThreads ? "virtual" : "pooled") + " threads");
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: --serve [--port <n>] [--max-inflight-mb <n>] [--max-upload-mb <n>] "
+                    + "[--queue-timeout-ms <n>] [--metrics <file[.json]>] [--metrics-period-s <n>]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting connections and waits up to a second for running requests.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The bound port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Describes the current counters and latencies as JSON, as served by {@code /stats}.
+     *
+     * @return A JSON object.
+     */
+    public String statsJson() {
+        long reservedBytes = (long) (memoryPermits - memory.availablePermits()) << 10;
+        return String.format(Locale.ROOT,
+                "{\"completed\": %d, \"rejected\": %d, \"failed\": %d, \"inflightBytes\": %d, "
+                        + "\"maxInflightBytes\": %d, \"p50Ms\": %.2f, \"p99Ms\": %.2f}",
+                completed.get(), rejected.get(), failed.get(), reservedBytes, (long) memoryPermits << 10,
+                latencies.percentileMillis(50), latencies.percentileMillis(99));
+    }
+
+    private void handleProcess(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST with the image as the request body");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            OperationChain chain;
+            try {
+                chain = OperationChain.parse(query.getOrDefault("ops", ""));
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+            ImageEncoder encoder;
+            int level;
+            try {
+                level = Integer.parseInt(query.getOrDefault("level", "0"));
+                if (level < 0 || level >= ImagePyramid.LEVELS) {
+                    throw new IllegalArgumentException("level must be between 0 and " + (ImagePyramid.LEVELS - 1));
+                }
+                encoder = ImageEncoder.forFormat(query.getOrDefault("format", "jpeg"));
+                if (query.containsKey("quality")) {
+                    encoder = encoder.withQuality(Float.parseFloat(query.get("quality")));
+                }
+                encoder = encoder.withProgressive(Boolean.parseBoolean(query.get("progressive")));
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+
+            byte[] body = readBody(exchange.getRequestBody());
+            if (body == null) {
+                sendText(exchange, 413, "Upload larger than " + maxUploadBytes + " bytes");
+                return;
+            }
+            long pixels = pixelCount(body);
+            if (pixels < 0) {
+                sendText(exchange, 415, "Unsupported image format");
+                return;
+            }
+
+            // Reserve the raster memory up front, so a burst of large uploads queues instead of exhausting the heap.
+            long permits = Math.max(1, (pixels * BYTES_PER_PIXEL) >> 10);
+            if (permits > memoryPermits) {
+                sendText(exchange, 413, "Image needs more memory than the server allows in flight");
+                return;
+            }
+            if (!memory.tryAcquire((int) permits, queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Server busy");
+                return;
+            }
+            try {
+                BufferedImage image;
+                try (Metrics.Timer timer = Metrics.start("decode")) {
+                    image = ImageIO.read(new ByteArrayInputStream(body));
+                    timer.pixels(pixels);
+                }
+                if (image == null) {
+                    sendText(exchange, 415, "Unsupported image format");
+                    return;
+                }
+                BufferedImage output;
+                try (Metrics.Timer timer = Metrics.start("filter")) {
+                    output = level == 0 ? chain.applyTo(Pipeline.of(image)).apply()
+                            : ImagePyramid.of(image).preview(level, chain);
+                    timer.pixels((long) output.getWidth() * output.getHeight());
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", encoder.getFormat().equals(RawRasterFormat.FORMAT_NAME)
+                        ? "application/octet-stream" : "image/" + encoder.getFormat());
+                exchange.sendResponseHeaders(200, 0);
+                try (Metrics.Timer timer = Metrics.start("encode");
+                     OutputStream out = exchange.getResponseBody()) {
+                    timer.pixels((long) output.getWidth() * output.getHeight());
+                    encoder.write(output, out);
+                }
+            } finally {
+                memory.release((int) permits);
+            }
+            completed.incrementAndGet();
+            latencies.record(System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            byte[] json = statsJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, json.length);
+            exchange.getResponseBody().write(json);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            boolean json = "json".equals(parseQuery(exchange.getRequestURI().getRawQuery()).get("format"));
+            byte[] body = (json ? Metrics.toJson() : Metrics.toText()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", json ? "application/json" : "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Reads the request body, or returns null if it is larger than the upload limit.
+    private byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            body.write(buffer, 0, read);
+            if (body.size() > maxUploadBytes) {
+                return null;
+            }
+        }
+        return body.toByteArray();
+    }
+
+    // Reads the image dimensions from the header only, or returns -1 if no reader understands the data.
+    private static long pixelCount(byte[] body) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return -1;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return query;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    // Returns an executor with one virtual thread per task, or null before Java 21.
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+/**
+ * A small load generator for {@link ImageServer}.
+ *
+ * It uploads the same synthetic image from several client threads and prints
+ * the throughput, the status codes seen and the client-side p50/p99 latency.
+ * With {@code --url} unset it starts an in-process server on a free port, so
+ * a single command measures the whole request path.
+ *
+ * Usage:
+ * <pre>
+ * java ImageServerLoad [--url http://localhost:8080] [--requests 200] [--concurrency 16] [--megapixels 2]
+ *                      [--ops "brightness(20),blur(3)"] [--format jpeg]
+ * </pre>
+ */
+public final class ImageServerLoad {
+
+    private ImageServerLoad() {
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The command-line options described in the class comment.
+     * @throws IOException if the test image cannot be encoded or the local server cannot start.
+     * @throws InterruptedException if interrupted while waiting for the clients.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        int requests = Integer.parseInt(options.getOrDefault("requests", "200"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        double megapixels = Double.parseDouble(options.getOrDefault("megapixels", "2"));
+        String ops = options.getOrDefault("ops", "brightness(20),blur(3)");
+        String format = options.getOrDefault("format", "jpeg");
+
+        ImageServer local = null;
+        String url = options.get("url");
+        if (url == null) {
+            local = new ImageServer(0, 512L << 20, 64L << 20, 10_000);
+            local.start();
+            url = "http://localhost:" + local.getPort();
+        }
+
+        BufferedImage image = ImageEditorBenchmark.syntheticImage(megapixels, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", encoded);
+        byte[] body = encoded.toByteArray();
+        URI uri = URI.create(url + "/process?ops=" + URLEncoder.encode(ops, StandardCharsets.UTF_8)
+                + "&format=" + format);
+
+        HttpClient client = HttpClient.newHttpClient();
+        LatencyRecorder latencies = new LatencyRecorder(requests);
+        Map<Integer, AtomicInteger> statuses = new HashMap<>();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            clients.execute(() -> {
+                long sent = System.nanoTime();
+                int status;
+                try {
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+                    status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                } catch (IOException e) {
+                    status = -1;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                latencies.record(System.nanoTime() - sent);
+                synchronized (statuses) {
+                    statuses.computeIfAbsent(status, key -> new AtomicInteger()).incrementAndGet();
+                }
+            });
+        }
+        clients.shutdown();
+        clients.awaitTermination(1, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.ROOT, "%d requests of %.1f MP in %.2f s: %.1f requests/s, p50 %.1f ms, p99 %.1f ms%n",
+                requests, megapixels, seconds, requests / seconds, latencies.percentileMillis(50),
+                latencies.percentileMillis(99));
+        System.out.println("Status codes: " + statuses);
+        if (local != null) {
+            System.out.println("Server: " + local.statsJson());
+            local.stop();
+        }
+    }
+}
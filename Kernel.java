@@ -0,0 +1,246 @@
+import java.util.Arrays;
+
+/**
+ * An immutable convolution kernel with odd dimensions, centred on its middle element.
+ *
+ * Applying a kernel replaces each pixel by the weighted sum of its
+ * neighbourhood: output(x, y) = sum of weight(i, j) * input(x + i - rx, y + j - ry)
+ * over the kernel, where rx and ry are the horizontal and vertical radii. The
+ * kernel is not flipped, so asymmetric kernels such as {@link #emboss()} look
+ * the way they are written.
+ */
+public final class Kernel {
+
+    // Relative tolerance when checking whether a kernel is an outer product.
+    private static final double SEPARABLE_TOLERANCE = 1e-6;
+
+    private final int width;
+    private final int height;
+    private final float[] weights;
+    private final float[][] factors;
+
+    private Kernel(int width, int height, float[] weights) {
+        this.width = width;
+        this.height = height;
+        this.weights = weights;
+        this.factors = factorize(width, height, weights);
+    }
+
+    /**
+     * Creates a kernel from its weights.
+     *
+     * @param width   The width of the kernel, an odd number.
+     * @param height  The height of the kernel, an odd number.
+     * @param weights The weights in row-major order.
+     * @return The kernel.
+     */
+    public static Kernel of(int width, int height, float... weights) {
+        if (width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0) {
+            throw new IllegalArgumentException("Kernel dimensions must be odd and positive: " + width + "x" + height);
+        }
+        if (weights.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " weights: " + weights.length);
+        }
+        return new Kernel(width, height, weights.clone());
+    }
+
+    /**
+     * Creates the outer product of a column and a row vector.
+     *
+     * @param column The vertical weights, an odd number of them.
+     * @param row    The horizontal weights, an odd number of them.
+     * @return The kernel.
+     */
+    public static Kernel separable(float[] column, float[] row) {
+        float[] weights = new float[column.length * row.length];
+        for (int j = 0; j < column.length; j++) {
+            for (int i = 0; i < row.length; i++) {
+                weights[j * row.length + i] = column[j] * row[i];
+            }
+        }
+        return of(row.length, column.length, weights);
+    }
+
+    /**
+     * Creates a sharpening kernel that adds the difference from the four neighbours.
+     *
+     * @return The 3x3 kernel.
+     */
+    public static Kernel sharpen() {
+        return of(3, 3,
+                0, -1, 0,
+                -1, 5, -1,
+                0, -1, 0);
+    }
+
+    /**
+     * Creates a Laplacian edge-detection kernel. Flat areas become black and edges bright.
+     *
+     * @return The 3x3 kernel.
+     */
+    public static Kernel edgeDetect() {
+        return of(3, 3,
+                -1, -1, -1,
+                -1, 8, -1,
+                -1, -1, -1);
+    }
+
+    /**
+     * Creates an emboss kernel that lights the image from the top left.
+     *
+     * @return The 3x3 kernel.
+     */
+    public static Kernel emboss() {
+        return of(3, 3,
+                -2, -1, 0,
+                -1, 1, 1,
+                0, 1, 2);
+    }
+
+    /**
+     * Creates a normalised Gaussian kernel that reaches three standard deviations out.
+     *
+     * @param sigma The standard deviation in pixels, greater than 0.
+     * @return The separable (2 * ceil(3 * sigma) + 1)^2 kernel.
+     */
+    public static Kernel gaussian(double sigma) {
+        if (!(sigma > 0)) {
+            throw new IllegalArgumentException("sigma must be greater than 0: " + sigma);
+        }
+        int radius = (int) Math.ceil(3 * sigma);
+        float[] weights = new float[2 * radius + 1];
+        double sum = 0;
+        for (int i = -radius; i <= radius; i++) {
+            sum += Math.exp(-i * i / (2 * sigma * sigma));
+        }
+        for (int i = -radius; i <= radius; i++) {
+            weights[i + radius] = (float) (Math.exp(-i * i / (2 * sigma * sigma)) / sum);
+        }
+        return separable(weights, weights);
+    }
+
+    /**
+     * Creates a kernel that averages a square window, like {@link BoxBlur}.
+     *
+     * @param radius The radius of the window.
+     * @return The (2 * radius + 1)^2 kernel.
+     */
+    public static Kernel box(int radius) {
+        float[] weights = new float[2 * Math.max(radius, 0) + 1];
+        Arrays.fill(weights, 1f / weights.length);
+        return separable(weights, weights);
+    }
+
+    /**
+     * Returns the width of the kernel.
+     *
+     * @return The width, an odd number.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the kernel.
+     *
+     * @return The height, an odd number.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the weight at a position.
+     *
+     * @param x The column, between 0 and width - 1.
+     * @param y The row, between 0 and height - 1.
+     * @return The weight.
+     */
+    public float weight(int x, int y) {
+        return weights[y * width + x];
+    }
+
+    /**
+     * Returns how many pixels the kernel reads beyond the one it computes.
+     *
+     * @return The larger of the horizontal and vertical radius.
+     */
+    public int reach() {
+        return Math.max(width, height) / 2;
+    }
+
+    /**
+     * Returns true if the kernel is the outer product of a column and a row.
+     *
+     * Such kernels can be applied as a horizontal and a vertical pass, which
+     * costs width + height multiplications per pixel instead of width * height.
+     *
+     * @return Whether the kernel is separable.
+     */
+    public boolean isSeparable() {
+        return factors != null;
+    }
+
+    /**
+     * Returns the vertical factor of a separable kernel.
+     *
+     * @return A copy of the height column weights, or null if the kernel is not separable.
+     */
+    public float[] column() {
+        return factors != null ? factors[0].clone() : null;
+    }
+
+    /**
+     * Returns the horizontal factor of a separable kernel.
+     *
+     * @return A copy of the width row weights, or null if the kernel is not separable.
+     */
+    public float[] row() {
+        return factors != null ? factors[1].clone() : null;
+    }
+
+    // The weights in row-major order, for the convolution engine. Must not be modified.
+    float[] weights() {
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        return "Kernel(" + width + "x" + height + (factors != null ? ", separable" : "") + ")";
+    }
+
+    // Splits the kernel into column and row factors if it is a rank-1 matrix.
+    private static float[][] factorize(int width, int height, float[] weights) {
+        // Use the largest weight as the pivot; its row and column then define the factors.
+        int pivot = 0;
+        double largest = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (Math.abs(weights[i]) > largest) {
+                largest = Math.abs(weights[i]);
+                pivot = i;
+            }
+        }
+        if (largest == 0) {
+            return null;
+        }
+        int pivotRow = pivot / width;
+        int pivotColumn = pivot % width;
+        float[] column = new float[height];
+        float[] row = new float[width];
+        for (int j = 0; j < height; j++) {
+            column[j] = weights[j * width + pivotColumn];
+        }
+        for (int i = 0; i < width; i++) {
+            row[i] = (float) (weights[pivotRow * width + i] / (double) weights[pivot]);
+        }
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                double error = Math.abs((double) column[j] * row[i] - weights[j * width + i]);
+                if (error > SEPARABLE_TOLERANCE * largest) {
+                    return null;
+                }
+            }
+        }
+        return new float[][] {column, row};
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples and reports their percentiles.
+ *
+ * Samples go into a fixed-size ring, so memory stays constant and the
+ * percentiles describe recent traffic rather than the whole lifetime of the
+ * process. Recording is a short synchronized store; percentiles sort a copy.
+ */
+public final class LatencyRecorder {
+
+    private final long[] samples;
+    private int next;
+    private int size;
+    private long count;
+
+    /**
+     * Creates a recorder.
+     *
+     * @param capacity The number of most recent samples kept.
+     */
+    public LatencyRecorder(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Records one sample.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        count++;
+    }
+
+    /**
+     * Returns how many samples were recorded in total, including those no longer kept.
+     *
+     * @return The total number of samples.
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * Returns a percentile of the kept samples.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The sample at that percentile in milliseconds, or 0 if nothing was recorded.
+     */
+    public double percentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, size);
+        }
+        if (sorted.length == 0) {
+            return 0;
+        }
+        Arrays.sort(sorted);
+        // Nearest-rank percentile.
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.min(Math.max(rank - 1, 0), sorted.length - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,78 @@
+import java.awt.image.BufferedImage;
+import java.nio.IntBuffer;
+
+/**
+ * A decoded image whose packed ARGB pixels live in a memory-mapped file.
+ *
+ * Instances come from {@link RasterCache}. The pixel buffer is read-only and
+ * laid out row-major like the arrays used everywhere else, so filters can read
+ * it directly (see {@link Pipeline#of(MappedRaster)}). The raster remembers
+ * the layout of the image it was decoded from, so results are written back
+ * in that layout, alpha, gray levels and palette included.
+ */
+public final class MappedRaster {
+
+    private final IntBuffer pixels;
+    private final int width;
+    private final int height;
+    private final BufferedImage layout;
+
+    MappedRaster(IntBuffer pixels, int width, int height, BufferedImage layout) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.layout = layout;
+    }
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return The width in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return The height in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the mapped pixels, packed as 0xAARRGGBB in row-major order.
+     *
+     * @return A read-only view of the pixels, positioned at the first pixel.
+     */
+    public IntBuffer pixels() {
+        return pixels.duplicate();
+    }
+
+    /**
+     * Copies the pixels onto the heap.
+     *
+     * @return A new array of width * height pixels.
+     */
+    public int[] toArray() {
+        int[] copy = new int[width * height];
+        pixels().get(copy);
+        return copy;
+    }
+
+    /**
+     * Copies the pixels into a new image in the layout of the source image.
+     *
+     * @return A new image, written with {@link PixelLayout#write}.
+     */
+    public BufferedImage toImage() {
+        return PixelLayout.write(toArray(), width, height, layout);
+    }
+
+    // A 1x1 image in the layout the pixels were read from, for PixelLayout.
+    BufferedImage layout() {
+        return layout;
+    }
+}
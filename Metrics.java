@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide timing, throughput and memory measurements per stage.
+ *
+ * Code measures a stage by wrapping it in a {@link Timer}:
+ * <pre>
+ * try (Metrics.Timer timer = Metrics.start("decode")) {
+ *     image = ImageIO.read(file);
+ *     timer.pixels((long) image.getWidth() * image.getHeight());
+ * }
+ * </pre>
+ * Each run records its wall time, the pixels it processed and the bytes
+ * allocated by the calling thread; bands handed to {@link TileExecutor}
+ * workers allocate little and are not counted. Stages can also declare the
+ * raster memory they hold, which feeds an in-flight gauge and its peak.
+ *
+ * A run costs two clock reads, two allocation-counter reads and a few
+ * uncontended adds, so metrics stay on by default; set the system property
+ * {@code imageeditor.metrics=false} to turn them off. Results are exposed as
+ * MXBeans under the {@code imageeditor} JMX domain, and can be written to a file
+ * periodically with {@link #startDump} or by setting
+ * {@code imageeditor.metrics.file} (and optionally
+ * {@code imageeditor.metrics.periodSeconds}). Files ending in {@code .json} get
+ * JSON, anything else a text table.
+ */
+public final class Metrics {
+
+    private static final boolean ENABLED = !"false".equals(System.getProperty("imageeditor.metrics"));
+    private static final String DOMAIN = "imageeditor";
+
+    private static final ConcurrentHashMap<String, StageMetrics> STAGES = new ConcurrentHashMap<>();
+    private static final AtomicLong IN_FLIGHT_RASTER_BYTES = new AtomicLong();
+    private static final AtomicLong PEAK_RASTER_BYTES = new AtomicLong();
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+    private static final Timer DISABLED = new Timer(null);
+
+    private static ScheduledExecutorService dumper;
+
+    static {
+        if (ENABLED) {
+            register(DOMAIN + ":type=Metrics", new Bean());
+            String file = System.getProperty("imageeditor.metrics.file");
+            if (file != null) {
+                startDump(Paths.get(file), Long.getLong("imageeditor.metrics.periodSeconds", 10));
+            }
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Starts measuring one run of a stage. Close the timer when the stage ends.
+     *
+     * @param stage The stage name, e.g. {@code "decode"} or {@code "pipeline.blur"}.
+     * @return The running timer.
+     */
+    public static Timer start(String stage) {
+        if (!ENABLED) {
+            return DISABLED;
+        }
+        return new Timer(STAGES.computeIfAbsent(stage, Metrics::newStage));
+    }
+
+    /**
+     * Returns whether measurements are being recorded.
+     *
+     * @return False if metrics were turned off with {@code imageeditor.metrics=false}.
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Returns the stages measured so far.
+     *
+     * @return The stages by name, in alphabetical order.
+     */
+    public static Map<String, StageMetrics> stages() {
+        return new TreeMap<>(STAGES);
+    }
+
+    /**
+     * Returns the raster memory declared by the stages running right now.
+     *
+     * @return The number of bytes.
+     */
+    public static long inFlightRasterBytes() {
+        return IN_FLIGHT_RASTER_BYTES.get();
+    }
+
+    /**
+     * Returns the most raster memory declared at once since the last reset.
+     *
+     * @return The number of bytes.
+     */
+    public static long peakRasterBytes() {
+        return PEAK_RASTER_BYTES.get();
+    }
+
+    /**
+     * Clears every measurement. Stages that are running keep their in-flight memory.
+     */
+    public static void reset() {
+        for (StageMetrics stage : STAGES.values()) {
+            stage.reset();
+        }
+        PEAK_RASTER_BYTES.set(IN_FLIGHT_RASTER_BYTES.get());
+    }
+
+    /**
+     * Formats every measurement as a text table.
+     *
+     * @return One line per stage, followed by the raster memory gauges and the {@link RasterPool} counters.
+     */
+    public static String toText() {
+        StringBuilder text = new StringBuilder();
+        for (StageMetrics stage : stages().values()) {
+            text.append(stage).append(System.lineSeparator());
+        }
+        text.append("raster memory: ").append(inFlightRasterBytes()).append(" B in flight, ")
+                .append(peakRasterBytes()).append(" B peak").append(System.lineSeparator());
+        text.append("raster pool: ").append(RasterPool.shared()).append(System.lineSeparator());
+        return text.toString();
+    }
+
+    /**
+     * Formats every measurement as JSON.
+     *
+     * @return A JSON object with a {@code stages} object, the raster memory gauges and a {@code pool} object.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"stages\": {");
+        boolean first = true;
+        for (StageMetrics stage : stages().values()) {
+            if (!first) {
+                json.append(", ");
+            }
+            first = false;
+            json.append('"').append(stage.getName()).append("\": ").append(stage.toJson());
+        }
+        json.append("}, \"inFlightRasterBytes\": ").append(inFlightRasterBytes())
+                .append(", \"peakRasterBytes\": ").append(peakRasterBytes());
+        RasterPool pool = RasterPool.shared();
+        json.append(", \"pool\": {\"hits\": ").append(pool.hits())
+                .append(", \"misses\": ").append(pool.misses())
+                .append(", \"evictions\": ").append(pool.evictions())
+                .append(", \"pooledBytes\": ").append(pool.pooledBytes()).append("}}");
+        return json.toString();
+    }
+
+    /**
+     * Writes the measurements to a file now and then every {@code periodSeconds}, replacing any earlier dump.
+     *
+     * @param file          The file to write. A {@code .json} suffix selects JSON, anything else text.
+     * @param periodSeconds The time between writes.
+     */
+    public static synchronized void startDump(Path file, long periodSeconds) {
+        if (dumper != null) {
+            dumper.shutdownNow();
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, 0, Math.max(1, periodSeconds), TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the measurements to a file once.
+     *
+     * @param file The file to write. A {@code .json} suffix selects JSON, anything else text.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void dump(Path file) throws IOException {
+        String content = file.toString().endsWith(".json") ? toJson() + System.lineSeparator() : toText();
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), "metrics", ".tmp");
+        try {
+            Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static StageMetrics newStage(String name) {
+        StageMetrics stage = new StageMetrics(name);
+        register(DOMAIN + ":type=Stage,name=" + ObjectName.quote(name), stage);
+        return stage;
+    }
+
+    private static void register(String name, Object bean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+            }
+        } catch (JMException | SecurityException e) {
+            // Metrics still work without JMX, for example in restricted environments.
+        }
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            return (com.sun.management.ThreadMXBean) threads;
+        }
+        return null;
+    }
+
+    /**
+     * One running measurement of a stage.
+     */
+    public static final class Timer implements AutoCloseable {
+
+        private final StageMetrics stage;
+        private final long startNanos;
+        private final long startAllocated;
+        private long pixels;
+        private long rasterBytes;
+
+        Timer(StageMetrics stage) {
+            this.stage = stage;
+            this.startAllocated = stage != null ? allocatedBytes() : 0;
+            this.startNanos = stage != null ? System.nanoTime() : 0;
+        }
+
+        /**
+         * Sets the number of pixels this run processed.
+         *
+         * @param count The number of pixels.
+         * @return This timer.
+         */
+        public Timer pixels(long count) {
+            pixels = count;
+            return this;
+        }
+
+        /**
+         * Declares raster memory held by this run until it ends. May be called more than once.
+         *
+         * @param bytes The number of bytes to add.
+         * @return This timer.
+         */
+        public Timer rasterBytes(long bytes) {
+            if (stage != null) {
+                rasterBytes += bytes;
+                PEAK_RASTER_BYTES.accumulateAndGet(IN_FLIGHT_RASTER_BYTES.addAndGet(bytes), Math::max);
+            }
+            return this;
+        }
+
+        /**
+         * Ends the run and records it.
+         */
+        @Override
+        public void close() {
+            if (stage == null) {
+                return;
+            }
+            long elapsed = System.nanoTime() - startNanos;
+            stage.record(elapsed, pixels, allocatedBytes() - startAllocated);
+            IN_FLIGHT_RASTER_BYTES.addAndGet(-rasterBytes);
+            rasterBytes = 0;
+        }
+    }
+
+    // The MXBean for the process-wide view.
+    private static final class Bean implements MetricsMXBean {
+
+        @Override
+        public String[] getStageNames() {
+            return stages().keySet().toArray(new String[0]);
+        }
+
+        @Override
+        public long getInFlightRasterBytes() {
+            return inFlightRasterBytes();
+        }
+
+        @Override
+        public long getPeakRasterBytes() {
+            return peakRasterBytes();
+        }
+
+        @Override
+        public long getPoolHits() {
+            return RasterPool.shared().hits();
+        }
+
+        @Override
+        public long getPoolMisses() {
+            return RasterPool.shared().misses();
+        }
+
+        @Override
+        public long getPooledBytes() {
+            return RasterPool.shared().pooledBytes();
+        }
+
+        @Override
+        public String getJson() {
+            return toJson();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
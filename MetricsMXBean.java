@@ -0,0 +1,59 @@
+/**
+ * JMX view of the process-wide measurements, registered as {@code imageeditor:type=Metrics}.
+ */
+public interface MetricsMXBean {
+
+    /**
+     * Returns the names of the stages measured so far.
+     *
+     * @return The stage names in alphabetical order.
+     */
+    String[] getStageNames();
+
+    /**
+     * Returns the raster memory held by the stages running right now.
+     *
+     * @return The number of bytes.
+     */
+    long getInFlightRasterBytes();
+
+    /**
+     * Returns the most raster memory held at once since the last reset.
+     *
+     * @return The number of bytes.
+     */
+    long getPeakRasterBytes();
+
+    /**
+     * Returns how many buffer borrows the shared {@link RasterPool} served without allocating.
+     *
+     * @return The number of hits.
+     */
+    long getPoolHits();
+
+    /**
+     * Returns how many buffer borrows from the shared {@link RasterPool} had to allocate.
+     *
+     * @return The number of misses.
+     */
+    long getPoolMisses();
+
+    /**
+     * Returns the free buffers the shared {@link RasterPool} holds now.
+     *
+     * @return The number of bytes.
+     */
+    long getPooledBytes();
+
+    /**
+     * Returns every measurement as JSON, as written by the periodic dump.
+     *
+     * @return A JSON object.
+     */
+    String getJson();
+
+    /**
+     * Clears every measurement.
+     */
+    void reset();
+}
@@ -0,0 +1,405 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A parsed, reusable list of operations such as {@code brightness(20),negative,poster(4)}.
+ *
+ * Steps are separated by commas. Each step is an operation name with optional
+ * numeric arguments in parentheses, either positional ({@code blur(5)}) or in
+ * the named form {@link Pipeline#toString()} prints ({@code blur(rad=5)}).
+ * Steps may also be separated by dots, so a pipeline description parses back
+ * into the same steps. Most arguments must be whole numbers; the angle of
+ * {@code rotate} and the deviation of {@code exactGaussianBlur} may have a
+ * fraction. {@code convolve(width,height,edges,weights...)} takes the kernel
+ * size, the ordinal of the {@link EdgeMode} and the weights in row-major order.
+ */
+public final class OperationChain {
+
+    private final List<Step> steps;
+
+    private OperationChain(List<Step> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Parses an operation chain.
+     *
+     * @param chain The operations, e.g. {@code brightness(20),negative,rotate(90)}.
+     * @return The parsed chain.
+     * @throws IllegalArgumentException if an operation is unknown or has the wrong arguments.
+     */
+    public static OperationChain parse(String chain) {
+        List<Step> steps = new ArrayList<>();
+        int position = 0;
+        while (position < chain.length()) {
+            // Find the end of the step, skipping over anything inside parentheses.
+            int end = position;
+            int depth = 0;
+            while (end < chain.length()) {
+                char c = chain.charAt(end);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (depth == 0 && (c == ',' || c == '.')) {
+                    break;
+                }
+                end++;
+            }
+            String step = chain.substring(position, end).trim();
+            if (!step.isEmpty()) {
+                steps.add(Step.parse(step));
+            }
+            position = end + 1;
+        }
+        return new OperationChain(steps);
+    }
+
+    /**
+     * Appends every step of this chain to a pipeline.
+     *
+     * @param pipeline The pipeline to extend.
+     * @return The same pipeline.
+     */
+    public Pipeline applyTo(Pipeline pipeline) {
+        for (Step step : steps) {
+            step.applyTo(pipeline);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Counts the steps with a given operation name.
+     *
+     * @param name The operation name, e.g. {@code "horizontalFlip"}.
+     * @return The number of matching steps.
+     */
+    public int count(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        int count = 0;
+        for (Step step : steps) {
+            if (step.name.equals(key)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a copy of this chain without the steps of a given operation.
+     *
+     * @param name The operation name to drop.
+     * @return The filtered chain.
+     */
+    public OperationChain without(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        List<Step> kept = new ArrayList<>();
+        for (Step step : steps) {
+            if (!step.name.equals(key)) {
+                kept.add(step);
+            }
+        }
+        return new OperationChain(kept);
+    }
+
+    /**
+     * Returns a copy of this chain for an image downscaled by a factor, as used by {@link ImagePyramid}.
+     *
+     * Spatial arguments, the blur radii and deviations, are divided by the
+     * factor so the result looks like a downscaled copy of the full-size
+     * result. Every other step is kept as it is.
+     *
+     * @param factor The downscaling factor, at least 1.
+     * @return The scaled chain.
+     */
+    public OperationChain scaledBy(int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor must be at least 1: " + factor);
+        }
+        List<Step> scaled = new ArrayList<>();
+        for (Step step : steps) {
+            if (step.name.equals("blur") || step.name.equals("gaussianblur")) {
+                scaled.add(new Step(step.name, new double[] {ImagePyramid.scaleRadius(step.intArg(0), factor)}));
+            } else if (step.name.equals("exactgaussianblur")) {
+                // A deviation that scales below half a pixel hardly blurs at all, so the step is dropped.
+                double sigma = step.args[0] / factor;
+                if (sigma >= 0.5) {
+                    scaled.add(new Step(step.name, new double[] {sigma}));
+                }
+            } else {
+                scaled.add(step);
+            }
+        }
+        return new OperationChain(scaled);
+    }
+
+    /**
+     * Returns how many rows above and below a pixel the chain reads to compute it.
+     *
+     * @return The total vertical reach of the blur and convolution steps, or 0 if there are none.
+     */
+    public int haloRows() {
+        int halo = 0;
+        for (Step step : steps) {
+            if (step.name.equals("blur")) {
+                halo += Math.max(step.intArg(0), 0);
+            } else if (step.name.equals("gaussianblur")) {
+                halo += BoxBlur.gaussianReach(step.intArg(0), BoxBlur.GAUSSIAN_PASSES);
+            } else if (step.name.equals("sharpen") || step.name.equals("edgedetect") || step.name.equals("emboss")) {
+                halo += 1;
+            } else if (step.name.equals("exactgaussianblur")) {
+                halo += Kernel.gaussian(step.args[0]).reach();
+            } else if (step.name.equals("convolve")) {
+                halo += Math.max(step.intArg(0), step.intArg(1)) / 2;
+            }
+        }
+        return halo;
+    }
+
+    /**
+     * Tells whether any step measures the whole image before changing it.
+     *
+     * Such steps give different results on a part of the image, so the
+     * chain cannot be split into strips or regions. A convolution that wraps
+     * around the edges reads the far side of the image, so it counts too.
+     *
+     * @return true if the chain contains automatic brightness, auto-levels,
+     *         equalisation, adaptive posterize, quantisation or a wrapping convolution.
+     */
+    public boolean metersImage() {
+        for (Step step : steps) {
+            if (step.name.equals("convolve") && step.intArg(2) == EdgeMode.WRAP.ordinal()) {
+                return true;
+            }
+        }
+        return count("autoBrightness") + count("autoLevels") + count("equalize") + count("adaptivePoster")
+                + count("quantize") > 0;
+    }
+
+    /**
+     * Returns how many steps the chain has.
+     *
+     * @return The number of steps.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        for (Step step : steps) {
+            if (description.length() > 0) {
+                description.append(',');
+            }
+            description.append(step);
+        }
+        return description.toString();
+    }
+
+    /**
+     * Formats a step argument the way the parser reads it back exactly.
+     *
+     * @param value The argument.
+     * @return Whole numbers without a fraction, anything else as {@link Double#toString(double)} prints it.
+     */
+    static String formatArgument(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    // One operation and its numeric arguments.
+    private static final class Step {
+
+        final String name;
+        final double[] args;
+
+        Step(String name, double[] args) {
+            this.name = name;
+            this.args = args;
+        }
+
+        static Step parse(String text) {
+            int open = text.indexOf('(');
+            String name = (open < 0 ? text : text.substring(0, open)).trim();
+            double[] args = new double[0];
+            if (open >= 0) {
+                int close = text.lastIndexOf(')');
+                if (close < open) {
+                    throw new IllegalArgumentException("Missing ')' in operation: " + text);
+                }
+                String inside = text.substring(open + 1, close).trim();
+                if (!inside.isEmpty()) {
+                    String[] parts = inside.split(",");
+                    args = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) {
+                        // Accept both "5" and "rad=5".
+                        String part = parts[i];
+                        int equals = part.indexOf('=');
+                        try {
+                            args[i] = Double.parseDouble(part.substring(equals + 1).trim());
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Bad argument in operation: " + text, e);
+                        }
+                        if (Double.isNaN(args[i]) || Double.isInfinite(args[i])) {
+                            throw new IllegalArgumentException("Bad argument in operation: " + text);
+                        }
+                    }
+                }
+            }
+            Step step = new Step(name.toLowerCase(Locale.ROOT), args);
+            // Validate eagerly so a bad chain fails before any image is processed.
+            step.applyTo(Pipeline.of((BufferedImage) null));
+            return step;
+        }
+
+        void applyTo(Pipeline pipeline) {
+            switch (name) {
+                case "brightness":
+                    pipeline.brightness(singleArg());
+                    break;
+                case "autobrightness":
+                    pipeline.autoBrightness(args.length == 0 ? ColorMath.MIDDLE_GRAY : singleArg());
+                    break;
+                case "autolevels":
+                    noArgs();
+                    pipeline.autoLevels();
+                    break;
+                case "equalize":
+                    noArgs();
+                    pipeline.equalize();
+                    break;
+                case "adaptiveposter":
+                    pipeline.adaptivePoster(singleArg());
+                    break;
+                case "quantize":
+                    // quantize(colors[, dither[, method]]) with the ordinals of Quantizer.Dither and Palette.Method.
+                    if (args.length < 1 || args.length > 3) {
+                        throw new IllegalArgumentException(name + " takes one to three arguments");
+                    }
+                    pipeline.quantize(intArg(0), enumArg(Quantizer.Dither.values(), 1),
+                            enumArg(Palette.Method.values(), 2));
+                    break;
+                case "negative":
+                    noArgs();
+                    pipeline.negative();
+                    break;
+                case "poster":
+                    pipeline.poster(singleArg());
+                    break;
+                case "rotate":
+                    pipeline.rotateBy(args.length == 0 ? 90 : singleNumber());
+                    break;
+                case "horizontalflip":
+                    noArgs();
+                    pipeline.horizontalFlip();
+                    break;
+                case "verticalflip":
+                    noArgs();
+                    pipeline.verticalFlip();
+                    break;
+                case "mirror":
+                    noArgs();
+                    pipeline.mirror();
+                    break;
+                case "mirrorvertical":
+                    noArgs();
+                    pipeline.mirrorVertical();
+                    break;
+                case "blur":
+                    pipeline.blur(singleArg());
+                    break;
+                case "gaussianblur":
+                    pipeline.gaussianBlur(singleArg());
+                    break;
+                case "exactgaussianblur":
+                    pipeline.exactGaussianBlur(singleNumber());
+                    break;
+                case "convolve":
+                    pipeline.convolve(kernelArgs(), enumArg(EdgeMode.values(), 2));
+                    break;
+                case "sharpen":
+                    noArgs();
+                    pipeline.sharpen();
+                    break;
+                case "edgedetect":
+                    noArgs();
+                    pipeline.edgeDetect();
+                    break;
+                case "emboss":
+                    noArgs();
+                    pipeline.emboss();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + name);
+            }
+        }
+
+        private int singleArg() {
+            singleNumber();
+            return intArg(0);
+        }
+
+        private double singleNumber() {
+            if (args.length != 1) {
+                throw new IllegalArgumentException(name + " takes exactly one argument");
+            }
+            return args[0];
+        }
+
+        // The argument at a position, which must be a whole number.
+        int intArg(int position) {
+            double value = args[position];
+            if (value != (int) value) {
+                throw new IllegalArgumentException(name + " argument " + (position + 1) + " must be a whole number: "
+                        + formatArgument(value));
+            }
+            return (int) value;
+        }
+
+        // The kernel of convolve(width, height, edges, weights...).
+        private Kernel kernelArgs() {
+            if (args.length < 3) {
+                throw new IllegalArgumentException(name + " takes a width, a height, an edge mode and the weights");
+            }
+            float[] weights = new float[args.length - 3];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = (float) args[i + 3];
+            }
+            return Kernel.of(intArg(0), intArg(1), weights);
+        }
+
+        // The enum constant whose ordinal is the given argument, or the first constant if it is missing.
+        private <E extends Enum<E>> E enumArg(E[] values, int position) {
+            int ordinal = position < args.length ? intArg(position) : 0;
+            if (ordinal < 0 || ordinal >= values.length) {
+                throw new IllegalArgumentException(name + " argument " + (position + 1) + " must be between 0 and "
+                        + (values.length - 1) + ": " + ordinal);
+            }
+            return values[ordinal];
+        }
+
+        private void noArgs() {
+            if (args.length != 0) {
+                throw new IllegalArgumentException(name + " takes no arguments");
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder(name).append('(');
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    text.append(',');
+                }
+                text.append(formatArgument(args[i]));
+            }
+            return text.append(')').toString();
+        }
+    }
+}
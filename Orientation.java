@@ -0,0 +1,115 @@
+/**
+ * One of the eight ways to rotate and flip a raster by quarter turns.
+ *
+ * An orientation is stored as a signed permutation matrix that maps centred
+ * destination coordinates to centred source coordinates. Orientations compose
+ * with {@link #then(Orientation)}, so any chain of rotations and flips
+ * collapses into a single index mapping.
+ */
+public final class Orientation {
+
+    private static final Orientation[] ALL = new Orientation[8];
+
+    static {
+        int index = 0;
+        for (int swap = 0; swap < 2; swap++) {
+            for (int signX = -1; signX <= 1; signX += 2) {
+                for (int signY = -1; signY <= 1; signY += 2) {
+                    ALL[index++] = (swap == 0)
+                            ? new Orientation(signX, 0, 0, signY)
+                            : new Orientation(0, signX, signY, 0);
+                }
+            }
+        }
+    }
+
+    /** Leaves the raster as it is. */
+    public static final Orientation IDENTITY = lookup(1, 0, 0, 1);
+
+    /** Rotates the raster 90 degrees clockwise, like {@link ImageEditor#rotateBy90}. */
+    public static final Orientation ROTATE_90 = lookup(0, 1, -1, 0);
+
+    /** Swaps the top and bottom rows, like {@link ImageEditor#horizontalFlip}. */
+    public static final Orientation FLIP_ROWS = lookup(1, 0, 0, -1);
+
+    /** Swaps the left and right columns, like {@link ImageEditor#verticalFlip}. */
+    public static final Orientation FLIP_COLUMNS = lookup(-1, 0, 0, 1);
+
+    private final int m00;
+    private final int m01;
+    private final int m10;
+    private final int m11;
+
+    private Orientation(int m00, int m01, int m10, int m11) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m10 = m10;
+        this.m11 = m11;
+    }
+
+    /**
+     * Returns the orientation that applies this one first and then {@code next}.
+     *
+     * @param next The orientation applied afterwards.
+     * @return The combined orientation.
+     */
+    public Orientation then(Orientation next) {
+        return lookup(m00 * next.m00 + m01 * next.m10, m00 * next.m01 + m01 * next.m11,
+                m10 * next.m00 + m11 * next.m10, m10 * next.m01 + m11 * next.m11);
+    }
+
+    /**
+     * Tells whether the width and height trade places.
+     *
+     * @return true for quarter and three-quarter turns.
+     */
+    public boolean swapsAxes() {
+        return m00 == 0;
+    }
+
+    /**
+     * Computes where each destination pixel is read from in a source raster.
+     *
+     * @param sourceWidth  The width of the source raster.
+     * @param sourceHeight The height of the source raster.
+     * @return The linear mapping from destination (x, y) to a source index.
+     */
+    public Mapping mapping(int sourceWidth, int sourceHeight) {
+        int width = swapsAxes() ? sourceHeight : sourceWidth;
+        int height = swapsAxes() ? sourceWidth : sourceHeight;
+        int originX = ((sourceWidth - 1) - m00 * (width - 1) - m01 * (height - 1)) / 2;
+        int originY = ((sourceHeight - 1) - m10 * (width - 1) - m11 * (height - 1)) / 2;
+        return new Mapping(originY * sourceWidth + originX, m00 + m10 * sourceWidth, m01 + m11 * sourceWidth);
+    }
+
+    private static Orientation lookup(int m00, int m01, int m10, int m11) {
+        for (Orientation orientation : ALL) {
+            if (orientation.m00 == m00 && orientation.m01 == m01
+                    && orientation.m10 == m10 && orientation.m11 == m11) {
+                return orientation;
+            }
+        }
+        throw new IllegalStateException("Not an orientation matrix");
+    }
+
+    /**
+     * Maps destination pixel (x, y) to source index {@code origin + x * stepX + y * stepY}.
+     */
+    public static final class Mapping {
+
+        /** The source index of destination pixel (0, 0). */
+        public final int origin;
+
+        /** The change in source index when x grows by one. */
+        public final int stepX;
+
+        /** The change in source index when y grows by one. */
+        public final int stepY;
+
+        Mapping(int origin, int stepX, int stepY) {
+            this.origin = origin;
+            this.stepX = stepX;
+            this.stepY = stepY;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A palette of up to {@value #MAX_COLORS} opaque colours and a fast nearest-colour lookup.
+ *
+ * Nearest colours are looked up in a cube of 32 x 32 x 32 cells, one per
+ * combination of the top five bits of red, green and blue, that holds the
+ * palette index nearest to the centre of each cell. It is filled once when
+ * the palette is built, so a lookup is a single array read instead of a
+ * search over the palette. A colour may map to the second-best entry when
+ * two entries lie within a few levels of each other, which dithering hides.
+ *
+ * Palettes are either given ({@link #of(int...)}) or generated from an
+ * image by {@link Method#MEDIAN_CUT} or {@link Method#OCTREE}. Both work on
+ * the counts of the cube cells rather than on every pixel, so their cost
+ * after the counting pass does not depend on the size of the image.
+ */
+public final class Palette {
+
+    /**
+     * How a palette is generated from an image.
+     */
+    public enum Method {
+
+        /** Splits the colour box with the most pixels times the longest side at its median, until there are enough boxes. */
+        MEDIAN_CUT,
+
+        /**
+         * Builds an octree of the colours and merges its smallest leaves until there are few enough.
+         * A merge removes up to seven leaves at once, so the palette may end a few colours short.
+         */
+        OCTREE
+    }
+
+    /** The largest palette, so that an index fits in a byte. */
+    public static final int MAX_COLORS = 256;
+
+    private static final int BITS = 5;
+    private static final int SIDE = 1 << BITS;
+    private static final int CELLS = SIDE * SIDE * SIDE;
+
+    // Rows a worker claims at a time while counting the cells.
+    private static final int CLAIM_ROWS = 16;
+
+    private final int[] colors;
+    private final byte[] cube;
+
+    private Palette(int[] colors) {
+        this.colors = colors;
+        this.cube = new byte[CELLS];
+        TileExecutor.forEachBand(SIDE, SIDE * SIDE, (startRed, endRed) -> {
+            for (int cell = startRed * SIDE * SIDE; cell < endRed * SIDE * SIDE; cell++) {
+                cube[cell] = (byte) nearest(center(cell));
+            }
+        });
+    }
+
+    /**
+     * Creates a palette from given colours.
+     *
+     * @param colors Between 1 and {@value #MAX_COLORS} colours, packed as 0xRRGGBB. Alpha is ignored.
+     * @return The palette.
+     */
+    public static Palette of(int... colors) {
+        if (colors.length < 1 || colors.length > MAX_COLORS) {
+            throw new IllegalArgumentException("A palette has between 1 and " + MAX_COLORS + " colours: "
+                    + colors.length);
+        }
+        int[] opaque = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            opaque[i] = 0xFF000000 | colors[i];
+        }
+        return new Palette(opaque);
+    }
+
+    /**
+     * Generates a palette for a packed raster.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param size   The most colours the palette may have, between 1 and {@value #MAX_COLORS}.
+     *               An image with fewer distinct colours gets fewer.
+     * @param method How to choose the colours.
+     * @return The palette.
+     */
+    public static Palette of(int[] pixels, int width, int height, int size, Method method) {
+        if (size < 1 || size > MAX_COLORS) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_COLORS + ": " + size);
+        }
+        long[] cells = countCells(pixels, width, height);
+        int[] colors = method == Method.OCTREE ? octree(cells, size) : medianCut(cells, size);
+        if (colors.length == 0) {
+            // An empty image still needs a colour to map to.
+            colors = new int[] {0xFF000000};
+        }
+        return new Palette(colors);
+    }
+
+    /**
+     * Returns the number of colours.
+     *
+     * @return The size of the palette.
+     */
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * Returns one colour.
+     *
+     * @param index The index of the colour.
+     * @return The colour, packed as 0xFFRRGGBB.
+     */
+    public int color(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Returns every colour.
+     *
+     * @return A copy of the colours, packed as 0xFFRRGGBB.
+     */
+    public int[] colors() {
+        return colors.clone();
+    }
+
+    /**
+     * Looks up the palette entry nearest to a colour in the cube.
+     *
+     * @param pixel The colour, packed as 0xAARRGGBB. Alpha is ignored.
+     * @return The index of the nearest entry.
+     */
+    public int index(int pixel) {
+        return cube[((pixel >> 9) & 0x7C00) | ((pixel >> 6) & 0x03E0) | ((pixel >> 3) & 0x001F)] & 0xFF;
+    }
+
+    /**
+     * Looks up the palette entry nearest to a colour in the cube.
+     *
+     * @param red   The red component, between 0 and 255.
+     * @param green The green component, between 0 and 255.
+     * @param blue  The blue component, between 0 and 255.
+     * @return The index of the nearest entry.
+     */
+    public int index(int red, int green, int blue) {
+        return cube[((red >> 3) << 10) | ((green >> 3) << 5) | (blue >> 3)] & 0xFF;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Palette(");
+        for (int i = 0; i < colors.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(String.format("#%06X", colors[i] & 0xFFFFFF));
+        }
+        return text.append(')').toString();
+    }
+
+    // Searches the whole palette for the entry nearest to a colour.
+    private int nearest(int pixel) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            int red = ColorMath.red(colors[i]) - ColorMath.red(pixel);
+            int green = ColorMath.green(colors[i]) - ColorMath.green(pixel);
+            int blue = ColorMath.blue(colors[i]) - ColorMath.blue(pixel);
+            int distance = red * red + green * green + blue * blue;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int center(int cell) {
+        int red = ((cell >> 10) << 3) | 4;
+        int green = (((cell >> 5) & 0x1F) << 3) | 4;
+        int blue = ((cell & 0x1F) << 3) | 4;
+        return ColorMath.pack(red, green, blue);
+    }
+
+    // Counts the pixels of every cell and sums their components, four longs per cell.
+    // Each worker counts into its own arrays, which are merged at the end.
+    private static long[] countCells(int[] pixels, int width, int height) {
+        long[] merged = new long[4 * CELLS];
+        AtomicInteger nextRow = new AtomicInteger();
+        int workers = (long) width * height <= TileExecutor.MIN_BAND_PIXELS ? 1 : TileExecutor.getParallelism();
+        TileExecutor.forEachWorker(workers, () -> {
+            long[] cells = new long[4 * CELLS];
+            int startRow;
+            while ((startRow = nextRow.getAndAdd(CLAIM_ROWS)) < height) {
+                int end = Math.min(height, startRow + CLAIM_ROWS) * width;
+                for (int i = startRow * width; i < end; i++) {
+                    int pixel = pixels[i];
+                    int red = ColorMath.red(pixel);
+                    int green = ColorMath.green(pixel);
+                    int blue = ColorMath.blue(pixel);
+                    int cell = 4 * (((red >> 3) << 10) | ((green >> 3) << 5) | (blue >> 3));
+                    cells[cell]++;
+                    cells[cell + 1] += red;
+                    cells[cell + 2] += green;
+                    cells[cell + 3] += blue;
+                }
+            }
+            synchronized (merged) {
+                for (int i = 0; i < merged.length; i++) {
+                    merged[i] += cells[i];
+                }
+            }
+        });
+        return merged;
+    }
+
+    // The mean colour of the pixels counted in a set of cells.
+    private static int mean(long[] cells, int[] members, int from, int to) {
+        long count = 0;
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        for (int i = from; i < to; i++) {
+            int cell = 4 * members[i];
+            count += cells[cell];
+            red += cells[cell + 1];
+            green += cells[cell + 2];
+            blue += cells[cell + 3];
+        }
+        return ColorMath.pack((int) ((red + count / 2) / count), (int) ((green + count / 2) / count),
+                (int) ((blue + count / 2) / count));
+    }
+
+    private static int[] medianCut(long[] cells, int size) {
+        int occupied = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (cells[4 * cell] > 0) {
+                occupied++;
+            }
+        }
+        int[] members = new int[occupied];
+        for (int cell = 0, n = 0; cell < CELLS; cell++) {
+            if (cells[4 * cell] > 0) {
+                members[n++] = cell;
+            }
+        }
+
+        // Split the box with the largest score until there are enough boxes or none can be split.
+        List<Box> boxes = new ArrayList<>();
+        if (occupied > 0) {
+            boxes.add(new Box(cells, members, 0, occupied));
+        }
+        while (boxes.size() < size) {
+            Box widest = null;
+            for (Box box : boxes) {
+                if (box.to - box.from > 1 && (widest == null || box.score() > widest.score())) {
+                    widest = box;
+                }
+            }
+            if (widest == null) {
+                break;
+            }
+            boxes.remove(widest);
+            boxes.addAll(widest.split(cells, members));
+        }
+
+        int[] colors = new int[boxes.size()];
+        for (int i = 0; i < colors.length; i++) {
+            Box box = boxes.get(i);
+            colors[i] = mean(cells, members, box.from, box.to);
+        }
+        return colors;
+    }
+
+    // A run of occupied cells in the members array and their bounds in cell coordinates.
+    private static final class Box {
+
+        final int from;
+        final int to;
+        final long count;
+        final int[] low = {SIDE, SIDE, SIDE};
+        final int[] high = {-1, -1, -1};
+
+        Box(long[] cells, int[] members, int from, int to) {
+            this.from = from;
+            this.to = to;
+            long total = 0;
+            for (int i = from; i < to; i++) {
+                int cell = members[i];
+                total += cells[4 * cell];
+                for (int axis = 0; axis < 3; axis++) {
+                    int coordinate = coordinate(cell, axis);
+                    low[axis] = Math.min(low[axis], coordinate);
+                    high[axis] = Math.max(high[axis], coordinate);
+                }
+            }
+            this.count = total;
+        }
+
+        static int coordinate(int cell, int axis) {
+            return (cell >> (BITS * (2 - axis))) & (SIDE - 1);
+        }
+
+        int longestAxis() {
+            int axis = 0;
+            for (int i = 1; i < 3; i++) {
+                if (high[i] - low[i] > high[axis] - low[axis]) {
+                    axis = i;
+                }
+            }
+            return axis;
+        }
+
+        long score() {
+            int axis = longestAxis();
+            return count * (high[axis] - low[axis] + 1);
+        }
+
+        // Sorts the cells along the longest side and cuts where half of the pixels fall on each side.
+        List<Box> split(long[] cells, int[] members) {
+            int axis = longestAxis();
+            // Sort keys with the coordinate above the cell, so a primitive sort orders the cells.
+            int[] sorted = new int[to - from];
+            for (int i = from; i < to; i++) {
+                sorted[i - from] = (coordinate(members[i], axis) << (3 * BITS)) | members[i];
+            }
+            Arrays.sort(sorted);
+            for (int i = from; i < to; i++) {
+                members[i] = sorted[i - from] & (CELLS - 1);
+            }
+            long half = 0;
+            int cut = from + 1;
+            while (cut < to - 1 && (half += cells[4 * members[cut - 1]]) < count / 2) {
+                cut++;
+            }
+            return Arrays.asList(new Box(cells, members, from, cut), new Box(cells, members, cut, to));
+        }
+    }
+
+    private static int[] octree(long[] cells, int size) {
+        Node root = new Node(0);
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (cells[4 * cell] > 0) {
+                root.add(cell, cells);
+            }
+        }
+
+        // Merge the children of the deepest, least-used nodes whose children are all leaves.
+        int leaves = root.countLeaves();
+        PriorityQueue<Node> reducible = new PriorityQueue<>(
+                Comparator.comparingInt((Node node) -> -node.depth).thenComparingLong(node -> node.count));
+        root.collectReducible(reducible);
+        while (leaves > size && !reducible.isEmpty()) {
+            Node node = reducible.poll();
+            leaves -= node.reduce() - 1;
+            Node parent = node.parent;
+            if (parent != null && parent.childrenAreLeaves()) {
+                reducible.add(parent);
+            }
+        }
+
+        List<Integer> colors = new ArrayList<>();
+        root.collectColors(colors);
+        int[] result = new int[colors.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = colors.get(i);
+        }
+        return result;
+    }
+
+    // A node of the colour octree. Level 0 splits on the top bit of each component, level 4 on the fifth.
+    private static final class Node {
+
+        final int depth;
+        Node parent;
+        Node[] children;
+        long count;
+        long red;
+        long green;
+        long blue;
+
+        Node(int depth) {
+            this.depth = depth;
+        }
+
+        void add(int cell, long[] cells) {
+            count += cells[4 * cell];
+            red += cells[4 * cell + 1];
+            green += cells[4 * cell + 2];
+            blue += cells[4 * cell + 3];
+            if (depth == BITS) {
+                return;
+            }
+            int shift = BITS - 1 - depth;
+            int child = (((cell >> (10 + shift)) & 1) << 2) | (((cell >> (5 + shift)) & 1) << 1) | ((cell >> shift) & 1);
+            if (children == null) {
+                children = new Node[8];
+            }
+            if (children[child] == null) {
+                children[child] = new Node(depth + 1);
+                children[child].parent = this;
+            }
+            children[child].add(cell, cells);
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+
+        boolean childrenAreLeaves() {
+            if (children == null) {
+                return false;
+            }
+            for (Node child : children) {
+                if (child != null && !child.isLeaf()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int countLeaves() {
+            if (isLeaf()) {
+                return count > 0 ? 1 : 0;
+            }
+            int leaves = 0;
+            for (Node child : children) {
+                if (child != null) {
+                    leaves += child.countLeaves();
+                }
+            }
+            return leaves;
+        }
+
+        void collectReducible(PriorityQueue<Node> reducible) {
+            if (isLeaf()) {
+                return;
+            }
+            if (childrenAreLeaves()) {
+                reducible.add(this);
+                return;
+            }
+            for (Node child : children) {
+                if (child != null) {
+                    child.collectReducible(reducible);
+                }
+            }
+        }
+
+        // Turns this node into a leaf holding its children's pixels. Returns how many leaves it replaced.
+        int reduce() {
+            int merged = 0;
+            for (Node child : children) {
+                if (child != null) {
+                    merged++;
+                }
+            }
+            children = null;
+            return merged;
+        }
+
+        void collectColors(List<Integer> colors) {
+            if (isLeaf()) {
+                if (count > 0) {
+                    colors.add(ColorMath.pack((int) ((red + count / 2) / count),
+                            (int) ((green + count / 2) / count), (int) ((blue + count / 2) / count)));
+                }
+                return;
+            }
+            for (Node child : children) {
+                if (child != null) {
+                    child.collectColors(colors);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,760 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A lazily evaluated chain of ImageEditor operations.
+ *
+ * Operations are only recorded until {@link #apply()} is called. At that point
+ * consecutive point operations (brightness, negative, poster) are fused into
+ * one lookup table, consecutive rotations and flips are composed into one
+ * index mapping, and both are applied together in a single pass over the
+ * raster. Only neighbourhood operations such as the blurs, the convolutions
+ * and the mirrors, and the content-aware operations, which measure the image
+ * first, need a pass of their own. Each pass is recorded in {@link Metrics} as
+ * {@code pipeline.read}, {@code pipeline.remap}, {@code pipeline.<operation>}
+ * or {@code pipeline.write}.
+ *
+ * <pre>
+ * BufferedImage result = Pipeline.of(image).brightness(20).negative().poster(4).rotate(270).apply();
+ * </pre>
+ */
+public final class Pipeline {
+
+    private final BufferedImage source;
+    private final MappedRaster mappedSource;
+    private final List<Stage> stages = new ArrayList<>();
+
+    private Pipeline(BufferedImage source, MappedRaster mappedSource) {
+        this.source = source;
+        this.mappedSource = mappedSource;
+    }
+
+    /**
+     * Starts a pipeline on an image.
+     *
+     * @param image The image the operations will be applied to. It is never modified.
+     * @return A new, empty pipeline.
+     */
+    public static Pipeline of(BufferedImage image) {
+        return new Pipeline(image, null);
+    }
+
+    /**
+     * Starts a pipeline on a memory-mapped image from a {@link RasterCache}.
+     *
+     * The first pass reads straight from the mapped file, so no heap copy of
+     * the source is made when the chain starts with point operations, rotations
+     * or flips.
+     *
+     * @param raster The mapped image. It is never modified.
+     * @return A new, empty pipeline.
+     */
+    public static Pipeline of(MappedRaster raster) {
+        return new Pipeline(null, raster);
+    }
+
+    /**
+     * Adjusts the brightness by a percentage, like {@link ImageEditor#changeBrightness}.
+     *
+     * @param increase The percentage increase in brightness. Negative values darken.
+     * @return This pipeline.
+     */
+    public Pipeline brightness(int increase) {
+        return add(new PointStage("brightness(increase=" + increase + ")", ColorMath.brightnessTable(increase)));
+    }
+
+    /**
+     * Inverts the colours, like {@link ImageEditor#negative}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline negative() {
+        return add(new PointStage("negative()", ColorMath.negativeTable()));
+    }
+
+    /**
+     * Posterizes the colours, like {@link ImageEditor#poster}.
+     *
+     * @param numLevels The number of levels per component, between 1 and 256.
+     * @return This pipeline.
+     */
+    public Pipeline poster(int numLevels) {
+        return add(new PointStage("poster(numLevels=" + numLevels + ")", ColorMath.posterTable(numLevels)));
+    }
+
+    /**
+     * Adjusts the brightness automatically, like {@link ImageEditor#autoBrightness(BufferedImage, int)}.
+     *
+     * The image is metered as it is at this point of the chain, so this step
+     * runs as a pass of its own.
+     *
+     * @param target The gray level to aim for, between 1 and 255.
+     * @return This pipeline.
+     */
+    public Pipeline autoBrightness(int target) {
+        if (target < 1 || target > 255) {
+            throw new IllegalArgumentException("target must be between 1 and 255: " + target);
+        }
+        return add(new AutoBrightnessStage("autoBrightness(target=" + target + ")", target));
+    }
+
+    /**
+     * Stretches the colours to the full range, like {@link ImageEditor#autoLevels}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline autoLevels() {
+        return add(new HistogramStage("autoLevels()", histogram -> histogram.levelsTable(Histogram.DEFAULT_CLIP)));
+    }
+
+    /**
+     * Equalises the histogram, like {@link ImageEditor#equalize}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline equalize() {
+        return add(new HistogramStage("equalize()", Histogram::equalizationTable));
+    }
+
+    /**
+     * Posterizes with levels chosen from the image, like {@link ImageEditor#adaptivePoster}.
+     *
+     * @param numLevels The number of levels per component, between 1 and 256.
+     * @return This pipeline.
+     */
+    public Pipeline adaptivePoster(int numLevels) {
+        if (numLevels < 1 || numLevels > 256) {
+            throw new IllegalArgumentException("numLevels must be between 1 and 256: " + numLevels);
+        }
+        return add(new HistogramStage("adaptivePoster(numLevels=" + numLevels + ")",
+                histogram -> histogram.posterTable(numLevels)));
+    }
+
+    /**
+     * Reduces the colours to a palette generated from the image, like {@link ImageEditor#quantize}.
+     *
+     * The palette is generated from the image as it is at this point of the
+     * chain, so this step runs as a pass of its own.
+     *
+     * @param colors The most colours to keep, between 1 and {@value Palette#MAX_COLORS}.
+     * @param dither How to spread the rounding.
+     * @param method How to choose the colours.
+     * @return This pipeline.
+     */
+    public Pipeline quantize(int colors, Quantizer.Dither dither, Palette.Method method) {
+        if (colors < 1 || colors > Palette.MAX_COLORS) {
+            throw new IllegalArgumentException("colors must be between 1 and " + Palette.MAX_COLORS + ": " + colors);
+        }
+        // The enums are described by their ordinals so the description parses back as an operation chain.
+        return add(new QuantizeStage("quantize(colors=" + colors + ",dither=" + dither.ordinal() + ",method="
+                + method.ordinal() + ")", colors, dither, method));
+    }
+
+    /**
+     * Rotates clockwise by a multiple of 90 degrees.
+     *
+     * @param degrees The angle, a multiple of 90. Negative angles rotate anticlockwise.
+     * @return This pipeline.
+     */
+    public Pipeline rotate(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("degrees must be a multiple of 90: " + degrees);
+        }
+        Orientation orientation = Orientation.IDENTITY;
+        for (int i = 0; i < Math.floorMod(degrees / 90, 4); i++) {
+            orientation = orientation.then(Orientation.ROTATE_90);
+        }
+        return add(new OrientationStage("rotate(degrees=" + degrees + ")", orientation));
+    }
+
+    /**
+     * Rotates clockwise by any angle with bilinear sampling, like {@link ImageEditor#rotateByAngle}.
+     *
+     * Multiples of 90 degrees are folded into the exact quarter-turn mapping instead.
+     *
+     * @param degrees The clockwise rotation angle.
+     * @return This pipeline.
+     */
+    public Pipeline rotateBy(double degrees) {
+        if (degrees % 90 == 0) {
+            return rotate((int) degrees);
+        }
+        // Corners outside the source are transparent when the result can show it, black otherwise. Chains are
+        // checked against a pipeline without a source, which only needs the step to be valid.
+        BufferedImage layout = layoutSource();
+        int background = (layout != null && layout.getColorModel().hasAlpha()) ? 0 : 0xFF000000;
+        return add(new AngleStage("rotate(degrees=" + OperationChain.formatArgument(degrees) + ")", degrees,
+                background));
+    }
+
+    /**
+     * Swaps the top and bottom of the image, like {@link ImageEditor#horizontalFlip}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline horizontalFlip() {
+        return add(new OrientationStage("horizontalFlip()", Orientation.FLIP_ROWS));
+    }
+
+    /**
+     * Swaps the left and right of the image, like {@link ImageEditor#verticalFlip}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline verticalFlip() {
+        return add(new OrientationStage("verticalFlip()", Orientation.FLIP_COLUMNS));
+    }
+
+    /**
+     * Mirrors the top half onto the bottom half, like {@link ImageEditor#mirror}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline mirror() {
+        return add(new MirrorStage("mirror()", false));
+    }
+
+    /**
+     * Mirrors the left half onto the right half, like {@link ImageEditor#mirrorVertical}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline mirrorVertical() {
+        return add(new MirrorStage("mirrorVertical()", true));
+    }
+
+    /**
+     * Applies a box blur, like {@link ImageEditor#blur}.
+     *
+     * @param rad The radius of the blur.
+     * @return This pipeline.
+     */
+    public Pipeline blur(int rad) {
+        return add(new BlurStage("blur(rad=" + rad + ")", rad, false));
+    }
+
+    /**
+     * Applies a Gaussian-like blur, like {@link ImageEditor#gaussianBlur}.
+     *
+     * @param rad The standard deviation of the blur in pixels.
+     * @return This pipeline.
+     */
+    public Pipeline gaussianBlur(int rad) {
+        return add(new BlurStage("gaussianBlur(rad=" + rad + ")", rad, true));
+    }
+
+    /**
+     * Applies a convolution kernel, like {@link ImageEditor#convolve}.
+     *
+     * @param kernel The kernel to apply.
+     * @param edges  How pixels beyond the edges of the image are read.
+     * @return This pipeline.
+     */
+    public Pipeline convolve(Kernel kernel, EdgeMode edges) {
+        // The weights are written out so the description parses back and tells different kernels apart.
+        StringBuilder description = new StringBuilder("convolve(width=").append(kernel.getWidth())
+                .append(",height=").append(kernel.getHeight()).append(",edges=").append(edges.ordinal());
+        for (int y = 0; y < kernel.getHeight(); y++) {
+            for (int x = 0; x < kernel.getWidth(); x++) {
+                description.append(',').append(OperationChain.formatArgument(kernel.weight(x, y)));
+            }
+        }
+        return add(new ConvolutionStage(description.append(')').toString(), kernel, edges));
+    }
+
+    /**
+     * Sharpens the image, like {@link ImageEditor#sharpen}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline sharpen() {
+        return add(new ConvolutionStage("sharpen()", Kernel.sharpen(), EdgeMode.CLAMP));
+    }
+
+    /**
+     * Highlights the edges, like {@link ImageEditor#edgeDetect}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline edgeDetect() {
+        return add(new ConvolutionStage("edgeDetect()", Kernel.edgeDetect(), EdgeMode.CLAMP));
+    }
+
+    /**
+     * Embosses the image, like {@link ImageEditor#emboss}.
+     *
+     * @return This pipeline.
+     */
+    public Pipeline emboss() {
+        return add(new ConvolutionStage("emboss()", Kernel.emboss(), EdgeMode.CLAMP));
+    }
+
+    /**
+     * Applies a true Gaussian blur, like {@link ImageEditor#exactGaussianBlur}.
+     *
+     * @param sigma The standard deviation of the blur in pixels.
+     * @return This pipeline.
+     */
+    public Pipeline exactGaussianBlur(double sigma) {
+        return add(new ConvolutionStage("exactGaussianBlur(sigma=" + OperationChain.formatArgument(sigma) + ")",
+                Kernel.gaussian(sigma), EdgeMode.CLAMP));
+    }
+
+    /**
+     * Runs the recorded operations and returns the result in the layout of the source image.
+     *
+     * The source is converted once on the way in and once on the way out,
+     * however many operations there are, and its alpha and palette are kept
+     * (see {@link PixelLayout}). Pipelines on a mapped raster use the layout of
+     * the image the raster was decoded from.
+     *
+     * @return A new BufferedImage holding the result.
+     */
+    public BufferedImage apply() {
+        return apply(outputType());
+    }
+
+    /**
+     * Runs the recorded operations and returns the result in the given image type.
+     *
+     * When the type is the one {@link #apply()} would return, the result is
+     * written with {@link PixelLayout#write}, so an indexed source keeps its
+     * palette and a gray source that is no longer gray comes back as TYPE_INT_RGB.
+     *
+     * @param imageType The BufferedImage type of the result.
+     * @return A new BufferedImage holding the result.
+     */
+    public BufferedImage apply(int imageType) {
+        // Every heap raster below is borrowed from the pool and belongs to this run, so a stage's input
+        // goes back as soon as its output exists, and the next stage borrows it again: a chain of
+        // passes alternates between two buffers.
+        RasterPool pool = RasterPool.shared();
+        Raster raster;
+        try (Metrics.Timer timer = Metrics.start("pipeline.read")) {
+            raster = (mappedSource != null)
+                    ? new Raster(mappedSource.pixels(), mappedSource.getWidth(), mappedSource.getHeight())
+                    : new Raster(PixelLayout.read(source, pool), source.getWidth(), source.getHeight());
+            timer.pixels(raster.pixelCount());
+        }
+
+        // Fold every run of point and orientation stages into one table and one mapping.
+        int[] table = null;
+        Orientation orientation = Orientation.IDENTITY;
+        for (Stage stage : stages) {
+            if (stage instanceof PointStage) {
+                table = compose(table, ((PointStage) stage).table);
+            } else if (stage instanceof OrientationStage) {
+                orientation = orientation.then(((OrientationStage) stage).orientation);
+            } else {
+                raster = remap(raster, table, orientation, pool);
+                table = null;
+                orientation = Orientation.IDENTITY;
+                try (Metrics.Timer timer = Metrics.start("pipeline." + stage.name)) {
+                    // Barrier stages hold their input and output rasters at the same time.
+                    timer.pixels(raster.pixelCount()).rasterBytes(8 * raster.pixelCount());
+                    Raster input = raster.onHeap(pool);
+                    raster = stage.run(input, pool);
+                    if (raster.pixels != input.pixels) {
+                        pool.release(input.pixels);
+                    }
+                }
+            }
+        }
+        raster = remap(raster, table, orientation, pool).onHeap(pool);
+
+        try (Metrics.Timer timer = Metrics.start("pipeline.write")) {
+            timer.pixels(raster.pixelCount());
+            if (imageType == outputType()) {
+                return PixelLayout.write(raster.pixels, raster.width, raster.height, layoutSource(), pool);
+            }
+            BufferedImage image = RasterAccess.createImage(raster.pixels, raster.width, raster.height, imageType);
+            if (imageType != BufferedImage.TYPE_INT_RGB && imageType != BufferedImage.TYPE_INT_ARGB) {
+                // Only the packed int types wrap the array; the others copied it.
+                pool.release(raster.pixels);
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Describes the recorded operations in a canonical form, e.g. {@code blur(rad=5).poster(numLevels=4)}.
+     *
+     * {@link OperationChain#parse} reads the description back into the same operations.
+     *
+     * @return The description of the operation chain.
+     */
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        for (Stage stage : stages) {
+            if (description.length() > 0) {
+                description.append('.');
+            }
+            description.append(stage.description);
+        }
+        return description.toString();
+    }
+
+    // Reads the source pixels, for callers that need to identify the source by content.
+    int[] sourcePixels() {
+        return (mappedSource != null) ? mappedSource.toArray() : PixelLayout.read(source);
+    }
+
+    // The palette of an indexed source, which apply() maps its result back onto; null for other sources.
+    int[] sourcePalette() {
+        if (!(layoutSource().getColorModel() instanceof IndexColorModel)) {
+            return null;
+        }
+        IndexColorModel palette = (IndexColorModel) layoutSource().getColorModel();
+        int[] colors = new int[palette.getMapSize()];
+        palette.getRGBs(colors);
+        return colors;
+    }
+
+    // The image type apply() returns.
+    int outputType() {
+        return PixelLayout.outputType(layoutSource());
+    }
+
+    // The image whose layout results are written in: the source, or the one a mapped raster was read from.
+    private BufferedImage layoutSource() {
+        return (mappedSource != null) ? mappedSource.layout() : source;
+    }
+
+    int sourceWidth() {
+        return (mappedSource != null) ? mappedSource.getWidth() : source.getWidth();
+    }
+
+    private Pipeline add(Stage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    // Returns the table that applies first, then second. A null table is the identity.
+    private static int[] compose(int[] first, int[] second) {
+        if (first == null) {
+            return second;
+        }
+        int[] composed = new int[256];
+        for (int value = 0; value < 256; value++) {
+            composed[value] = second[first[value]];
+        }
+        return composed;
+    }
+
+    // Applies a lookup table and an orientation in one pass over the raster.
+    private static Raster remap(Raster in, int[] table, Orientation orientation, RasterPool pool) {
+        if (table == null && orientation == Orientation.IDENTITY) {
+            return in;
+        }
+        try (Metrics.Timer timer = Metrics.start("pipeline.remap")) {
+            timer.pixels(in.pixelCount()).rasterBytes(8 * in.pixelCount());
+            return remapPixels(in, table, orientation, pool);
+        }
+    }
+
+    // Does the work of remap for a non-trivial table or orientation.
+    private static Raster remapPixels(Raster in, int[] table, Orientation orientation, RasterPool pool) {
+        int[] lookup = (table != null) ? table : identityTable();
+        if (in.pixels == null) {
+            return remapMapped(in, lookup, orientation, pool);
+        }
+        int[] src = in.pixels;
+
+        if (orientation == Orientation.IDENTITY) {
+            // Pure point operations can work in place.
+            TileExecutor.forEachBand(in.height, in.width, (startRow, endRow) ->
+                    ColorMath.applyTable(src, src, lookup, startRow * in.width, endRow * in.width));
+            return in;
+        }
+
+        int[] dst = GeometricTransform.reorient(src, in.width, in.height, orientation, table, pool.ints(src.length));
+        pool.release(src);
+        return orientation.swapsAxes() ? new Raster(dst, in.height, in.width) : new Raster(dst, in.width, in.height);
+    }
+
+    // Same as remap, but reading from a mapped source, which is never written to.
+    private static Raster remapMapped(Raster in, int[] lookup, Orientation orientation, RasterPool pool) {
+        int width = orientation.swapsAxes() ? in.height : in.width;
+        int height = orientation.swapsAxes() ? in.width : in.height;
+        int[] dst = pool.ints(in.width * in.height);
+        Orientation.Mapping mapping = orientation.mapping(in.width, in.height);
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            IntBuffer src = in.mapped.duplicate();
+            for (int y = startRow; y < endRow; y++) {
+                int index = mapping.origin + y * mapping.stepY;
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    int pixel = src.get(index);
+                    dst[offset + x] = (pixel & 0xFF000000)
+                            | (lookup[(pixel >> 16) & 0xFF] << 16)
+                            | (lookup[(pixel >> 8) & 0xFF] << 8)
+                            | lookup[pixel & 0xFF];
+                    index += mapping.stepX;
+                }
+            }
+        });
+        return new Raster(dst, width, height);
+    }
+
+    private static int[] identityTable() {
+        int[] table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = value;
+        }
+        return table;
+    }
+
+    // A packed ARGB raster with its dimensions, held either in a heap array or in a mapped buffer.
+    private static final class Raster {
+
+        final int[] pixels;
+        final IntBuffer mapped;
+        final int width;
+        final int height;
+
+        Raster(int[] pixels, int width, int height) {
+            this.pixels = pixels;
+            this.mapped = null;
+            this.width = width;
+            this.height = height;
+        }
+
+        Raster(IntBuffer mapped, int width, int height) {
+            this.pixels = null;
+            this.mapped = mapped;
+            this.width = width;
+            this.height = height;
+        }
+
+        long pixelCount() {
+            return (long) width * height;
+        }
+
+        // Returns a raster whose pixels are in a heap array the pipeline may overwrite.
+        Raster onHeap(RasterPool pool) {
+            if (pixels != null) {
+                return this;
+            }
+            int[] copy = pool.ints(width * height);
+            mapped.duplicate().get(copy);
+            return new Raster(copy, width, height);
+        }
+    }
+
+    // One recorded operation.
+    private abstract static class Stage {
+
+        final String description;
+        final String name;
+
+        Stage(String description) {
+            this.description = description;
+            int arguments = description.indexOf('(');
+            this.name = arguments < 0 ? description : description.substring(0, arguments);
+        }
+
+        // Runs the stage as a pass of its own over a heap raster. apply() folds runs of point and
+        // orientation stages into one remap instead. New rasters are borrowed from the pool; the input
+        // is released by the caller if it is not returned.
+        abstract Raster run(Raster in, RasterPool pool);
+    }
+
+    private static final class PointStage extends Stage {
+
+        final int[] table;
+
+        PointStage(String description, int[] table) {
+            super(description);
+            this.table = table;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            int[] pixels = in.pixels;
+            TileExecutor.forEachBand(in.height, in.width, (startRow, endRow) ->
+                    ColorMath.applyTable(pixels, pixels, table, startRow * in.width, endRow * in.width));
+            return in;
+        }
+    }
+
+    private static final class OrientationStage extends Stage {
+
+        final Orientation orientation;
+
+        OrientationStage(String description, Orientation orientation) {
+            super(description);
+            this.orientation = orientation;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            int[] dst = GeometricTransform.reorient(in.pixels, in.width, in.height, orientation, null,
+                    pool.ints(in.pixels.length));
+            return orientation.swapsAxes()
+                    ? new Raster(dst, in.height, in.width) : new Raster(dst, in.width, in.height);
+        }
+    }
+
+    private static final class MirrorStage extends Stage {
+
+        final boolean vertical;
+
+        MirrorStage(String description, boolean vertical) {
+            super(description);
+            this.vertical = vertical;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            int width = in.width;
+            int height = in.height;
+            int[] pixels = in.pixels;
+            if (vertical) {
+                // Copy the left half of every row over its right half.
+                TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+                    for (int i = startRow; i < endRow; i++) {
+                        int row = i * width;
+                        for (int j = 0; j < width / 2; j++) {
+                            pixels[row + width - j - 1] = pixels[row + j];
+                        }
+                    }
+                });
+            } else {
+                // Copy the top half of the rows over the bottom half.
+                TileExecutor.forEachBand(height / 2, width, (startRow, endRow) -> {
+                    for (int i = startRow; i < endRow; i++) {
+                        System.arraycopy(pixels, i * width, pixels, (height - i - 1) * width, width);
+                    }
+                });
+            }
+            return in;
+        }
+    }
+
+    private static final class AngleStage extends Stage {
+
+        final double degrees;
+        final int background;
+
+        AngleStage(String description, double degrees, int background) {
+            super(description);
+            this.degrees = degrees;
+            this.background = background;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            GeometricTransform.Rotated rotated = GeometricTransform.rotate(in.pixels, in.width, in.height, degrees,
+                    background);
+            return new Raster(rotated.pixels, rotated.width, rotated.height);
+        }
+    }
+
+    private static final class QuantizeStage extends Stage {
+
+        final int colors;
+        final Quantizer.Dither dither;
+        final Palette.Method method;
+
+        QuantizeStage(String description, int colors, Quantizer.Dither dither, Palette.Method method) {
+            super(description);
+            this.colors = colors;
+            this.dither = dither;
+            this.method = method;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            Palette palette = Palette.of(in.pixels, in.width, in.height, colors, method);
+            Quantizer.quantize(in.pixels, in.pixels, in.width, in.height, palette, dither);
+            return in;
+        }
+    }
+
+    private static final class AutoBrightnessStage extends Stage {
+
+        final int target;
+
+        AutoBrightnessStage(String description, int target) {
+            super(description);
+            this.target = target;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            double metered = SummedAreaTable.of(in.pixels, in.width, in.height).meteredLuma();
+            int[] table = ColorMath.brightnessTable(ColorMath.exposureIncrease(metered, target));
+            int[] pixels = in.pixels;
+            TileExecutor.forEachBand(in.height, in.width, (startRow, endRow) ->
+                    ColorMath.applyTable(pixels, pixels, table, startRow * in.width, endRow * in.width));
+            return in;
+        }
+    }
+
+    // A point operation whose table depends on the histogram of the image at this point.
+    private static final class HistogramStage extends Stage {
+
+        final Function<Histogram, int[]> table;
+
+        HistogramStage(String description, Function<Histogram, int[]> table) {
+            super(description);
+            this.table = table;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            int[] lookup = table.apply(Histogram.of(in.pixels, in.width, in.height));
+            int[] pixels = in.pixels;
+            TileExecutor.forEachBand(in.height, in.width, (startRow, endRow) ->
+                    ColorMath.applyTable(pixels, pixels, lookup, startRow * in.width, endRow * in.width));
+            return in;
+        }
+    }
+
+    private static final class BlurStage extends Stage {
+
+        final int rad;
+        final boolean gaussian;
+
+        BlurStage(String description, int rad, boolean gaussian) {
+            super(description);
+            this.rad = rad;
+            this.gaussian = gaussian;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            int[] blurred = pool.ints(in.pixels.length);
+            if (gaussian) {
+                BoxBlur.gaussian(in.pixels, blurred, in.width, in.height, rad, BoxBlur.GAUSSIAN_PASSES);
+            } else {
+                BoxBlur.blur(in.pixels, blurred, in.width, in.height, rad);
+            }
+            return new Raster(blurred, in.width, in.height);
+        }
+    }
+
+    private static final class ConvolutionStage extends Stage {
+
+        final Kernel kernel;
+        final EdgeMode edges;
+
+        ConvolutionStage(String description, Kernel kernel, EdgeMode edges) {
+            super(description);
+            this.kernel = kernel;
+            this.edges = edges;
+        }
+
+        @Override
+        Raster run(Raster in, RasterPool pool) {
+            int[] filtered = pool.ints(in.pixels.length);
+            Convolution.convolve(in.pixels, filtered, in.width, in.height, kernel, edges);
+            return new Raster(filtered, in.width, in.height);
+        }
+    }
+}
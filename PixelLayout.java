@@ -0,0 +1,261 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * The pixel layouts images arrive in, and the conversions to and from the working layout.
+ *
+ * Every filter works on packed 0xAARRGGBB ints, the layout of TYPE_INT_ARGB.
+ * {@link #read} converts an image into it once, and {@link #write} converts a
+ * result back into the layout of the image it came from, alpha included. A
+ * chain of operations therefore costs two conversions however long it is, and
+ * the packed int layouts are written by wrapping the array without a copy.
+ *
+ * Gray images are read as their raw levels, the convention of
+ * {@link Grayscale}, instead of through the linear gray colour space, so a
+ * gray image that is only flipped comes back with the same levels. Indexed
+ * images are read through their palette and written back to the nearest
+ * palette entry.
+ */
+public enum PixelLayout {
+
+    /** Packed ints with alpha, the working layout. */
+    INT_ARGB(BufferedImage.TYPE_INT_ARGB),
+
+    /** Packed ints without alpha. */
+    INT_RGB(BufferedImage.TYPE_INT_RGB),
+
+    /** Three interleaved bytes per pixel, as decoded from most JPEGs. */
+    THREE_BYTE_BGR(BufferedImage.TYPE_3BYTE_BGR),
+
+    /** Four interleaved bytes per pixel with alpha, as decoded from most PNGs with transparency. */
+    FOUR_BYTE_ABGR(BufferedImage.TYPE_4BYTE_ABGR),
+
+    /** One gray level per pixel. */
+    BYTE_GRAY(BufferedImage.TYPE_BYTE_GRAY),
+
+    /** Palette indices of 8 bits or fewer, as decoded from GIFs and palette PNGs. */
+    INDEXED(BufferedImage.TYPE_BYTE_INDEXED),
+
+    /** Anything else. Results are written as TYPE_INT_ARGB or TYPE_INT_RGB, depending on the alpha. */
+    OTHER(BufferedImage.TYPE_CUSTOM);
+
+    // The colours each band of toPalette remembers the nearest entry for.
+    private static final int NEAREST_MEMO_BITS = 12;
+    private static final int NEAREST_MEMO_SIZE = 1 << NEAREST_MEMO_BITS;
+
+    private final int imageType;
+
+    PixelLayout(int imageType) {
+        this.imageType = imageType;
+    }
+
+    /**
+     * Detects the layout of an image.
+     *
+     * @param image The image.
+     * @return The layout.
+     */
+    public static PixelLayout of(BufferedImage image) {
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_ARGB:
+                return INT_ARGB;
+            case BufferedImage.TYPE_INT_RGB:
+                return INT_RGB;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return THREE_BYTE_BGR;
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return FOUR_BYTE_ABGR;
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return BYTE_GRAY;
+            case BufferedImage.TYPE_BYTE_INDEXED:
+            case BufferedImage.TYPE_BYTE_BINARY:
+                return INDEXED;
+            default:
+                return OTHER;
+        }
+    }
+
+    /**
+     * Returns the BufferedImage type {@link #write} produces for a source image.
+     *
+     * A gray source gives TYPE_INT_RGB instead if the result is no longer gray.
+     *
+     * @param source The image the pixels came from.
+     * @return The BufferedImage type.
+     */
+    public static int outputType(BufferedImage source) {
+        PixelLayout layout = of(source);
+        if (layout == OTHER) {
+            return source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+        return layout == INDEXED ? source.getType() : layout.imageType;
+    }
+
+    /**
+     * Reads every pixel of an image into the working layout.
+     *
+     * @param image The image to read.
+     * @return A new array of width * height pixels, packed as 0xAARRGGBB.
+     */
+    public static int[] read(BufferedImage image) {
+        return read(image, new int[image.getWidth() * image.getHeight()]);
+    }
+
+    /**
+     * Reads every pixel of an image into an array borrowed from a pool.
+     *
+     * @param image The image to read.
+     * @param pool  The pool to borrow from. Release the array when done with it.
+     * @return An array of width * height pixels, packed as 0xAARRGGBB.
+     */
+    public static int[] read(BufferedImage image, RasterPool pool) {
+        return read(image, pool.ints(image.getWidth() * image.getHeight()));
+    }
+
+    private static int[] read(BufferedImage image, int[] pixels) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        switch (of(image)) {
+            case BYTE_GRAY: {
+                byte[] gray = Grayscale.isPackedGray(image) ? Grayscale.readGray(image) : null;
+                int[] levels = gray == null ? image.getRaster().getSamples(0, 0, width, height, 0, (int[]) null) : null;
+                TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+                    for (int i = startRow * width; i < endRow * width; i++) {
+                        int level = gray != null ? gray[i] & 0xFF : levels[i];
+                        pixels[i] = 0xFF000000 | (level * 0x010101);
+                    }
+                });
+                return pixels;
+            }
+            case INDEXED: {
+                IndexColorModel palette = (IndexColorModel) image.getColorModel();
+                int[] colors = new int[palette.getMapSize()];
+                palette.getRGBs(colors);
+                image.getRaster().getSamples(0, 0, width, height, 0, pixels);
+                TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+                    for (int i = startRow * width; i < endRow * width; i++) {
+                        pixels[i] = colors[pixels[i]];
+                    }
+                });
+                return pixels;
+            }
+            default:
+                return RasterAccess.readPixels(image, pixels);
+        }
+    }
+
+    /**
+     * Creates an image in the layout of a source image from pixels in the working layout.
+     *
+     * For the packed int layouts the array is wrapped without copying, so the
+     * caller must not modify it afterwards.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param source The image whose layout to use. Its size does not matter.
+     * @return A new BufferedImage showing the pixels.
+     */
+    public static BufferedImage write(int[] pixels, int width, int height, BufferedImage source) {
+        switch (of(source)) {
+            case BYTE_GRAY:
+                return isGray(pixels, width, height)
+                        ? Grayscale.createImage(blueLevels(pixels, width, height), width, height)
+                        : RasterAccess.createImage(pixels, width, height, BufferedImage.TYPE_INT_RGB);
+            case INDEXED:
+                return toPalette(pixels, width, height, (IndexColorModel) source.getColorModel());
+            default:
+                return RasterAccess.createImage(pixels, width, height, outputType(source));
+        }
+    }
+
+    /**
+     * Creates an image like {@link #write(int[], int, int, BufferedImage)}, then
+     * gives the pixels back to a pool unless the image wraps them.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param source The image whose layout to use.
+     * @param pool   The pool the pixels were borrowed from.
+     * @return A new BufferedImage showing the pixels.
+     */
+    public static BufferedImage write(int[] pixels, int width, int height, BufferedImage source, RasterPool pool) {
+        BufferedImage image = write(pixels, width, height, source);
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            pool.release(pixels);
+        }
+        return image;
+    }
+
+    // Returns true if every pixel has equal red, green and blue components.
+    private static boolean isGray(int[] pixels, int width, int height) {
+        boolean[] color = new boolean[1];
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            for (int i = startRow * width; i < endRow * width && !color[0]; i++) {
+                int pixel = pixels[i];
+                int blue = pixel & 0xFF;
+                if (((pixel >> 8) & 0xFF) != blue || ((pixel >> 16) & 0xFF) != blue) {
+                    // A benign race: every band only ever sets the flag.
+                    color[0] = true;
+                }
+            }
+        });
+        return !color[0];
+    }
+
+    private static byte[] blueLevels(int[] pixels, int width, int height) {
+        byte[] gray = new byte[pixels.length];
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            for (int i = startRow * width; i < endRow * width; i++) {
+                gray[i] = (byte) pixels[i];
+            }
+        });
+        return gray;
+    }
+
+    // Maps every pixel to the palette entry nearest to it. Each band remembers recent answers in a small
+    // direct-mapped table keyed by colour, so runs and repeats of a colour cost one lookup.
+    private static BufferedImage toPalette(int[] pixels, int width, int height, IndexColorModel palette) {
+        int[] colors = new int[palette.getMapSize()];
+        palette.getRGBs(colors);
+        int[] indices = new int[pixels.length];
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            int[] memoColors = new int[NEAREST_MEMO_SIZE];
+            int[] memoIndices = new int[NEAREST_MEMO_SIZE];
+            Arrays.fill(memoIndices, -1);
+            for (int i = startRow * width; i < endRow * width; i++) {
+                int pixel = pixels[i];
+                int slot = (pixel * 0x9E3779B9) >>> (32 - NEAREST_MEMO_BITS);
+                if (memoIndices[slot] < 0 || memoColors[slot] != pixel) {
+                    memoColors[slot] = pixel;
+                    memoIndices[slot] = nearestIndex(colors, pixel);
+                }
+                indices[i] = memoIndices[slot];
+            }
+        });
+        WritableRaster raster = palette.createCompatibleWritableRaster(width, height);
+        raster.setSamples(0, 0, width, height, 0, indices);
+        return new BufferedImage(palette, raster, false, null);
+    }
+
+    private static int nearestIndex(int[] colors, int pixel) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            long distance = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((colors[i] >>> shift) & 0xFF) - ((pixel >>> shift) & 0xFF);
+                distance += difference * difference;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
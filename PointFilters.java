@@ -0,0 +1,75 @@
+/**
+ * Chooses the {@link PointKernels} used by the point filters.
+ *
+ * A SIMD implementation built on the incubating {@code jdk.incubator.vector}
+ * module lives in {@code vector/VectorPointKernels.java}. It is compiled and
+ * run only when that module is added (see the README); if the class or the
+ * module is missing this falls back to {@link ScalarPointKernels}. Setting the
+ * {@code imageeditor.vector} system property to {@code false} forces the
+ * scalar code.
+ */
+public final class PointFilters {
+
+    private static final PointKernels SCALAR = new ScalarPointKernels();
+    private static final PointKernels VECTOR = loadVectorKernels();
+
+    private static volatile boolean vectorEnabled =
+            Boolean.parseBoolean(System.getProperty("imageeditor.vector", "true"));
+
+    private PointFilters() {
+    }
+
+    /**
+     * Returns the kernels the filters should use right now.
+     *
+     * @return The vector kernels if they are available and enabled, otherwise the scalar ones.
+     */
+    public static PointKernels kernels() {
+        return vectorEnabled && VECTOR != null ? VECTOR : SCALAR;
+    }
+
+    /**
+     * Returns the portable kernels.
+     *
+     * @return The scalar kernels.
+     */
+    public static PointKernels scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * Returns the SIMD kernels.
+     *
+     * @return The vector kernels, or null if the Vector API is not available.
+     */
+    public static PointKernels vector() {
+        return VECTOR;
+    }
+
+    /**
+     * Turns the vector kernels on or off. They stay off if they are not available.
+     *
+     * @param enabled Whether {@link #kernels()} may return the vector kernels.
+     */
+    public static void setVectorEnabled(boolean enabled) {
+        vectorEnabled = enabled;
+    }
+
+    /**
+     * Describes the kernels in use, for logs and benchmark output.
+     *
+     * @return The kernel class and, for the vector kernels, the lane count.
+     */
+    public static String describe() {
+        return kernels().toString();
+    }
+
+    private static PointKernels loadVectorKernels() {
+        try {
+            return (PointKernels) Class.forName("VectorPointKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            // The class was not compiled, or jdk.incubator.vector was not added to the module graph.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Per-pixel arithmetic for the point filters over packed ARGB int rasters.
+ *
+ * Every method processes the indices {@code [start, end)} in place and keeps
+ * the alpha of every pixel. Implementations must give identical results; they only
+ * differ in how many pixels they handle per instruction.
+ */
+public interface PointKernels {
+
+    /**
+     * Inverts the red, green and blue components.
+     *
+     * @param pixels The pixels to change.
+     * @param start  The first index to process.
+     * @param end    The index after the last one to process.
+     */
+    void negative(int[] pixels, int start, int end);
+
+    /**
+     * Adds {@code increase * c / 100} to every component {@code c}, clamped to [0, 255].
+     *
+     * @param pixels   The pixels to change.
+     * @param increase The percentage increase in brightness.
+     * @param start    The first index to process.
+     * @param end      The index after the last one to process.
+     */
+    void brightness(int[] pixels, int increase, int start, int end);
+
+    /**
+     * Rounds every component down to the start of its level, as {@link ColorMath#posterTable} does.
+     *
+     * @param pixels    The pixels to change.
+     * @param numLevels The number of levels per component, between 1 and 256.
+     * @param start     The first index to process.
+     * @param end       The index after the last one to process.
+     */
+    void poster(int[] pixels, int numLevels, int start, int end);
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Maps every pixel of a raster to a {@link Palette}, optionally dithering.
+ *
+ * Without dithering each pixel takes its nearest palette colour, which bands
+ * smooth gradients. {@link Dither#ORDERED} adds a threshold from an 8x8
+ * Bayer matrix before the lookup, so neighbouring pixels round different
+ * ways; every pixel is independent, so it runs in parallel bands.
+ * {@link Dither#FLOYD_STEINBERG} pushes the rounding error of each pixel
+ * onto its unprocessed neighbours, which looks best but makes every pixel
+ * depend on the one before it and on three in the row above.
+ *
+ * Error diffusion still runs in parallel, as a wavefront: workers take rows
+ * in order, and a row only processes a pixel once the row above has passed
+ * the pixel up and to the right of it. With several workers the rows run
+ * diagonally staggered at the same speed. The errors arrive in the same
+ * order as in a single pass, so the result is the same for any parallelism.
+ *
+ * Alpha is never quantised; every pixel keeps its own.
+ */
+public final class Quantizer {
+
+    /**
+     * How rounding to the palette is spread out.
+     */
+    public enum Dither {
+
+        /** Every pixel takes its nearest colour. */
+        NONE,
+
+        /** An 8x8 Bayer threshold matrix. */
+        ORDERED,
+
+        /** Floyd-Steinberg error diffusion. */
+        FLOYD_STEINBERG
+    }
+
+    // The pixels a row processes between checks of the row above it.
+    private static final int WAVEFRONT_CHUNK = 64;
+
+    // The 8x8 Bayer matrix, thresholds 0 to 63 by (y % 8) * 8 + x % 8.
+    private static final int[] BAYER = bayer();
+
+    private Quantizer() {
+    }
+
+    /**
+     * Quantises a packed raster.
+     *
+     * @param src     The source pixels, packed as 0xAARRGGBB in row-major order.
+     * @param dst     The destination pixels. May be the same array as {@code src}.
+     * @param width   The width of the raster.
+     * @param height  The height of the raster.
+     * @param palette The colours to map to.
+     * @param dither  How to spread the rounding.
+     */
+    public static void quantize(int[] src, int[] dst, int width, int height, Palette palette, Dither dither) {
+        switch (dither) {
+            case ORDERED:
+                ordered(src, dst, width, height, palette);
+                break;
+            case FLOYD_STEINBERG:
+                floydSteinberg(src, dst, width, height, palette);
+                break;
+            default:
+                TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+                    for (int i = startRow * width; i < endRow * width; i++) {
+                        dst[i] = (src[i] & 0xFF000000) | (palette.color(palette.index(src[i])) & 0x00FFFFFF);
+                    }
+                });
+                break;
+        }
+    }
+
+    private static void ordered(int[] src, int[] dst, int width, int height, Palette palette) {
+        // Spread the thresholds over the typical distance between palette colours along one axis.
+        int spread = (int) Math.round(256 / Math.cbrt(palette.size()));
+        int[] offsets = new int[BAYER.length];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (2 * BAYER[i] + 1) * spread / (2 * BAYER.length) - spread / 2;
+        }
+        TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+            for (int y = startRow; y < endRow; y++) {
+                int row = (y & 7) << 3;
+                for (int x = 0, i = y * width; x < width; x++, i++) {
+                    int pixel = src[i];
+                    int offset = offsets[row | (x & 7)];
+                    int index = palette.index(ColorMath.clamp(ColorMath.red(pixel) + offset),
+                            ColorMath.clamp(ColorMath.green(pixel) + offset), ColorMath.clamp(ColorMath.blue(pixel) + offset));
+                    dst[i] = (pixel & 0xFF000000) | (palette.color(index) & 0x00FFFFFF);
+                }
+            }
+        });
+    }
+
+    private static void floydSteinberg(int[] src, int[] dst, int width, int height, Palette palette) {
+        int workers = (long) width * height <= TileExecutor.MIN_BAND_PIXELS ? 1 : TileExecutor.getParallelism();
+
+        // The errors each row receives from the row above, in sixteenths, three per pixel with one pixel of
+        // padding at each end. When a worker claims row y, every row up to y - workers is finished, so
+        // workers + 1 buffers in a ring are never read and written by rows that are more than one apart.
+        int[][] errors = new int[workers + 1][3 * (width + 2)];
+        AtomicIntegerArray progress = new AtomicIntegerArray(height);
+        AtomicInteger nextRow = new AtomicInteger();
+
+        TileExecutor.forEachWorker(workers, () -> {
+            int y;
+            while ((y = nextRow.getAndIncrement()) < height) {
+                int[] above = errors[y % errors.length];
+                int[] below = errors[(y + 1) % errors.length];
+                Arrays.fill(below, 0);
+                int carryRed = 0;
+                int carryGreen = 0;
+                int carryBlue = 0;
+                for (int start = 0; start < width; start += WAVEFRONT_CHUNK) {
+                    int end = Math.min(width, start + WAVEFRONT_CHUNK);
+                    if (y > 0) {
+                        // The row above writes to this row up to one pixel right of its own position.
+                        awaitProgress(progress, y - 1, Math.min(width, end + 1));
+                    }
+                    for (int x = start, i = y * width + start; x < end; x++, i++) {
+                        int pixel = src[i];
+                        int e = 3 * (x + 1);
+                        int red = ColorMath.clamp(ColorMath.red(pixel) + ((above[e] + carryRed + 8) >> 4));
+                        int green = ColorMath.clamp(ColorMath.green(pixel) + ((above[e + 1] + carryGreen + 8) >> 4));
+                        int blue = ColorMath.clamp(ColorMath.blue(pixel) + ((above[e + 2] + carryBlue + 8) >> 4));
+                        int color = palette.color(palette.index(red, green, blue));
+                        dst[i] = (pixel & 0xFF000000) | (color & 0x00FFFFFF);
+
+                        // Spread the error 7/16 right, then 3/16, 5/16 and 1/16 below left, below and below right.
+                        int errorRed = red - ColorMath.red(color);
+                        int errorGreen = green - ColorMath.green(color);
+                        int errorBlue = blue - ColorMath.blue(color);
+                        carryRed = 7 * errorRed;
+                        carryGreen = 7 * errorGreen;
+                        carryBlue = 7 * errorBlue;
+                        below[e - 3] += 3 * errorRed;
+                        below[e - 2] += 3 * errorGreen;
+                        below[e - 1] += 3 * errorBlue;
+                        below[e] += 5 * errorRed;
+                        below[e + 1] += 5 * errorGreen;
+                        below[e + 2] += 5 * errorBlue;
+                        below[e + 3] += errorRed;
+                        below[e + 4] += errorGreen;
+                        below[e + 5] += errorBlue;
+                    }
+                    // Publishes the errors written so far to the row below.
+                    progress.set(y, end);
+                }
+            }
+        });
+    }
+
+    // Waits until a row has processed at least the given number of pixels.
+    private static void awaitProgress(AtomicIntegerArray progress, int row, int pixels) {
+        int spins = 0;
+        while (progress.get(row) < pixels) {
+            if (++spins % 64 == 0) {
+                // Let the row above run if the workers outnumber the free cores.
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // Builds the Bayer matrix by repeatedly tiling the 2x2 matrix.
+    private static int[] bayer() {
+        int[] matrix = {0};
+        for (int size = 1; size < 8; size *= 2) {
+            int[] next = new int[4 * size * size];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int value = 4 * matrix[y * size + x];
+                    next[y * 2 * size + x] = value;
+                    next[y * 2 * size + x + size] = value + 2;
+                    next[(y + size) * 2 * size + x] = value + 3;
+                    next[(y + size) * 2 * size + x + size] = value + 1;
+                }
+            }
+            matrix = next;
+        }
+        return matrix;
+    }
+}
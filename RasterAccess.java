@@ -0,0 +1,191 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Bulk pixel access for BufferedImages.
+ *
+ * Pixels are exchanged as packed 0xAARRGGBB ints in row-major order, the same
+ * values {@link BufferedImage#getRGB(int, int)} returns. The common image types
+ * are read and written straight from their backing {@link DataBuffer} instead of
+ * going through the ColorModel once per pixel.
+ */
+public final class RasterAccess {
+
+    private static final int ALPHA = 0xFF000000;
+    private static final int RED = 0x00FF0000;
+    private static final int GREEN = 0x0000FF00;
+    private static final int BLUE = 0x000000FF;
+
+    private RasterAccess() {
+    }
+
+    /**
+     * Reads every pixel of an image into a packed ARGB array.
+     *
+     * @param image The image to read.
+     * @return A new array of width * height pixels, packed as 0xAARRGGBB.
+     */
+    public static int[] readPixels(BufferedImage image) {
+        return readPixels(image, new int[image.getWidth() * image.getHeight()]);
+    }
+
+    /**
+     * Reads every pixel of an image into an existing array.
+     *
+     * @param image  The image to read.
+     * @param pixels The array to fill, exactly width * height long.
+     * @return {@code pixels}, packed as 0xAARRGGBB.
+     */
+    public static int[] readPixels(BufferedImage image, int[] pixels) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        WritableRaster raster = image.getRaster();
+
+        // Only rasters that start at the beginning of a single, tightly packed bank take the fast path.
+        if (!isPacked(raster, width)) {
+            return image.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB: {
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = 0xFF000000 | data[i];
+                }
+                return pixels;
+            }
+            case BufferedImage.TYPE_INT_ARGB: {
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                System.arraycopy(data, 0, pixels, 0, pixels.length);
+                return pixels;
+            }
+            case BufferedImage.TYPE_INT_BGR: {
+                int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                for (int i = 0; i < pixels.length; i++) {
+                    int pixel = data[i];
+                    pixels[i] = 0xFF000000 | ((pixel & 0xFF) << 16) | (pixel & 0xFF00) | ((pixel >> 16) & 0xFF);
+                }
+                return pixels;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                for (int i = 0, k = 0; i < pixels.length; i++, k += 3) {
+                    pixels[i] = 0xFF000000
+                            | ((data[k + 2] & 0xFF) << 16)
+                            | ((data[k + 1] & 0xFF) << 8)
+                            | (data[k] & 0xFF);
+                }
+                return pixels;
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                for (int i = 0, k = 0; i < pixels.length; i++, k += 4) {
+                    pixels[i] = ((data[k] & 0xFF) << 24)
+                            | ((data[k + 3] & 0xFF) << 16)
+                            | ((data[k + 2] & 0xFF) << 8)
+                            | (data[k + 1] & 0xFF);
+                }
+                return pixels;
+            }
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                // Gray levels go through the colour space, so resolve all 256 of them once.
+                int[] table = grayToRgbTable(image.getColorModel());
+                byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = table[data[i] & 0xFF];
+                }
+                return pixels;
+            }
+            default:
+                return image.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+    }
+
+    /**
+     * Creates an image of the given type holding the given pixels.
+     *
+     * For the packed int types the array is wrapped without copying, so the
+     * caller must not modify it afterwards.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param type   The BufferedImage type of the new image.
+     * @return A new BufferedImage showing the pixels.
+     */
+    public static BufferedImage createImage(int[] pixels, int width, int height, int type) {
+        switch (type) {
+            case BufferedImage.TYPE_INT_RGB:
+                return wrap(pixels, width, height, new DirectColorModel(24, RED, GREEN, BLUE),
+                        new int[] {RED, GREEN, BLUE});
+            case BufferedImage.TYPE_INT_ARGB:
+                return wrap(pixels, width, height, new DirectColorModel(32, RED, GREEN, BLUE, ALPHA),
+                        new int[] {RED, GREEN, BLUE, ALPHA});
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                BufferedImage image = new BufferedImage(width, height, type);
+                byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                for (int i = 0, k = 0; i < pixels.length; i++, k += 3) {
+                    int pixel = pixels[i];
+                    data[k] = (byte) pixel;
+                    data[k + 1] = (byte) (pixel >> 8);
+                    data[k + 2] = (byte) (pixel >> 16);
+                }
+                return image;
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                BufferedImage image = new BufferedImage(width, height, type);
+                byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+                for (int i = 0, k = 0; i < pixels.length; i++, k += 4) {
+                    int pixel = pixels[i];
+                    data[k] = (byte) (pixel >>> 24);
+                    data[k + 1] = (byte) pixel;
+                    data[k + 2] = (byte) (pixel >> 8);
+                    data[k + 3] = (byte) (pixel >> 16);
+                }
+                return image;
+            }
+            default: {
+                BufferedImage image = new BufferedImage(width, height, type);
+                image.setRGB(0, 0, width, height, pixels, 0, width);
+                return image;
+            }
+        }
+    }
+
+    // Wraps a packed int array in an image without copying it.
+    private static BufferedImage wrap(int[] pixels, int width, int height, ColorModel colorModel, int[] masks) {
+        DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, masks, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    // Returns true if the raster's pixels fill a single bank from index 0 without padding.
+    private static boolean isPacked(WritableRaster raster, int width) {
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+            return false;
+        }
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0) {
+            return false;
+        }
+        int elementsPerPixel = buffer.getDataType() == DataBuffer.TYPE_INT ? 1 : raster.getNumDataElements();
+        return buffer.getSize() == width * raster.getHeight() * elementsPerPixel;
+    }
+
+    // Maps each 8-bit gray level to the sRGB value getRGB would report for it.
+    private static int[] grayToRgbTable(ColorModel colorModel) {
+        int[] table = new int[256];
+        byte[] element = new byte[1];
+        for (int level = 0; level < 256; level++) {
+            element[0] = (byte) level;
+            table[level] = colorModel.getRGB(element);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,168 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * An on-disk cache of decoded images.
+ *
+ * The first time an image is opened it is decoded with ImageIO and its pixels
+ * are stored as a {@link RawRasterFormat} file under the cache directory.
+ * Later opens of the same file map that file instead of decoding again.
+ * Entries are keyed by the source's absolute path, modification time and
+ * size, so editing the source invalidates its entry. When the cache grows
+ * past its byte limit the least recently opened entries are deleted.
+ */
+public final class RasterCache {
+
+    private static final String SUFFIX = "." + RawRasterFormat.FORMAT_NAME;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * Creates a cache in a directory.
+     *
+     * @param directory The directory holding the raw files. It is created if needed.
+     * @param maxBytes  The total size the cached files may take on disk.
+     * @throws IOException if the directory cannot be created.
+     */
+    public RasterCache(Path directory, long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens an image through the cache, decoding it only if it is not cached yet.
+     *
+     * @param source The image file.
+     * @return The decoded pixels, mapped from the cache file.
+     * @throws IOException if the image cannot be decoded or the cache cannot be written.
+     */
+    public MappedRaster open(Path source) throws IOException {
+        Path entry = directory.resolve(key(source) + SUFFIX);
+        MappedRaster cached = RawRasterFormat.tryMap(entry);
+        if (cached != null) {
+            // Opening counts as a use for the least-recently-used eviction.
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return cached;
+        }
+
+        BufferedImage image = ImageIO.read(source.toFile());
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + source);
+        }
+        if (RawRasterFormat.fileSize(image.getWidth(), image.getHeight()) > Integer.MAX_VALUE) {
+            throw new IOException("Image too large to map in one piece: " + source);
+        }
+        write(entry, PixelLayout.read(image), image);
+        evict(entry);
+        MappedRaster raster = RawRasterFormat.tryMap(entry);
+        if (raster == null) {
+            throw new IOException("Could not map cache entry " + entry);
+        }
+        return raster;
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     *
+     * @return The number of bytes on disk.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public long sizeOnDisk() throws IOException {
+        long total = 0;
+        for (Path file : entries()) {
+            total += sizeOf(file);
+        }
+        return total;
+    }
+
+    // Writes an entry to a temporary file and moves it into place, so readers never see half a file.
+    private void write(Path entry, int[] pixels, BufferedImage source) throws IOException {
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            RawRasterFormat.write(pixels, source.getWidth(), source.getHeight(), source, temp);
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Deletes the least recently used entries until the cache fits, never deleting keep.
+    private void evict(Path keep) throws IOException {
+        List<Path> files = entries();
+        long total = 0;
+        for (Path file : files) {
+            total += sizeOf(file);
+        }
+        files.sort((a, b) -> Long.compare(lastUsed(a), lastUsed(b)));
+        for (Path file : files) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!file.equals(keep)) {
+                total -= sizeOf(file);
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastUsed(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Hashes the source's identity: path, modification time and size.
+    private static String key(Path source) throws IOException {
+        Path absolute = source.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(absolute, BasicFileAttributes.class);
+        String identity = absolute + "|" + attributes.lastModifiedTime().toMillis() + "|" + attributes.size();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of raster-sized arrays that filters borrow instead of allocating.
+ *
+ * A 12 MP image needs 48 MB per packed raster, and the JVM allocates arrays
+ * that large straight into the old generation, so a filter that allocates its
+ * destination and scratch buffers on every call fills the heap with garbage
+ * that only a full collection reclaims. Filters take their buffers with
+ * {@link #ints}, {@link #bytes} or {@link #floats} and give them back with
+ * {@code release} when they are done. A {@link Pipeline} keeps only two
+ * buffers for a chain of neighbourhood operations: each stage writes into
+ * the one the stage before it read from.
+ *
+ * Buffers are keyed by element type and length, so a borrowed array always has
+ * exactly the requested length. Its contents are whatever the last user left
+ * there. A buffer must not be touched after it is released, and a buffer that
+ * ends up inside a returned image is simply never released.
+ *
+ * The pool holds at most {@link #maxBytes()} of free buffers. When a release
+ * does not fit, the buffers released longest ago are dropped to make room,
+ * whichever sizes they have; a buffer
+ * larger than the whole cap is left to the garbage collector. The cap of the
+ * shared pool is {@value #DEFAULT_MAX_MEGABYTES} MB, or the
+ * {@code imageeditor.pool.mb} system property; 0 turns pooling off.
+ */
+public final class RasterPool {
+
+    /** The cap of the shared pool, in megabytes, unless {@code imageeditor.pool.mb} is set. */
+    public static final long DEFAULT_MAX_MEGABYTES = 256;
+
+    private static final int INTS = 0;
+    private static final int BYTES = 1;
+    private static final int FLOATS = 2;
+
+    private static final RasterPool SHARED =
+            new RasterPool(Long.getLong("imageeditor.pool.mb", DEFAULT_MAX_MEGABYTES) << 20);
+
+    // Free buffers by element type and length. New buffers go in at the head and are
+    // borrowed from there. The recency set holds the same buffers across every size,
+    // oldest release first, and decides what is evicted. Both are guarded by this pool.
+    private final Map<Long, ArrayDeque<Entry>> free = new HashMap<>();
+    private final Set<Entry> recency = new LinkedHashSet<>();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private volatile long maxBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxBytes The total bytes the free buffers may hold. 0 disables pooling.
+     */
+    public RasterPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the pool the filters use.
+     *
+     * @return The process-wide pool.
+     */
+    public static RasterPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrows an int array, such as a packed ARGB raster.
+     *
+     * @param length The length of the array.
+     * @return An array of exactly {@code length} elements with undefined contents.
+     */
+    public int[] ints(int length) {
+        Object buffer = take(INTS, length);
+        return buffer != null ? (int[]) buffer : new int[length];
+    }
+
+    /**
+     * Borrows a byte array, such as a gray raster.
+     *
+     * @param length The length of the array.
+     * @return An array of exactly {@code length} elements with undefined contents.
+     */
+    public byte[] bytes(int length) {
+        Object buffer = take(BYTES, length);
+        return buffer != null ? (byte[]) buffer : new byte[length];
+    }
+
+    /**
+     * Borrows a float array, such as one colour plane.
+     *
+     * @param length The length of the array.
+     * @return An array of exactly {@code length} elements with undefined contents.
+     */
+    public float[] floats(int length) {
+        Object buffer = take(FLOATS, length);
+        return buffer != null ? (float[]) buffer : new float[length];
+    }
+
+    /**
+     * Gives an int array back to the pool.
+     *
+     * @param buffer The array. The caller must not use it afterwards.
+     */
+    public void release(int[] buffer) {
+        give(INTS, buffer.length, 4L * buffer.length, buffer);
+    }
+
+    /**
+     * Gives a byte array back to the pool.
+     *
+     * @param buffer The array. The caller must not use it afterwards.
+     */
+    public void release(byte[] buffer) {
+        give(BYTES, buffer.length, buffer.length, buffer);
+    }
+
+    /**
+     * Gives a float array back to the pool.
+     *
+     * @param buffer The array. The caller must not use it afterwards.
+     */
+    public void release(float[] buffer) {
+        give(FLOATS, buffer.length, 4L * buffer.length, buffer);
+    }
+
+    /**
+     * Changes the cap, dropping free buffers that no longer fit.
+     *
+     * @param maxBytes The total bytes the free buffers may hold. 0 disables pooling.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictUntil(maxBytes);
+    }
+
+    /**
+     * Returns the cap.
+     *
+     * @return The total bytes the free buffers may hold.
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the size of the free buffers the pool holds now.
+     *
+     * @return The bytes held.
+     */
+    public long pooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Returns how many borrows were served from the pool.
+     *
+     * @return The number of hits.
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns how many borrows had to allocate a new array.
+     *
+     * @return The number of misses.
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns how many free buffers were dropped to stay under the cap.
+     *
+     * @return The number of evictions.
+     */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Drops every free buffer. The counters are kept.
+     */
+    public void clear() {
+        evictUntil(0);
+    }
+
+    @Override
+    public String toString() {
+        return "RasterPool(" + pooledBytes() + " of " + maxBytes + " B, hits=" + hits() + ", misses=" + misses()
+                + ", evictions=" + evictions() + ")";
+    }
+
+    private synchronized Object take(int type, int length) {
+        ArrayDeque<Entry> buffers = free.get(key(type, length));
+        Entry entry = (buffers != null) ? buffers.pollFirst() : null;
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        recency.remove(entry);
+        pooledBytes.addAndGet(-entry.size);
+        hits.incrementAndGet();
+        return entry.buffer;
+    }
+
+    private synchronized void give(int type, int length, long size, Object buffer) {
+        if (size > maxBytes) {
+            return;
+        }
+        evictUntil(maxBytes - size);
+        Entry entry = new Entry(key(type, length), size, buffer);
+        free.computeIfAbsent(entry.key, k -> new ArrayDeque<>()).addFirst(entry);
+        recency.add(entry);
+        pooledBytes.addAndGet(size);
+    }
+
+    // Drops the least recently released buffers, whatever their size, until at most limit bytes are held.
+    private synchronized void evictUntil(long limit) {
+        Iterator<Entry> oldest = recency.iterator();
+        while (pooledBytes.get() > limit && oldest.hasNext()) {
+            Entry entry = oldest.next();
+            oldest.remove();
+            // Every size class is ordered the same way, so the oldest buffer overall is the oldest of its class.
+            free.get(entry.key).pollLast();
+            pooledBytes.addAndGet(-entry.size);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long key(int type, int length) {
+        return ((long) type << 32) | length;
+    }
+
+    // A free buffer. Entries compare by identity, so the recency set finds each one directly.
+    private static final class Entry {
+
+        final long key;
+        final long size;
+        final Object buffer;
+
+        Entry(long key, long size, Object buffer) {
+            this.key = key;
+            this.size = size;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The uncompressed raster file format used for cached and intermediate images.
+ *
+ * A file is a 16-byte header (the magic number, the width, the height and the
+ * BufferedImage type of the source) followed by the packed 0xAARRGGBB pixels
+ * in row-major order, all as ints in the native byte order. Indexed images
+ * add their bits per pixel, palette size and palette colours after the
+ * pixels. The type and palette let a mapped raster be written back in the
+ * layout it was read from (see {@link PixelLayout}); files whose type is 0,
+ * from before the type was recorded, count as TYPE_INT_ARGB. Gray levels are
+ * stored as they are, with equal red, green and blue. Writing costs one memory copy and
+ * reading is a memory mapping, so the format suits results that are read back
+ * on the same machine, such as {@link RasterCache} entries or pipeline stages
+ * handed between processes. It is not meant for exchange between machines.
+ */
+public final class RawRasterFormat {
+
+    /** The format name accepted by {@link ImageEncoder}. */
+    public static final String FORMAT_NAME = "raster";
+
+    private static final int MAGIC = 0x49455243; // "IERC"
+    private static final int HEADER_BYTES = 16;
+    private static final int CHUNK_PIXELS = 64 * 1024;
+
+    private RawRasterFormat() {
+    }
+
+    /**
+     * Writes pixels to a file through a memory mapping.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order, as {@link PixelLayout#read} returns them.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param source The image the pixels were read from, whose layout is recorded. Its size does not matter.
+     * @param file   The file to create or replace.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(int[] pixels, int width, int height, BufferedImage source, Path file)
+            throws IOException {
+        int[] palette = palette(source);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + 4L * (pixels.length + palette.length));
+            buffer.order(ByteOrder.nativeOrder());
+            buffer.putInt(MAGIC).putInt(width).putInt(height).putInt(PixelLayout.outputType(source));
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.put(pixels).put(palette);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Writes pixels to a stream in chunks.
+     *
+     * @param pixels The pixels, packed as 0xAARRGGBB in row-major order, as {@link PixelLayout#read} returns them.
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @param source The image the pixels were read from, whose layout is recorded. Its size does not matter.
+     * @param out    The stream to write to. It is not closed.
+     * @throws IOException if the stream cannot be written.
+     */
+    public static void write(int[] pixels, int width, int height, BufferedImage source, OutputStream out)
+            throws IOException {
+        WritableByteChannel channel = Channels.newChannel(out);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * CHUNK_PIXELS).order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC).putInt(width).putInt(height).putInt(PixelLayout.outputType(source)).flip();
+        writeFully(channel, buffer);
+        int[] palette = palette(source);
+        for (int[] ints : new int[][] {pixels, palette}) {
+            for (int start = 0; start < ints.length; start += CHUNK_PIXELS) {
+                int count = Math.min(CHUNK_PIXELS, ints.length - start);
+                buffer.clear();
+                buffer.asIntBuffer().put(ints, start, count);
+                buffer.limit(4 * count);
+                writeFully(channel, buffer);
+            }
+        }
+    }
+
+    /**
+     * Maps a raster file.
+     *
+     * @param file The file to map.
+     * @return The mapped pixels.
+     * @throws IOException if the file cannot be read or is not a raster file.
+     */
+    public static MappedRaster map(Path file) throws IOException {
+        MappedRaster raster = tryMap(file);
+        if (raster == null) {
+            throw new IOException("Not a raster file: " + file);
+        }
+        return raster;
+    }
+
+    // Maps a raster file, or returns null if it is missing or not a valid raster file.
+    static MappedRaster tryMap(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 8).order(ByteOrder.nativeOrder());
+            channel.read(header, 0);
+            int width = header.getInt(4);
+            int height = header.getInt(8);
+            int type = header.getInt(12);
+            long size = fileSize(width, height);
+            if (header.getInt(0) != MAGIC || width < 1 || height < 1 || size > channel.size()) {
+                return null;
+            }
+
+            int[] palette = new int[0];
+            if (type == BufferedImage.TYPE_BYTE_INDEXED || type == BufferedImage.TYPE_BYTE_BINARY) {
+                // The bits per pixel and palette size, then the palette.
+                ByteBuffer counts = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+                channel.read(counts, size);
+                palette = new int[2 + Math.max(0, Math.min(256, counts.getInt(4)))];
+                palette[0] = counts.getInt(0);
+                palette[1] = palette.length - 2;
+                ByteBuffer colors = ByteBuffer.allocate(4 * palette[1]).order(ByteOrder.nativeOrder());
+                channel.read(colors, size + 8);
+                colors.flip().asIntBuffer().get(palette, 2, palette[1]);
+            }
+            BufferedImage layout = layout(type, palette);
+            if (layout == null || size + 4L * palette.length != channel.size()) {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, size - HEADER_BYTES);
+            IntBuffer pixels = buffer.order(ByteOrder.nativeOrder()).asIntBuffer();
+            return new MappedRaster(pixels, width, height, layout);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the size of a raster file.
+     *
+     * @param width  The width of the raster.
+     * @param height The height of the raster.
+     * @return The number of bytes, header included, and without the palette of indexed images.
+     */
+    public static long fileSize(int width, int height) {
+        return HEADER_BYTES + 4L * width * height;
+    }
+
+    // The bits per pixel, palette size and palette of an indexed image, or nothing for other layouts.
+    private static int[] palette(BufferedImage source) {
+        if (PixelLayout.of(source) != PixelLayout.INDEXED) {
+            return new int[0];
+        }
+        IndexColorModel model = (IndexColorModel) source.getColorModel();
+        int[] palette = new int[2 + model.getMapSize()];
+        palette[0] = model.getPixelSize();
+        palette[1] = model.getMapSize();
+        int[] colors = new int[model.getMapSize()];
+        model.getRGBs(colors);
+        System.arraycopy(colors, 0, palette, 2, colors.length);
+        return palette;
+    }
+
+    // Rebuilds a 1x1 image in the recorded layout, or returns null if the type is not one this format writes.
+    private static BufferedImage layout(int type, int[] palette) {
+        switch (type) {
+            case BufferedImage.TYPE_CUSTOM:
+                return new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return new BufferedImage(1, 1, type);
+            case BufferedImage.TYPE_BYTE_INDEXED:
+            case BufferedImage.TYPE_BYTE_BINARY: {
+                int bits = palette[0];
+                int colors = palette[1];
+                if (bits < 1 || bits > 8 || colors < 1 || colors > 1 << bits) {
+                    return null;
+                }
+                IndexColorModel model = new IndexColorModel(bits, colors,
+                        Arrays.copyOfRange(palette, 2, palette.length), 0, true, -1, DataBuffer.TYPE_BYTE);
+                return new BufferedImage(model, model.createCompatibleWritableRaster(1, 1), false, null);
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
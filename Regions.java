@@ -0,0 +1,117 @@
+import java.awt.Rectangle;
+
+/**
+ * Rectangle arithmetic and copies between a raster and a rectangular part of it.
+ *
+ * Region-of-interest filtering works on a cropped copy of the pixels it needs:
+ * the region itself, widened by the reach of any neighbourhood filter so that
+ * the pixels inside the region come out exactly as a full pass would compute
+ * them. Rectangles are {@link Rectangle}s in image coordinates.
+ */
+public final class Regions {
+
+    private Regions() {
+    }
+
+    /**
+     * Returns the part of a rectangle that lies inside an image.
+     *
+     * @param region The rectangle.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The clipped rectangle, empty if the two do not overlap.
+     */
+    public static Rectangle clip(Rectangle region, int width, int height) {
+        Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+        return clipped.isEmpty() ? new Rectangle() : clipped;
+    }
+
+    /**
+     * Widens a rectangle by a margin on every side, clipped to an image.
+     *
+     * @param region The rectangle.
+     * @param margin The number of pixels to add on each side.
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @return The widened rectangle.
+     */
+    public static Rectangle expand(Rectangle region, int margin, int width, int height) {
+        Rectangle expanded = new Rectangle(region);
+        expanded.grow(margin, margin);
+        return clip(expanded, width, height);
+    }
+
+    /**
+     * Copies a rectangle of a packed raster into a new array.
+     *
+     * @param pixels The raster, in row-major order.
+     * @param width  The width of the raster.
+     * @param region The rectangle to copy. Must lie inside the raster.
+     * @return A new array of region.width * region.height pixels.
+     */
+    public static int[] crop(int[] pixels, int width, Rectangle region) {
+        int[] cropped = new int[region.width * region.height];
+        for (int y = 0; y < region.height; y++) {
+            System.arraycopy(pixels, (region.y + y) * width + region.x, cropped, y * region.width, region.width);
+        }
+        return cropped;
+    }
+
+    /**
+     * Copies a rectangle of a gray raster into a new array, like {@link #crop(int[], int, Rectangle)}.
+     *
+     * @param gray   The gray levels, in row-major order.
+     * @param width  The width of the raster.
+     * @param region The rectangle to copy. Must lie inside the raster.
+     * @return A new array of region.width * region.height gray levels.
+     */
+    public static byte[] crop(byte[] gray, int width, Rectangle region) {
+        byte[] cropped = new byte[region.width * region.height];
+        for (int y = 0; y < region.height; y++) {
+            System.arraycopy(gray, (region.y + y) * width + region.x, cropped, y * region.width, region.width);
+        }
+        return cropped;
+    }
+
+    /**
+     * Copies a rectangle from one raster into another.
+     *
+     * @param src      The source raster.
+     * @param srcWidth The width of the source raster.
+     * @param srcX     The left edge of the rectangle in the source.
+     * @param srcY     The top edge of the rectangle in the source.
+     * @param dst      The destination raster.
+     * @param dstWidth The width of the destination raster.
+     * @param dstX     The left edge of the rectangle in the destination.
+     * @param dstY     The top edge of the rectangle in the destination.
+     * @param width    The width of the rectangle.
+     * @param height   The height of the rectangle.
+     */
+    public static void copy(int[] src, int srcWidth, int srcX, int srcY,
+                            int[] dst, int dstWidth, int dstX, int dstY, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, (srcY + y) * srcWidth + srcX, dst, (dstY + y) * dstWidth + dstX, width);
+        }
+    }
+
+    /**
+     * Copies a rectangle from one gray raster into another, like {@link #copy(int[], int, int, int, int[], int, int, int, int, int)}.
+     *
+     * @param src      The source gray levels.
+     * @param srcWidth The width of the source raster.
+     * @param srcX     The left edge of the rectangle in the source.
+     * @param srcY     The top edge of the rectangle in the source.
+     * @param dst      The destination gray levels.
+     * @param dstWidth The width of the destination raster.
+     * @param dstX     The left edge of the rectangle in the destination.
+     * @param dstY     The top edge of the rectangle in the destination.
+     * @param width    The width of the rectangle.
+     * @param height   The height of the rectangle.
+     */
+    public static void copy(byte[] src, int srcWidth, int srcX, int srcY,
+                            byte[] dst, int dstWidth, int dstX, int dstY, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(src, (srcY + y) * srcWidth + srcX, dst, (dstY + y) * dstWidth + dstX, width);
+        }
+    }
+}
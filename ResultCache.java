@@ -0,0 +1,232 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache of pipeline results.
+ *
+ * Results are keyed by a content hash of the source pixels, the canonical
+ * description of the operation chain (see {@link Pipeline#toString()}) and the
+ * output image type, so the same edit of the same pixels is computed only once
+ * even if the source was loaded from a different file. The cache evicts the
+ * least recently used results once their pixel data exceeds the byte limit.
+ * Concurrent requests for a result that is still being computed wait for that
+ * computation instead of starting their own.
+ *
+ * Returned images are shared between callers and must not be modified.
+ */
+public final class ResultCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, BufferedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Key, CompletableFuture<BufferedImage>> inFlight = new ConcurrentHashMap<>();
+    private long sizeBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes The total pixel bytes the cached results may hold.
+     */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the result of a pipeline in the layout {@link Pipeline#apply()} uses,
+     * computing it only if it is not cached.
+     *
+     * @param pipeline The pipeline to run.
+     * @return The shared result image.
+     */
+    public BufferedImage apply(Pipeline pipeline) {
+        return apply(pipeline, pipeline.outputType());
+    }
+
+    /**
+     * Returns the result of a pipeline, computing it only if it is not cached.
+     *
+     * @param pipeline  The pipeline to run.
+     * @param imageType The BufferedImage type of the result.
+     * @return The shared result image.
+     */
+    public BufferedImage apply(Pipeline pipeline, int imageType) {
+        Key key = new Key(pipeline.sourcePixels(), pipeline.sourceWidth(), pipeline.sourcePalette(),
+                pipeline.toString(), imageType);
+
+        BufferedImage cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<BufferedImage> future = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            // Someone else is already computing this result.
+            hits.incrementAndGet();
+            return join(running);
+        }
+        try {
+            // The computation may have finished between the lookup and claiming the key.
+            BufferedImage result = lookup(key);
+            if (result != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                result = pipeline.apply(imageType);
+                store(key, result);
+            }
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Returns how many requests were served from the cache or from a computation already in progress.
+     *
+     * @return The number of hits.
+     */
+    public long hits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns how many requests had to compute their result.
+     *
+     * @return The number of misses.
+     */
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns how many results were dropped to stay under the byte limit.
+     *
+     * @return The number of evictions.
+     */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the pixel bytes currently held.
+     *
+     * @return The size of the cached results in bytes.
+     */
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCache[hits=" + hits() + ", misses=" + misses() + ", evictions=" + evictions()
+                + ", bytes=" + sizeBytes() + "]";
+    }
+
+    private synchronized BufferedImage lookup(Key key) {
+        return entries.get(key);
+    }
+
+    private synchronized void store(Key key, BufferedImage image) {
+        long bytes = bytesOf(image);
+        if (bytes > maxBytes) {
+            return;
+        }
+        BufferedImage previous = entries.put(key, image);
+        if (previous != null) {
+            sizeBytes -= bytesOf(previous);
+        }
+        sizeBytes += bytes;
+
+        // Drop the least recently used results until the new one fits.
+        Iterator<Map.Entry<Key, BufferedImage>> oldest = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && oldest.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = oldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            sizeBytes -= bytesOf(entry.getValue());
+            oldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long bytesOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static BufferedImage join(CompletableFuture<BufferedImage> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Identifies a result by source content, operation chain and output type. Indexed sources with the same
+    // colours but different palettes give different results, so the palette is part of the key.
+    private static final class Key {
+
+        final long hashHigh;
+        final long hashLow;
+        final int pixelCount;
+        final int width;
+        final int[] palette;
+        final String operations;
+        final int imageType;
+
+        Key(int[] pixels, int width, int[] palette, String operations, int imageType) {
+            // Two independent 64-bit hashes of the pixels make accidental collisions negligible.
+            long high = 0x9E3779B97F4A7C15L;
+            long low = 0xC2B2AE3D27D4EB4FL;
+            for (int pixel : pixels) {
+                high = (high ^ pixel) * 0x100000001B3L;
+                low = Long.rotateLeft(low + pixel * 0xD6E8FEB86659FD93L, 31) * 0x9E3779B97F4A7C15L;
+            }
+            this.hashHigh = high;
+            this.hashLow = low;
+            this.pixelCount = pixels.length;
+            this.width = width;
+            this.palette = palette;
+            this.operations = operations;
+            this.imageType = imageType;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hashHigh == key.hashHigh && hashLow == key.hashLow && pixelCount == key.pixelCount
+                    && width == key.width && Arrays.equals(palette, key.palette)
+                    && imageType == key.imageType && operations.equals(key.operations);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hashHigh, hashLow, Arrays.hashCode(palette), operations, imageType);
+        }
+    }
+}
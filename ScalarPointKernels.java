@@ -0,0 +1,27 @@
+/**
+ * The portable {@link PointKernels}, built on the lookup tables in {@link ColorMath}.
+ */
+public final class ScalarPointKernels implements PointKernels {
+
+    @Override
+    public void negative(int[] pixels, int start, int end) {
+        for (int i = start; i < end; i++) {
+            pixels[i] ^= 0x00FFFFFF;
+        }
+    }
+
+    @Override
+    public void brightness(int[] pixels, int increase, int start, int end) {
+        ColorMath.applyTable(pixels, pixels, ColorMath.brightnessTable(increase), start, end);
+    }
+
+    @Override
+    public void poster(int[] pixels, int numLevels, int start, int end) {
+        ColorMath.applyTable(pixels, pixels, ColorMath.posterTable(numLevels), start, end);
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one named stage, such as {@code decode} or {@code pipeline.blur}.
+ *
+ * Every counter is a {@link LongAdder}, so threads recording at the same time
+ * do not contend. Instances are created and updated by {@link Metrics}.
+ */
+public final class StageMetrics implements StageMetricsMXBean {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+
+    StageMetrics(String name) {
+        this.name = name;
+    }
+
+    void record(long elapsedNanos, long pixelCount, long allocated) {
+        count.increment();
+        nanos.add(elapsedNanos);
+        maxNanos.accumulateAndGet(elapsedNanos, Math::max);
+        pixels.add(pixelCount);
+        allocatedBytes.add(allocated);
+    }
+
+    void reset() {
+        count.reset();
+        nanos.reset();
+        maxNanos.set(0);
+        pixels.reset();
+        allocatedBytes.reset();
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return The stage name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return nanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long runs = count.sum();
+        return runs == 0 ? 0 : nanos.sum() / 1e6 / runs;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    String toJson() {
+        return String.format(Locale.ROOT,
+                "{\"count\": %d, \"totalMs\": %.3f, \"meanMs\": %.3f, \"maxMs\": %.3f, \"pixels\": %d, "
+                        + "\"allocatedBytes\": %d}",
+                getCount(), getTotalMillis(), getMeanMillis(), getMaxMillis(), getPixels(), getAllocatedBytes());
+    }
+
+    @Override
+    public String toString() {
+        double seconds = nanos.sum() / 1e9;
+        return String.format(Locale.ROOT, "%-24s %8d runs %12.1f ms total %9.2f ms mean %9.2f ms max %9.1f MP/s %14d B",
+                name, getCount(), getTotalMillis(), getMeanMillis(), getMaxMillis(),
+                seconds > 0 ? getPixels() / 1e6 / seconds : 0.0, getAllocatedBytes());
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * JMX view of the measurements for one stage, registered as
+ * {@code imageeditor:type=Stage,name=<stage>}.
+ */
+public interface StageMetricsMXBean {
+
+    /**
+     * Returns how many times the stage ran.
+     *
+     * @return The number of runs.
+     */
+    long getCount();
+
+    /**
+     * Returns the wall time spent in the stage across all runs.
+     *
+     * @return The total time in milliseconds.
+     */
+    double getTotalMillis();
+
+    /**
+     * Returns the mean wall time per run.
+     *
+     * @return The mean time in milliseconds, or 0 if the stage never ran.
+     */
+    double getMeanMillis();
+
+    /**
+     * Returns the longest single run.
+     *
+     * @return The longest time in milliseconds.
+     */
+    double getMaxMillis();
+
+    /**
+     * Returns the pixels processed across all runs.
+     *
+     * @return The number of pixels.
+     */
+    long getPixels();
+
+    /**
+     * Returns the bytes allocated by the threads that ran the stage, across all runs.
+     *
+     * @return The number of bytes.
+     */
+    long getAllocatedBytes();
+}
@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of stages, each with its own workers, connected by bounded queues.
+ *
+ * Items enter the first stage with {@link #submit} and pass through every
+ * stage in order. Each stage has a queue of its own capacity and a number of
+ * worker threads that take items from it. When a worker finishes an item it
+ * puts it on the next stage's queue, and waits if that queue is full. Stages
+ * therefore overlap: while one image is filtered, the next is read and
+ * decoded, and the previous one is encoded. A slow stage holds back the
+ * stages before it, so the items in flight never exceed the sum of the
+ * workers and the queue capacities.
+ *
+ * Every stage measures how busy its workers are and how deep its queue gets;
+ * see {@link #report()}. The bottleneck is the stage whose workers are
+ * nearly always busy while its queue stays full. The stages before it block
+ * on the full queue, and the stages after it wait on empty ones.
+ *
+ * An item whose work throws leaves the pipeline at that stage and is passed
+ * to the failure handler. The other items carry on.
+ *
+ * @param <T> The type of the items, usually a mutable job that each stage fills in.
+ */
+public final class StagedPipeline<T> {
+
+    /**
+     * The work one stage does on one item.
+     *
+     * @param <T> The type of the items.
+     */
+    public interface Work<T> {
+
+        /**
+         * Processes an item.
+         *
+         * @param item The item.
+         * @throws Exception if the item fails. It is not passed to the next stage.
+         */
+        void run(T item) throws Exception;
+    }
+
+    /**
+     * Told about items that failed.
+     *
+     * @param <T> The type of the items.
+     */
+    public interface FailureHandler<T> {
+
+        /**
+         * Handles an item that failed.
+         *
+         * @param item    The item.
+         * @param stage   The name of the stage it failed in.
+         * @param failure What the work threw.
+         */
+        void failed(T item, String stage, Throwable failure);
+    }
+
+    // Put once per worker after the last item; a worker that takes it stops.
+    private static final Object END = new Object();
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final FailureHandler<T> onFailure;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    /**
+     * Creates an empty pipeline.
+     *
+     * @param onFailure Told about every item that fails, on the thread of the stage it failed in.
+     */
+    public StagedPipeline(FailureHandler<T> onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Appends a stage. Stages must be added before {@link #start()}.
+     *
+     * @param name          The name shown in the report.
+     * @param workers       The number of threads running the work, at least 1.
+     * @param queueCapacity How many items may wait for the stage, at least 1.
+     * @param work          The work done on each item.
+     * @return This pipeline.
+     */
+    public StagedPipeline<T> stage(String name, int workers, int queueCapacity, Work<T> work) {
+        if (startNanos != 0) {
+            throw new IllegalStateException("The pipeline has already started");
+        }
+        if (workers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException(name + " needs at least one worker and a queue of at least 1: "
+                    + workers + ", " + queueCapacity);
+        }
+        Stage stage = new Stage(name, workers, queueCapacity, work);
+        if (!stages.isEmpty()) {
+            stages.get(stages.size() - 1).next = stage;
+        }
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Starts the workers of every stage.
+     */
+    public void start() {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("The pipeline has no stages");
+        }
+        startNanos = System.nanoTime();
+        for (Stage stage : stages) {
+            for (int i = 1; i <= stage.workers; i++) {
+                Thread thread = new Thread(stage::runWorker, "stage-" + stage.name + "-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Hands an item to the first stage, waiting while its queue is full.
+     *
+     * @param item The item.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public void submit(T item) throws InterruptedException {
+        stages.get(0).put(item);
+    }
+
+    /**
+     * Waits until every submitted item has left the last stage or failed, then stops the workers.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public void finish() throws InterruptedException {
+        stages.get(0).end();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the name of the stage whose workers were busy for the largest share of the time.
+     *
+     * @return The name of the busiest stage.
+     */
+    public String bottleneck() {
+        Stage busiest = stages.get(0);
+        for (Stage stage : stages) {
+            if (stage.utilisation() > busiest.utilisation()) {
+                busiest = stage;
+            }
+        }
+        return busiest.name;
+    }
+
+    /**
+     * Describes every stage: its workers, how busy they were, its queue and the items it handled.
+     *
+     * @return One line per stage, followed by the bottleneck.
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder();
+        for (Stage stage : stages) {
+            text.append(stage).append(System.lineSeparator());
+        }
+        text.append("bottleneck: ").append(bottleneck()).append(System.lineSeparator());
+        return text.toString();
+    }
+
+    private final class Stage {
+
+        final String name;
+        final int workers;
+        final int capacity;
+        final Work<T> work;
+        final BlockingQueue<Object> queue;
+        Stage next;
+
+        final AtomicInteger running;
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        // The queue depth each arriving item found, summed, for the mean depth.
+        final AtomicLong arrivals = new AtomicLong();
+        final AtomicLong depthSum = new AtomicLong();
+        final AtomicInteger peakDepth = new AtomicInteger();
+
+        Stage(String name, int workers, int capacity, Work<T> work) {
+            this.name = name;
+            this.workers = workers;
+            this.capacity = capacity;
+            this.work = work;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.running = new AtomicInteger(workers);
+        }
+
+        void put(Object item) throws InterruptedException {
+            queue.put(item);
+            int depth = queue.size();
+            arrivals.incrementAndGet();
+            depthSum.addAndGet(depth);
+            peakDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        void end() throws InterruptedException {
+            for (int i = 0; i < workers; i++) {
+                queue.put(END);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void runWorker() {
+            try {
+                while (true) {
+                    Object item = queue.take();
+                    if (item == END) {
+                        // The last worker out passes the end on, after every item of this stage has moved on.
+                        if (running.decrementAndGet() == 0 && next != null) {
+                            next.end();
+                        }
+                        return;
+                    }
+                    long start = System.nanoTime();
+                    boolean succeeded = false;
+                    try {
+                        work.run((T) item);
+                        succeeded = true;
+                    } catch (Exception | Error e) {
+                        // An error such as OutOfMemoryError fails the item rather than the worker,
+                        // so the stages after this one still see the end.
+                        failed.incrementAndGet();
+                        onFailure.failed((T) item, name, e);
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - start);
+                    }
+                    if (succeeded) {
+                        done.incrementAndGet();
+                        if (next != null) {
+                            next.put(item);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The share of the workers' time spent working rather than waiting for items or for room downstream.
+        double utilisation() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            long elapsed = Math.max(1, end - startNanos);
+            return (double) busyNanos.get() / ((double) workers * elapsed);
+        }
+
+        @Override
+        public String toString() {
+            long count = arrivals.get();
+            return String.format(Locale.ROOT,
+                    "%-8s %2d worker(s) %5.1f%% busy, queue %d/%d (mean %.1f, peak %d), %d done, %d failed",
+                    name, workers, 100 * utilisation(), queue.size(), capacity,
+                    count > 0 ? (double) depthSum.get() / count : 0.0, peakDepth.get(), done.get(), failed.get());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.SampleModel;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Applies an operation chain to an image one horizontal strip at a time.
+ *
+ * Each strip is processed and written into an uncompressed TIFF with
+ * {@link ImageWriter#replacePixels}, so peak heap use depends on the strip
+ * size and not on the size of the image. Blur steps read extra halo rows above
+ * and below each strip so the result matches processing the whole image at once.
+ *
+ * TIFF sources are decoded a strip at a time with
+ * {@link ImageReadParam#setSourceRegion}. Other readers (JPEG, PNG) cannot
+ * seek into an image and would decode every row above each strip again, a
+ * cost that grows with the square of the height. Those images are decoded
+ * once, in one pass, into a memory-mapped scratch file, and the strips are
+ * copied out of it. Only layouts of more than 2^31 samples, or of int or float
+ * samples, still fall back to region reads.
+ *
+ * The TIFF keeps the layout of the source, alpha and gray levels included,
+ * like {@link Pipeline#apply()}. Indexed images are the exception: TIFF
+ * palettes have no alpha, so their results are written as TYPE_INT_ARGB or
+ * TYPE_INT_RGB with the same colours. A gray image whose strips gain colour
+ * cannot be streamed, since the first strip fixes the layout of the file.
+ *
+ * Only operations that keep every row in its own row, plus {@code horizontalFlip},
+ * can be streamed: the point operations, {@code verticalFlip},
+ * {@code mirrorVertical}, {@code blur} and {@code gaussianBlur}.
+ */
+public final class StripProcessor {
+
+    /** Strip height used when none is given. */
+    public static final int DEFAULT_STRIP_ROWS = 512;
+
+    private StripProcessor() {
+    }
+
+    /**
+     * Tells whether a chain can be processed strip by strip.
+     *
+     * @param chain The operation chain.
+     * @return true if the chain contains no rotations, top-bottom mirrors or steps that meter the image.
+     */
+    public static boolean canStream(OperationChain chain) {
+        // Content-aware steps measure the whole image, which no single strip holds.
+        return chain.count("rotate") == 0 && chain.count("mirror") == 0 && !chain.metersImage();
+    }
+
+    /**
+     * Streams an image through an operation chain into a TIFF file.
+     *
+     * @param input     The image file to read.
+     * @param output    The TIFF file to write.
+     * @param chain     The operations to apply.
+     * @param stripRows The number of output rows produced per strip.
+     * @return The number of pixels written.
+     * @throws IOException if the image cannot be read or written.
+     */
+    public static long process(File input, File output, OperationChain chain, int stripRows) throws IOException {
+        if (!canStream(chain)) {
+            throw new IllegalArgumentException("Chain cannot be streamed: " + chain);
+        }
+        if (stripRows < 1) {
+            throw new IllegalArgumentException("stripRows must be at least 1: " + stripRows);
+        }
+
+        // Row flips commute with every streamable step, so they become a change in strip order.
+        boolean flipRows = chain.count("horizontalFlip") % 2 == 1;
+        OperationChain rowChain = chain.without("horizontalFlip");
+        int halo = rowChain.haloRows();
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + input);
+            }
+            ImageReader reader = readers.next();
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+            output.delete();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(output)) {
+                reader.setInput(in, true, true);
+                writer.setOutput(out);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                try (Spool spool = Spool.decode(reader, width, height)) {
+                    writeStrips(reader, spool, writer, rowChain, flipRows, halo, stripRows, input);
+                }
+                return (long) width * height;
+            } finally {
+                writer.dispose();
+                reader.dispose();
+            }
+        }
+    }
+
+    // Processes the image strip by strip into the prepared TIFF writer.
+    private static void writeStrips(ImageReader reader, Spool spool, ImageWriter writer, OperationChain rowChain,
+            boolean flipRows, int halo, int stripRows, File input) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+
+        int layout = -1;
+        for (int top = 0; top < height; top += stripRows) {
+            int rows = Math.min(stripRows, height - top);
+
+            // The source rows feeding this strip, padded by the halo where the image allows.
+            int sourceTop = flipRows ? height - top - rows : top;
+            int readTop = Math.max(0, sourceTop - halo);
+            int readBottom = Math.min(height, sourceTop + rows + halo);
+            BufferedImage strip;
+            if (spool != null) {
+                strip = spool.rows(readTop, readBottom);
+            } else {
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                readParam.setSourceRegion(new Rectangle(0, readTop, width, readBottom - readTop));
+                strip = reader.read(0, readParam);
+            }
+
+            Pipeline pipeline = rowChain.applyTo(Pipeline.of(strip));
+            int skip = sourceTop - readTop;
+            if (flipRows) {
+                pipeline.horizontalFlip();
+                skip = readBottom - (sourceTop + rows);
+            }
+            BufferedImage processed = pipeline.apply();
+            if (PixelLayout.of(processed) == PixelLayout.INDEXED) {
+                // TIFF palettes have no alpha, so palette results are written as packed ints instead.
+                processed = RasterAccess.createImage(PixelLayout.read(processed), processed.getWidth(),
+                        processed.getHeight(), processed.getColorModel().hasAlpha()
+                                ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            }
+            if (layout == -1) {
+                // The first strip fixes the layout of the file, which is the source's own.
+                layout = processed.getType();
+                writer.prepareWriteEmpty(null, ImageTypeSpecifier.createFromRenderedImage(processed),
+                        width, height, null, null, writer.getDefaultWriteParam());
+            } else if (processed.getType() != layout) {
+                throw new IOException("The strip at row " + top + " of " + input
+                        + " no longer fits the layout of the strips before it");
+            }
+
+            // Drop the halo rows and write the strip in place.
+            Raster body = processed.getRaster().createChild(0, skip, width, rows, 0, 0, null);
+            writer.prepareReplacePixels(0, new Rectangle(0, top, width, rows));
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            writeParam.setDestinationOffset(new Point(0, top));
+            writer.replacePixels(body, writeParam);
+            writer.endReplacePixels();
+        }
+        writer.endWriteEmpty();
+    }
+
+    // An image decoded once, in the reader's own layout, into a memory-mapped scratch file. Readers that
+    // cannot seek into an image (JPEG, PNG) would otherwise decode every row above each strip again.
+    private static final class Spool implements Closeable {
+
+        private final FileChannel channel;
+        private final BufferedImage image;
+        private final ImageTypeSpecifier type;
+
+        private Spool(FileChannel channel, BufferedImage image, ImageTypeSpecifier type) {
+            this.channel = channel;
+            this.image = image;
+            this.type = type;
+        }
+
+        // Decodes the image into a scratch file, or returns null when region reads are cheap (TIFF seeks
+        // straight to the strips) or the reader's layout cannot be mapped.
+        static Spool decode(ImageReader reader, int width, int height) throws IOException {
+            if (reader.getFormatName().toLowerCase(Locale.ROOT).startsWith("tif")) {
+                return null;
+            }
+            ImageTypeSpecifier type = reader.getImageTypes(0).next();
+            SampleModel model = type.getSampleModel(width, height);
+            int dataType = model.getDataType();
+            long stride = model instanceof ComponentSampleModel ? ((ComponentSampleModel) model).getScanlineStride()
+                    : model instanceof MultiPixelPackedSampleModel
+                            ? ((MultiPixelPackedSampleModel) model).getScanlineStride() : -1;
+            if (stride < 0 || stride * height > Integer.MAX_VALUE
+                    || (dataType != DataBuffer.TYPE_BYTE && dataType != DataBuffer.TYPE_USHORT)) {
+                return null;
+            }
+
+            Path file = Files.createTempFile("strips", ".tmp");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            try {
+                MappedDataBuffer buffer = new MappedDataBuffer(channel, dataType, (int) (stride * height));
+                ColorModel colors = type.getColorModel();
+                BufferedImage image = new BufferedImage(colors, Raster.createWritableRaster(model, buffer, null),
+                        colors.isAlphaPremultiplied(), null);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setDestination(image);
+                reader.read(0, param);
+                return new Spool(channel, image, type);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Copies rows [top, bottom) into an ordinary image, as a region read would return them.
+        BufferedImage rows(int top, int bottom) {
+            BufferedImage rows = type.createBufferedImage(image.getWidth(), bottom - top);
+            rows.getRaster().setRect(image.getRaster().createChild(0, top, image.getWidth(), bottom - top, 0, 0, null));
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Bytes or shorts in a file, mapped in chunks since one mapping holds at most 2 GB.
+    private static final class MappedDataBuffer extends DataBuffer {
+
+        private static final int CHUNK_SHIFT = 30;
+
+        private final MappedByteBuffer[] chunks;
+        private final int elementShift;
+
+        MappedDataBuffer(FileChannel channel, int dataType, int size) throws IOException {
+            super(dataType, size);
+            elementShift = dataType == TYPE_USHORT ? 1 : 0;
+            long bytes = (long) size << elementShift;
+            chunks = new MappedByteBuffer[(int) ((bytes + (1L << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(1L << CHUNK_SHIFT, bytes - start));
+                chunks[i].order(ByteOrder.nativeOrder());
+            }
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            long offset = (long) i << elementShift;
+            MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+            int position = (int) (offset & ((1L << CHUNK_SHIFT) - 1));
+            return elementShift == 0 ? chunk.get(position) & 0xFF : chunk.getShort(position) & 0xFFFF;
+        }
+
+        @Override
+        public void setElem(int bank, int i, int value) {
+            long offset = (long) i << elementShift;
+            MappedByteBuffer chunk = chunks[(int) (offset >>> CHUNK_SHIFT)];
+            int position = (int) (offset & ((1L << CHUNK_SHIFT) - 1));
+            if (elementShift == 0) {
+                chunk.put(position, (byte) value);
+            } else {
+                chunk.putShort(position, (short) value);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs row-band work in parallel on a shared ForkJoinPool.
+ *
+ * An image is split into horizontal bands of whole rows and each band is
+ * handed to a {@link BandTask}. Bands only write their own rows, so filters
+ * that read the rows around a band (like the blur) simply read the halo from
+ * the shared source raster. The result is identical to running the task once
+ * over every row.
+ *
+ * The parallelism defaults to the number of processors and can be changed
+ * with {@link #setParallelism(int)} or the {@code imageeditor.parallelism}
+ * system property. There is one pool per parallelism, so switching back and
+ * forth between two values does not start new threads each time.
+ */
+public final class TileExecutor {
+
+    /** Bands smaller than this many pixels are not split any further. */
+    public static final int MIN_BAND_PIXELS = 1 << 16;
+
+    /**
+     * Work applied to one band of rows.
+     */
+    public interface BandTask {
+
+        /**
+         * Processes the rows {@code [startRow, endRow)}.
+         *
+         * @param startRow The first row of the band.
+         * @param endRow   The row after the last row of the band.
+         */
+        void run(int startRow, int endRow);
+    }
+
+    // Idle workers time out, so the pools that are not in use hold no threads.
+    private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private static volatile ForkJoinPool pool = createPool(
+            Integer.getInteger("imageeditor.parallelism", Runtime.getRuntime().availableProcessors()));
+
+    private TileExecutor() {
+    }
+
+    /**
+     * Sets how many threads the filters may use.
+     *
+     * @param parallelism The number of worker threads. 1 runs every filter on the calling thread.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        // Work already running finishes on the old pool, which is kept for the next time it is asked for.
+        pool = createPool(parallelism);
+    }
+
+    /**
+     * Returns how many threads the filters may use.
+     *
+     * @return The configured parallelism.
+     */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Runs a task over every row of an image, in parallel bands.
+     *
+     * @param height The number of rows.
+     * @param width  The number of pixels per row, used to size the bands.
+     * @param task   The work to run for each band.
+     */
+    public static void forEachBand(int height, int width, BandTask task) {
+        ForkJoinPool current = pool;
+        int parallelism = current.getParallelism();
+        long pixels = (long) height * width;
+        if (parallelism == 1 || pixels <= MIN_BAND_PIXELS || height < 2) {
+            task.run(0, height);
+            return;
+        }
+
+        // Aim for a few bands per worker so uneven bands still balance out.
+        int minRows = (int) Math.max(1, Math.max(MIN_BAND_PIXELS / Math.max(width, 1),
+                height / (parallelism * 4L)));
+        current.invoke(new Band(task, 0, height, minRows));
+    }
+
+    /**
+     * Runs the same work on several workers at once, for filters that hand out rows themselves.
+     *
+     * Unlike {@link #forEachBand}, the rows are not split up front: each worker
+     * claims rows as it goes, so a row may wait for the row above it, as error
+     * diffusion does. A worker must only wait for rows claimed before its own;
+     * those are either finished or being worked on, so the wait always ends.
+     *
+     * @param workers The number of copies of the work to run, usually {@link #getParallelism()}.
+     *                1 runs it on the calling thread.
+     * @param worker  The work each worker runs until no rows are left.
+     */
+    public static void forEachWorker(int workers, Runnable worker) {
+        if (workers <= 1) {
+            worker.run();
+            return;
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                RecursiveAction[] copies = new RecursiveAction[workers];
+                for (int i = 0; i < workers; i++) {
+                    copies[i] = new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            worker.run();
+                        }
+                    };
+                }
+                invokeAll(copies);
+            }
+        });
+    }
+
+    private static ForkJoinPool createPool(int parallelism) {
+        return POOLS.computeIfAbsent(Math.max(1, parallelism), ForkJoinPool::new);
+    }
+
+    // Splits a row range in half until it is small enough to run directly.
+    private static final class Band extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BandTask task;
+        private final int startRow;
+        private final int endRow;
+        private final int minRows;
+
+        Band(BandTask task, int startRow, int endRow, int minRows) {
+            this.task = task;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.minRows = minRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= minRows) {
+                task.run(startRow, endRow);
+                return;
+            }
+            int middle = (startRow + endRow) >>> 1;
+            invokeAll(new Band(task, startRow, middle, minRows), new Band(task, middle, endRow, minRows));
+        }
+    }
+}
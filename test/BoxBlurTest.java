@@ -0,0 +1,86 @@
+import java.util.Random;
+
+/**
+ * Checks {@link BoxBlur#blur} against a brute-force mean over the clamped window.
+ *
+ * Every output pixel must be the truncated mean of the (2 * radius + 1)^2
+ * window centred on it, with coordinates outside the image clamped to the
+ * border, and must keep its own alpha. Run with {@code java BoxBlurTest};
+ * a mismatch throws an AssertionError naming the case and the pixel.
+ */
+public final class BoxBlurTest {
+
+    private BoxBlurTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+
+        // A zero radius, the smallest window, windows wider than the image, and single rows and columns.
+        int[][] cases = {
+                {16, 12, 0}, {16, 12, 1}, {9, 7, 3},
+                {7, 5, 20}, {3, 2, 100},
+                {1, 40, 0}, {1, 40, 1}, {1, 40, 6}, {1, 40, 60},
+                {40, 1, 0}, {40, 1, 1}, {40, 1, 6}, {40, 1, 60},
+                {1, 1, 1}, {1, 1, 5},
+        };
+        for (int[] c : cases) {
+            check(random, c[0], c[1], c[2]);
+        }
+
+        // Large enough to be split into bands, which must match a single pass.
+        int parallelism = TileExecutor.getParallelism();
+        TileExecutor.setParallelism(4);
+        try {
+            check(random, 320, 300, 1);
+            check(random, 320, 300, 9);
+        } finally {
+            TileExecutor.setParallelism(parallelism);
+        }
+        System.out.println("BoxBlurTest passed");
+    }
+
+    private static void check(Random random, int width, int height, int radius) {
+        int[] src = new int[width * height];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt();
+        }
+        int[] dst = new int[src.length];
+        BoxBlur.blur(src, dst, width, height, radius);
+
+        int[] expected = bruteForce(src, width, height, radius);
+        for (int i = 0; i < src.length; i++) {
+            if (dst[i] != expected[i]) {
+                throw new AssertionError(String.format("%dx%d radius %d: pixel (%d, %d) is %08x, expected %08x",
+                        width, height, radius, i % width, i / width, dst[i], expected[i]));
+            }
+        }
+    }
+
+    private static int[] bruteForce(int[] src, int width, int height, int radius) {
+        long area = (long) (2 * radius + 1) * (2 * radius + 1);
+        int[] dst = new int[src.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                long red = 0;
+                long green = 0;
+                long blue = 0;
+                for (int dy = -radius; dy <= radius; dy++) {
+                    for (int dx = -radius; dx <= radius; dx++) {
+                        int pixel = src[clamp(y + dy, height) * width + clamp(x + dx, width)];
+                        red += (pixel >> 16) & 0xFF;
+                        green += (pixel >> 8) & 0xFF;
+                        blue += pixel & 0xFF;
+                    }
+                }
+                dst[y * width + x] = (src[y * width + x] & 0xFF000000)
+                        | (int) (red / area) << 16 | (int) (green / area) << 8 | (int) (blue / area);
+            }
+        }
+        return dst;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+}
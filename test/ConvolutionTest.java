@@ -0,0 +1,74 @@
+import java.util.Random;
+
+/**
+ * Checks that the convolution strategies agree.
+ *
+ * {@link Convolution.Strategy#SEPARABLE} and {@link Convolution.Strategy#FFT}
+ * round at different points than the direct sum, so every channel may differ
+ * from {@link Convolution.Strategy#DIRECT} by at most {@value #TOLERANCE}.
+ * Kernels of both kinds are checked under every edge mode, on rasters smaller
+ * than the kernel and on ones that span several FFT tiles. Run with
+ * {@code java ConvolutionTest}; a failure throws an AssertionError.
+ */
+public final class ConvolutionTest {
+
+    private static final int TOLERANCE = 1;
+
+    private ConvolutionTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(21);
+        float[] weights = new float[25];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextFloat() - 0.3f;
+        }
+        Kernel[] kernels = {Kernel.gaussian(1.5), Kernel.box(3), Kernel.sharpen(), Kernel.emboss(),
+                Kernel.of(5, 5, weights)};
+        int[][] sizes = {{1, 1}, {1, 37}, {37, 1}, {3, 2}, {64, 48}, {301, 157}};
+        for (int[] size : sizes) {
+            int[] src = new int[size[0] * size[1]];
+            for (int i = 0; i < src.length; i++) {
+                src[i] = random.nextInt();
+            }
+            for (Kernel kernel : kernels) {
+                for (EdgeMode edges : EdgeMode.values()) {
+                    check(src, size[0], size[1], kernel, edges);
+                }
+            }
+        }
+        System.out.println("ConvolutionTest passed");
+    }
+
+    private static void check(int[] src, int width, int height, Kernel kernel, EdgeMode edges) {
+        int[] direct = convolve(src, width, height, kernel, edges, Convolution.Strategy.DIRECT);
+        compare("FFT", convolve(src, width, height, kernel, edges, Convolution.Strategy.FFT), direct,
+                width, kernel, edges);
+        if (kernel.isSeparable()) {
+            compare("separable", convolve(src, width, height, kernel, edges, Convolution.Strategy.SEPARABLE),
+                    direct, width, kernel, edges);
+        }
+        compare("auto", convolve(src, width, height, kernel, edges, Convolution.Strategy.AUTO), direct,
+                width, kernel, edges);
+    }
+
+    private static int[] convolve(int[] src, int width, int height, Kernel kernel, EdgeMode edges,
+            Convolution.Strategy strategy) {
+        int[] dst = new int[src.length];
+        Convolution.convolve(src, dst, width, height, kernel, edges, strategy);
+        return dst;
+    }
+
+    private static void compare(String strategy, int[] actual, int[] expected, int width, Kernel kernel,
+            EdgeMode edges) {
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((actual[i] >>> shift) & 0xFF) - ((expected[i] >>> shift) & 0xFF);
+                if (Math.abs(difference) > TOLERANCE) {
+                    throw new AssertionError(String.format("%s with %s, %s edges: pixel (%d, %d) is %08x, direct"
+                            + " gives %08x", strategy, kernel, edges, i % width, i / width, actual[i], expected[i]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that incremental renders of an {@link EditSession} match a full render.
+ *
+ * Random local edits are added, changed, moved and removed. After each change
+ * the session re-renders only its dirty tiles, and the result must equal
+ * applying every edit in turn to the whole image and keeping its rectangle.
+ * Small changes after the first render must not recompute the whole image.
+ * Run with {@code java EditSessionTest}; a failure throws an AssertionError.
+ */
+public final class EditSessionTest {
+
+    private static final String[] CHAINS = {
+        "brightness(25)", "negative", "poster(4)", "blur(3)", "gaussianBlur(2)", "exactGaussianBlur(2)",
+        "sharpen", "blur(5).brightness(-20)", "negative.blur(1)",
+    };
+
+    private EditSessionTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(18);
+        for (int round = 0; round < 20; round++) {
+            checkEdits(random, 150 + random.nextInt(200), 100 + random.nextInt(150), 16 << random.nextInt(3));
+        }
+        System.out.println("EditSessionTest passed");
+    }
+
+    private static void checkEdits(Random random, int width, int height, int tileSize) {
+        BufferedImage source = OperationChainTest.randomImage(random, width, height, BufferedImage.TYPE_INT_RGB);
+        EditSession session = new EditSession(source, tileSize);
+        List<String> chains = new ArrayList<>();
+        List<Rectangle> regions = new ArrayList<>();
+        session.render();
+
+        for (int change = 0; change < 12; change++) {
+            int choice = chains.isEmpty() ? 0 : random.nextInt(4);
+            String what;
+            if (choice == 0) {
+                String chain = CHAINS[random.nextInt(CHAINS.length)];
+                Rectangle region = randomRegion(random, width, height);
+                session.add(OperationChain.parse(chain), region);
+                chains.add(chain);
+                regions.add(region);
+                what = "add " + chain + " at " + region;
+            } else {
+                int index = random.nextInt(chains.size());
+                if (choice == 1) {
+                    String chain = CHAINS[random.nextInt(CHAINS.length)];
+                    session.set(index, OperationChain.parse(chain));
+                    chains.set(index, chain);
+                    what = "set " + index + " to " + chain;
+                } else if (choice == 2) {
+                    Rectangle region = randomRegion(random, width, height);
+                    session.move(index, region);
+                    regions.set(index, region);
+                    what = "move " + index + " to " + region;
+                } else {
+                    session.remove(index);
+                    chains.remove(index);
+                    regions.remove(index);
+                    what = "remove " + index;
+                }
+            }
+
+            int dirty = session.dirtyTiles();
+            BufferedImage rendered = session.render();
+            String context = width + "x" + height + " tiles " + tileSize + ", after " + what;
+            OperationChainTest.assertSameImage(context, fullRender(source, chains, regions), rendered);
+            if (session.lastRenderedPixels() > (long) dirty * tileSize * tileSize) {
+                throw new AssertionError(context + ": rendered " + session.lastRenderedPixels()
+                        + " pixels for " + dirty + " dirty tiles");
+            }
+            if (session.dirtyTiles() != 0) {
+                throw new AssertionError(context + ": " + session.dirtyTiles() + " tiles still dirty");
+            }
+        }
+
+        // A small point edit away from the others only redoes the tiles under it.
+        int before = session.size();
+        session.add(OperationChain.parse("negative"), new Rectangle(0, 0, 1, 1));
+        session.render();
+        if (session.lastRenderedPixels() > (long) tileSize * tileSize) {
+            throw new AssertionError("one-pixel edit rendered " + session.lastRenderedPixels() + " pixels");
+        }
+        session.remove(before);
+        OperationChainTest.assertSameImage("after removing the one-pixel edit",
+                fullRender(source, chains, regions), session.render());
+    }
+
+    // Applies each chain to the whole image and keeps the pixels inside its rectangle.
+    private static BufferedImage fullRender(BufferedImage source, List<String> chains, List<Rectangle> regions) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        BufferedImage current = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        current.getGraphics().drawImage(source, 0, 0, null);
+        for (int i = 0; i < chains.size(); i++) {
+            BufferedImage edited = OperationChain.parse(chains.get(i)).applyTo(Pipeline.of(current)).apply();
+            Rectangle region = regions.get(i).intersection(new Rectangle(width, height));
+            for (int y = region.y; y < region.y + region.height; y++) {
+                for (int x = region.x; x < region.x + region.width; x++) {
+                    current.setRGB(x, y, edited.getRGB(x, y));
+                }
+            }
+        }
+        return current;
+    }
+
+    // A rectangle that overlaps the image and may stick out past its edges.
+    private static Rectangle randomRegion(Random random, int width, int height) {
+        int x = random.nextInt(width + 20) - 20;
+        int y = random.nextInt(height + 20) - 20;
+        int w = Math.max(x < 0 ? 1 - x : 1, 1 + random.nextInt(width / 2));
+        int h = Math.max(y < 0 ? 1 - y : 1, 1 + random.nextInt(height / 2));
+        return new Rectangle(x, y, w, h);
+    }
+}
@@ -0,0 +1,142 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Checks that operation chains parse and run.
+ *
+ * Every step is parsed against a pipeline without a source first, so a step
+ * that needs the source image while it is recorded fails here. The
+ * description of a pipeline with any of its operations, alone and all
+ * together, must parse back into a pipeline with the same description and the
+ * same result. Run with {@code java OperationChainTest}; a failure throws an
+ * AssertionError.
+ */
+public final class OperationChainTest {
+
+    private OperationChainTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        BufferedImage opaque = randomImage(random, 37, 23, BufferedImage.TYPE_INT_RGB);
+        BufferedImage translucent = randomImage(random, 37, 23, BufferedImage.TYPE_INT_ARGB);
+
+        // An angle that is not a quarter turn samples the image and fills the corners.
+        for (BufferedImage image : new BufferedImage[] {opaque, translucent}) {
+            OperationChain chain = OperationChain.parse("rotate(45)");
+            BufferedImage rotated = chain.applyTo(Pipeline.of(image)).apply();
+            BufferedImage direct = ImageEditor.rotateByAngle(image, 45);
+            assertSameImage("rotate(45) on type " + image.getType(), direct, rotated);
+        }
+        checkRoundTrip(opaque);
+        checkRoundTrip(translucent);
+        checkArguments();
+        System.out.println("OperationChainTest passed");
+    }
+
+    // Every operation a pipeline can record, with arguments that do not print as whole numbers where allowed.
+    private static List<UnaryOperator<Pipeline>> operations() {
+        List<UnaryOperator<Pipeline>> operations = new ArrayList<>();
+        operations.add(pipeline -> pipeline.brightness(-35));
+        operations.add(pipeline -> pipeline.negative());
+        operations.add(pipeline -> pipeline.poster(5));
+        operations.add(pipeline -> pipeline.autoBrightness(140));
+        operations.add(pipeline -> pipeline.autoLevels());
+        operations.add(pipeline -> pipeline.equalize());
+        operations.add(pipeline -> pipeline.adaptivePoster(3));
+        operations.add(pipeline -> pipeline.quantize(12, Quantizer.Dither.FLOYD_STEINBERG, Palette.Method.OCTREE));
+        operations.add(pipeline -> pipeline.rotate(270));
+        operations.add(pipeline -> pipeline.rotateBy(-90));
+        operations.add(pipeline -> pipeline.rotateBy(12.5));
+        operations.add(pipeline -> pipeline.rotateBy(1.0 / 3));
+        operations.add(pipeline -> pipeline.horizontalFlip());
+        operations.add(pipeline -> pipeline.verticalFlip());
+        operations.add(pipeline -> pipeline.mirror());
+        operations.add(pipeline -> pipeline.mirrorVertical());
+        operations.add(pipeline -> pipeline.blur(3));
+        operations.add(pipeline -> pipeline.gaussianBlur(2));
+        operations.add(pipeline -> pipeline.exactGaussianBlur(1.3));
+        operations.add(pipeline -> pipeline.exactGaussianBlur(2));
+        operations.add(pipeline -> pipeline.convolve(Kernel.of(3, 1, 0.1f, 0.7f, 0.2f), EdgeMode.WRAP));
+        operations.add(pipeline -> pipeline.convolve(Kernel.of(1, 3, -1f / 3, 2, 1e-7f), EdgeMode.REFLECT));
+        operations.add(pipeline -> pipeline.convolve(Kernel.box(1), EdgeMode.CLAMP));
+        operations.add(pipeline -> pipeline.sharpen());
+        operations.add(pipeline -> pipeline.edgeDetect());
+        operations.add(pipeline -> pipeline.emboss());
+        return operations;
+    }
+
+    private static void checkRoundTrip(BufferedImage image) {
+        UnaryOperator<Pipeline> all = pipeline -> pipeline;
+        for (UnaryOperator<Pipeline> operation : operations()) {
+            checkRoundTrip(image, operation);
+            UnaryOperator<Pipeline> before = all;
+            all = pipeline -> operation.apply(before.apply(pipeline));
+        }
+        checkRoundTrip(image, all);
+    }
+
+    private static void checkRoundTrip(BufferedImage image, UnaryOperator<Pipeline> operations) {
+        Pipeline recorded = operations.apply(Pipeline.of(image));
+        String description = recorded.toString();
+        Pipeline parsed;
+        try {
+            parsed = OperationChain.parse(description).applyTo(Pipeline.of(image));
+        } catch (IllegalArgumentException e) {
+            throw new AssertionError("description does not parse: " + description, e);
+        }
+        if (!parsed.toString().equals(description)) {
+            throw new AssertionError("description " + description + " parses back as " + parsed);
+        }
+        assertSameImage(description + " parsed back on type " + image.getType(), recorded.apply(), parsed.apply());
+    }
+
+    private static void checkArguments() {
+        // Kernels of the same size must not share a description, which also keys cached results.
+        String left = Pipeline.of((BufferedImage) null).convolve(Kernel.of(3, 1, 1, 0, 0), EdgeMode.CLAMP).toString();
+        String right = Pipeline.of((BufferedImage) null).convolve(Kernel.of(3, 1, 0, 0, 1), EdgeMode.CLAMP).toString();
+        if (left.equals(right)) {
+            throw new AssertionError("two different kernels are both described as " + left);
+        }
+        String[] invalid = {"blur(2.5)", "poster(NaN)", "rotate(Infinity)", "quantize(8,0.5)", "convolve(3,3,0,1,2)",
+            "convolve(2,1,0,1,1)", "convolve(1,1,3,1)"};
+        for (String chain : invalid) {
+            try {
+                OperationChain.parse(chain);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            throw new AssertionError("accepted " + chain);
+        }
+    }
+
+    static BufferedImage randomImage(Random random, int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    static void assertSameImage(String what, BufferedImage expected, BufferedImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()
+                || expected.getType() != actual.getType()) {
+            throw new AssertionError(what + ": expected a " + expected.getWidth() + "x" + expected.getHeight()
+                    + " image of type " + expected.getType() + ", got " + actual.getWidth() + "x"
+                    + actual.getHeight() + " of type " + actual.getType());
+        }
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y)) {
+                    throw new AssertionError(String.format("%s: pixel (%d, %d) is %08x, expected %08x",
+                            what, x, y, actual.getRGB(x, y), expected.getRGB(x, y)));
+                }
+            }
+        }
+    }
+}
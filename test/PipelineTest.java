@@ -0,0 +1,82 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+/**
+ * Checks that a fused {@link Pipeline} matches running its operations one at a time.
+ *
+ * The pipeline folds runs of point operations into one table and runs of
+ * flips and quarter turns into one mapping. Random chains of those, mixed
+ * with steps that break the folding, must give bit-identical images to
+ * calling the {@link ImageEditor} filters in order, for packed, interleaved
+ * and gray layouts. Run with {@code java PipelineTest}; a failure throws an
+ * AssertionError naming the chain.
+ */
+public final class PipelineTest {
+
+    private static final int CHAINS = 200;
+    private static final int MAX_STEPS = 6;
+
+    private PipelineTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(3);
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY};
+        for (int chain = 0; chain < CHAINS; chain++) {
+            int type = types[chain % types.length];
+            BufferedImage image = OperationChainTest.randomImage(random, 13 + random.nextInt(20),
+                    7 + random.nextInt(20), type);
+            Pipeline pipeline = Pipeline.of(image);
+            BufferedImage expected = image;
+            int steps = 1 + random.nextInt(MAX_STEPS);
+            for (int step = 0; step < steps; step++) {
+                expected = addStep(random, pipeline).apply(expected);
+            }
+            OperationChainTest.assertSameImage(pipeline + " on type " + type, expected, pipeline.apply());
+        }
+        System.out.println("PipelineTest passed");
+    }
+
+    // Records a random step in the pipeline and returns the same operation as an ImageEditor filter.
+    private static UnaryOperator<BufferedImage> addStep(Random random, Pipeline pipeline) {
+        switch (random.nextInt(9)) {
+            case 0: {
+                int increase = random.nextInt(121) - 60;
+                pipeline.brightness(increase);
+                return image -> ImageEditor.changeBrightness(image, increase);
+            }
+            case 1:
+                pipeline.negative();
+                return ImageEditor::negative;
+            case 2: {
+                int levels = 1 + random.nextInt(16);
+                pipeline.poster(levels);
+                return image -> ImageEditor.poster(image, levels);
+            }
+            case 3:
+                pipeline.horizontalFlip();
+                return ImageEditor::horizontalFlip;
+            case 4:
+                pipeline.verticalFlip();
+                return ImageEditor::verticalFlip;
+            case 5: {
+                int degrees = 90 * (1 + random.nextInt(3));
+                pipeline.rotate(degrees);
+                return image -> ImageEditor.rotateByAngle(image, degrees);
+            }
+            case 6:
+                pipeline.mirror();
+                return ImageEditor::mirror;
+            case 7:
+                pipeline.mirrorVertical();
+                return ImageEditor::mirrorVertical;
+            default: {
+                int rad = 1 + random.nextInt(3);
+                pipeline.blur(rad);
+                return image -> ImageEditor.blur(image, rad);
+            }
+        }
+    }
+}
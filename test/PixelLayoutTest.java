@@ -0,0 +1,111 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+/**
+ * Checks that {@link PixelLayout} writes results back in the layout of their source.
+ *
+ * Indexed results must hold, for every pixel, the lowest palette index at the
+ * smallest distance, whatever order and repetition the colours come in. Gray
+ * results must keep their levels, and packed int results their alpha. Run with
+ * {@code java PixelLayoutTest}; a failure throws an AssertionError.
+ */
+public final class PixelLayoutTest {
+
+    private PixelLayoutTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(5);
+        checkIndexed(random);
+        checkGray(random);
+        checkPacked(random);
+        System.out.println("PixelLayoutTest passed");
+    }
+
+    private static void checkIndexed(Random random) {
+        // Duplicate entries check that the lowest index wins, as a search from the start would find.
+        int[] colors = new int[16];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = random.nextInt();
+        }
+        colors[9] = colors[3];
+        IndexColorModel palette = new IndexColorModel(8, colors.length, colors, 0, true, -1, DataBuffer.TYPE_BYTE);
+        BufferedImage source = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_INDEXED, palette);
+
+        // Random colours, runs of one colour and exact palette colours, in a raster large enough for bands.
+        int width = 300;
+        int height = 250;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            switch (i % 3) {
+                case 0:
+                    pixels[i] = random.nextInt();
+                    break;
+                case 1:
+                    pixels[i] = colors[random.nextInt(colors.length)];
+                    break;
+                default:
+                    pixels[i] = pixels[i - 1];
+                    break;
+            }
+        }
+        BufferedImage result = PixelLayout.write(pixels.clone(), width, height, source);
+        int[] indices = result.getRaster().getSamples(0, 0, width, height, 0, (int[]) null);
+        for (int i = 0; i < pixels.length; i++) {
+            int expected = nearest(colors, pixels[i]);
+            if (indices[i] != expected) {
+                throw new AssertionError(String.format("Pixel %08x at %d maps to entry %d, expected %d",
+                        pixels[i], i, indices[i], expected));
+            }
+        }
+    }
+
+    private static void checkGray(Random random) {
+        BufferedImage gray = new BufferedImage(23, 17, BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < gray.getHeight(); y++) {
+            for (int x = 0; x < gray.getWidth(); x++) {
+                gray.getRaster().setSample(x, y, 0, random.nextInt(256));
+            }
+        }
+        int[] pixels = PixelLayout.read(gray);
+        BufferedImage result = PixelLayout.write(pixels, gray.getWidth(), gray.getHeight(), gray);
+        if (result.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new AssertionError("A gray result came back as type " + result.getType());
+        }
+        for (int y = 0; y < gray.getHeight(); y++) {
+            for (int x = 0; x < gray.getWidth(); x++) {
+                int expected = gray.getRaster().getSample(x, y, 0);
+                int actual = result.getRaster().getSample(x, y, 0);
+                if (actual != expected) {
+                    throw new AssertionError("Gray level at (" + x + ", " + y + ") is " + actual + ", expected "
+                            + expected);
+                }
+            }
+        }
+    }
+
+    private static void checkPacked(Random random) {
+        BufferedImage argb = OperationChainTest.randomImage(random, 19, 13, BufferedImage.TYPE_4BYTE_ABGR);
+        BufferedImage result = PixelLayout.write(PixelLayout.read(argb), argb.getWidth(), argb.getHeight(), argb);
+        OperationChainTest.assertSameImage("4BYTE_ABGR round trip", argb, result);
+    }
+
+    private static int nearest(int[] colors, int pixel) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            long distance = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int difference = ((colors[i] >>> shift) & 0xFF) - ((pixel >>> shift) & 0xFF);
+                distance += difference * difference;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,65 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the point filter passes allocate nothing per pixel.
+ *
+ * The table pass and the scalar kernels run over a small and a raster 64
+ * times larger, and the bytes the thread allocates during each pass are
+ * measured with {@code ThreadMXBean.getThreadAllocatedBytes}. Any object
+ * created per pixel, such as a {@code java.awt.Color}, would make the large
+ * pass allocate megabytes; the test allows a few kilobytes for both.
+ */
+public final class PointFilterAllocationTest {
+
+    private static final int SMALL = 1 << 16;
+    private static final int LARGE = 1 << 22;
+    private static final long SLACK_BYTES = 4096;
+
+    private PointFilterAllocationTest() {
+    }
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            throw new AssertionError("This JVM does not measure thread allocation");
+        }
+        int[] small = new int[SMALL];
+        int[] large = new int[LARGE];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = i * 0x9E3779B9;
+        }
+        System.arraycopy(large, 0, small, 0, small.length);
+        int[] table = ColorMath.brightnessTable(20);
+        PointKernels kernels = PointFilters.scalar();
+
+        // Warm up so class loading and compilation are not counted.
+        for (int round = 0; round < 20; round++) {
+            passes(small, table, kernels);
+        }
+
+        long smallBytes = allocated(threads, small, table, kernels);
+        long largeBytes = allocated(threads, large, table, kernels);
+        if (largeBytes > smallBytes + SLACK_BYTES || largeBytes > SLACK_BYTES) {
+            throw new AssertionError("Point filters allocated " + smallBytes + " bytes for " + SMALL
+                    + " pixels and " + largeBytes + " bytes for " + LARGE + " pixels");
+        }
+        System.out.println("PointFilterAllocationTest passed: " + smallBytes + " and " + largeBytes + " bytes");
+    }
+
+    // The bytes the current thread allocates while running every pass once.
+    private static long allocated(com.sun.management.ThreadMXBean threads, int[] pixels, int[] table,
+            PointKernels kernels) {
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        passes(pixels, table, kernels);
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+
+    private static void passes(int[] pixels, int[] table, PointKernels kernels) {
+        ColorMath.applyTable(pixels, pixels, table, 0, pixels.length);
+        kernels.negative(pixels, 0, pixels.length);
+        kernels.brightness(pixels, -15, 0, pixels.length);
+        kernels.poster(pixels, 6, 0, pixels.length);
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Random;
+
+/**
+ * Checks that the parallel quantiser matches a plain single-threaded one.
+ *
+ * Floyd-Steinberg error diffusion runs as a wavefront over several workers.
+ * Its result must equal a textbook sequential pass with one error buffer for
+ * the whole image, at every parallelism. Ordered dithering and plain mapping
+ * must not depend on the parallelism either. Run with {@code java QuantizerTest};
+ * a failure throws an AssertionError.
+ */
+public final class QuantizerTest {
+
+    private QuantizerTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(17);
+        int parallelism = TileExecutor.getParallelism();
+        try {
+            int[][] sizes = {{1, 1}, {1, 50}, {50, 1}, {63, 65}, {700, 400}};
+            for (int[] size : sizes) {
+                int width = size[0];
+                int height = size[1];
+                int[] src = gradient(random, width, height);
+                Palette palette = Palette.of(src, width, height, 16, Palette.Method.MEDIAN_CUT);
+                int[] expected = floydSteinberg(src, width, height, palette);
+                for (int threads : new int[] {1, 2, 3, 8}) {
+                    TileExecutor.setParallelism(threads);
+                    for (Quantizer.Dither dither : Quantizer.Dither.values()) {
+                        int[] dst = new int[src.length];
+                        Quantizer.quantize(src, dst, width, height, palette, dither);
+                        if (dither == Quantizer.Dither.FLOYD_STEINBERG) {
+                            compare(width + "x" + height + " Floyd-Steinberg at parallelism " + threads,
+                                    expected, dst, width);
+                        } else {
+                            TileExecutor.setParallelism(1);
+                            int[] single = new int[src.length];
+                            Quantizer.quantize(src, single, width, height, palette, dither);
+                            TileExecutor.setParallelism(threads);
+                            compare(width + "x" + height + " " + dither + " at parallelism " + threads,
+                                    single, dst, width);
+                        }
+                    }
+                }
+            }
+        } finally {
+            TileExecutor.setParallelism(parallelism);
+        }
+        System.out.println("QuantizerTest passed");
+    }
+
+    // A smooth gradient with noise and random alpha, which spreads errors in every direction.
+    private static int[] gradient(Random random, int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = ColorMath.clamp(255 * x / Math.max(1, width - 1) + random.nextInt(9) - 4);
+                int green = ColorMath.clamp(255 * y / Math.max(1, height - 1) + random.nextInt(9) - 4);
+                int blue = ColorMath.clamp((red + green) / 2 + random.nextInt(41) - 20);
+                pixels[y * width + x] = ColorMath.pack(random.nextInt(256), red, green, blue);
+            }
+        }
+        return pixels;
+    }
+
+    // Error diffusion in one pass, with the errors of the whole image kept in sixteenths.
+    private static int[] floydSteinberg(int[] src, int width, int height, Palette palette) {
+        int[][] errors = new int[3][src.length];
+        int[] dst = new int[src.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int[] value = {ColorMath.red(src[i]), ColorMath.green(src[i]), ColorMath.blue(src[i])};
+                for (int c = 0; c < 3; c++) {
+                    value[c] = ColorMath.clamp(value[c] + ((errors[c][i] + 8) >> 4));
+                }
+                int color = palette.color(palette.index(value[0], value[1], value[2]));
+                dst[i] = (src[i] & 0xFF000000) | (color & 0x00FFFFFF);
+                int[] chosen = {ColorMath.red(color), ColorMath.green(color), ColorMath.blue(color)};
+                for (int c = 0; c < 3; c++) {
+                    int error = value[c] - chosen[c];
+                    spread(errors[c], width, height, x + 1, y, 7 * error);
+                    spread(errors[c], width, height, x - 1, y + 1, 3 * error);
+                    spread(errors[c], width, height, x, y + 1, 5 * error);
+                    spread(errors[c], width, height, x + 1, y + 1, error);
+                }
+            }
+        }
+        return dst;
+    }
+
+    private static void spread(int[] errors, int width, int height, int x, int y, int amount) {
+        if (x >= 0 && x < width && y < height) {
+            errors[y * width + x] += amount;
+        }
+    }
+
+    private static void compare(String what, int[] expected, int[] actual, int width) {
+        for (int i = 0; i < expected.length; i++) {
+            if (actual[i] != expected[i]) {
+                throw new AssertionError(String.format("%s: pixel (%d, %d) is %08x, expected %08x",
+                        what, i % width, i / width, actual[i], expected[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the hits, misses, cap and eviction order of the {@link RasterPool}.
+ *
+ * A released buffer must come back for the same type and length and never
+ * for another. The free buffers must stay under the cap, the ones released
+ * longest ago must go first whatever their size, and a buffer larger than the
+ * cap must not be kept. Shrinking the cap and clearing the pool drop buffers.
+ * Run with {@code java RasterPoolTest}; a failure throws an AssertionError.
+ */
+public final class RasterPoolTest {
+
+    private RasterPoolTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        checkReuse();
+        checkEviction();
+        checkCap();
+        checkConcurrentUse();
+        System.out.println("RasterPoolTest passed");
+    }
+
+    private static void checkReuse() {
+        RasterPool pool = new RasterPool(1 << 20);
+        int[] ints = pool.ints(100);
+        expectCounts("empty pool", pool, 0, 1, 0);
+        pool.release(ints);
+        if (pool.pooledBytes() != 400) {
+            throw new AssertionError("pool holds " + pool.pooledBytes() + " bytes after releasing 400");
+        }
+        if (pool.ints(99).length != 99 || pool.bytes(100).length != 100 || pool.floats(100).length != 100) {
+            throw new AssertionError("borrowed a buffer of the wrong length");
+        }
+        expectCounts("other lengths and types", pool, 0, 4, 0);
+        if (pool.ints(100) != ints) {
+            throw new AssertionError("released buffer was not reused");
+        }
+        expectCounts("same length", pool, 1, 4, 0);
+        if (pool.pooledBytes() != 0) {
+            throw new AssertionError("pool holds " + pool.pooledBytes() + " bytes after lending everything");
+        }
+
+        // The most recently released buffer of a size is lent first.
+        int[] older = pool.ints(10);
+        int[] newer = pool.ints(10);
+        pool.release(older);
+        pool.release(newer);
+        if (pool.ints(10) != newer || pool.ints(10) != older) {
+            throw new AssertionError("buffers were not lent newest first");
+        }
+    }
+
+    private static void checkEviction() {
+        RasterPool pool = new RasterPool(1000);
+        byte[] bytes = new byte[500];
+        int[] ints = new int[100];
+        float[] floats = new float[75];
+        pool.release(bytes);
+        pool.release(ints);
+        // 300 more bytes do not fit next to 900, so the byte buffer, released first, goes.
+        pool.release(floats);
+        expectCounts("third release", pool, 0, 0, 1);
+        if (pool.pooledBytes() != 700) {
+            throw new AssertionError("pool holds " + pool.pooledBytes() + " bytes, expected 700");
+        }
+        if (pool.bytes(500) == bytes) {
+            throw new AssertionError("the oldest buffer was not evicted");
+        }
+        if (pool.ints(100) != ints || pool.floats(75) != floats) {
+            throw new AssertionError("a newer buffer was evicted");
+        }
+        expectCounts("after eviction", pool, 2, 1, 1);
+
+        // Borrowing a buffer takes it out of the eviction order as well.
+        pool.release(ints);
+        pool.release(bytes);
+        pool.ints(100);
+        pool.release(floats);
+        pool.release(ints);
+        expectCounts("borrowed and released again", pool, 3, 1, 2);
+        if (pool.bytes(500) == bytes) {
+            throw new AssertionError("the buffer released longest ago was not evicted");
+        }
+    }
+
+    private static void checkCap() {
+        RasterPool pool = new RasterPool(1000);
+        pool.release(new int[251]);
+        if (pool.pooledBytes() != 0) {
+            throw new AssertionError("a buffer larger than the cap was kept");
+        }
+        pool.release(new int[100]);
+        pool.release(new int[100]);
+        pool.setMaxBytes(500);
+        if (pool.pooledBytes() != 400 || pool.evictions() != 1 || pool.maxBytes() != 500) {
+            throw new AssertionError("lowering the cap left " + pool);
+        }
+        pool.clear();
+        if (pool.pooledBytes() != 0 || pool.evictions() != 2) {
+            throw new AssertionError("clearing left " + pool);
+        }
+        pool.ints(100);
+        expectCounts("cleared pool", pool, 0, 1, 2);
+
+        RasterPool off = new RasterPool(0);
+        int[] buffer = off.ints(10);
+        off.release(buffer);
+        if (off.ints(10) == buffer || off.pooledBytes() != 0) {
+            throw new AssertionError("a pool with no room kept a buffer");
+        }
+    }
+
+    // Threads borrowing and releasing at once never push the pool over its cap or lose count.
+    private static void checkConcurrentUse() throws Exception {
+        RasterPool pool = new RasterPool(64 * 1024);
+        AtomicLong overCap = new AtomicLong();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long seed = t;
+            threads[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    int length = 1 + random.nextInt(4096);
+                    int[] buffer = pool.ints(length);
+                    if (buffer.length != length) {
+                        overCap.incrementAndGet();
+                    }
+                    buffer[length - 1] = i;
+                    pool.release(buffer);
+                    if (pool.pooledBytes() > pool.maxBytes()) {
+                        overCap.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (overCap.get() != 0) {
+            throw new AssertionError(overCap.get() + " borrows got the wrong length or found the pool over its cap");
+        }
+        if (pool.hits() + pool.misses() != threads.length * 20000L) {
+            throw new AssertionError("borrows were not all counted: " + pool);
+        }
+    }
+
+    private static void expectCounts(String what, RasterPool pool, long hits, long misses, long evictions) {
+        if (pool.hits() != hits || pool.misses() != misses || pool.evictions() != evictions) {
+            throw new AssertionError(what + ": expected " + hits + " hits, " + misses + " misses and " + evictions
+                    + " evictions, got " + pool);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks the hits, misses, evictions and keys of the {@link ResultCache}.
+ *
+ * The same edit of the same pixels must be computed once, even from another
+ * image object, while a different chain, output type or palette must not
+ * share a result. Once the byte limit is reached the least recently used
+ * result goes first, and a result larger than the limit is never kept.
+ * Run with {@code java ResultCacheTest}; a failure throws an AssertionError.
+ */
+public final class ResultCacheTest {
+
+    // One 100x100 packed result.
+    private static final long RESULT_BYTES = 100 * 100 * 4;
+
+    private ResultCacheTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        checkHitsAndKeys();
+        checkPalettes();
+        checkEviction();
+        checkConcurrentRequests();
+        System.out.println("ResultCacheTest passed");
+    }
+
+    private static void checkHitsAndKeys() {
+        Random random = new Random(10);
+        BufferedImage image = OperationChainTest.randomImage(random, 100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage copy = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        copy.getGraphics().drawImage(image, 0, 0, null);
+        ResultCache cache = new ResultCache(RESULT_BYTES * 10);
+
+        BufferedImage first = cache.apply(edit(image, "blur(2).negative"));
+        OperationChainTest.assertSameImage("cached blur", edit(image, "blur(2).negative").apply(), first);
+        expectCounts("first request", cache, 0, 1, 0);
+        if (cache.apply(edit(image, "blur(2).negative")) != first) {
+            throw new AssertionError("second request did not return the cached image");
+        }
+        expectCounts("same request", cache, 1, 1, 0);
+        if (cache.apply(edit(copy, "blur(2).negative")) != first) {
+            throw new AssertionError("a copy of the source did not share the cached image");
+        }
+        expectCounts("copy of the source", cache, 2, 1, 0);
+
+        cache.apply(edit(image, "blur(3).negative"));
+        expectCounts("different chain", cache, 2, 2, 0);
+        BufferedImage gray = cache.apply(edit(image, "blur(2).negative"), BufferedImage.TYPE_BYTE_GRAY);
+        if (gray.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            throw new AssertionError("asked for a gray result, got type " + gray.getType());
+        }
+        expectCounts("different output type", cache, 2, 3, 0);
+        copy.setRGB(50, 50, ~copy.getRGB(50, 50));
+        cache.apply(edit(copy, "blur(2).negative"));
+        expectCounts("one changed pixel", cache, 2, 4, 0);
+        if (cache.sizeBytes() != RESULT_BYTES * 3 + 100 * 100) {
+            throw new AssertionError("cache holds " + cache.sizeBytes() + " bytes");
+        }
+    }
+
+    // Two indexed images with the same colours but different palettes write their results back differently.
+    private static void checkPalettes() {
+        // Black, white, red, green; the second palette adds cyan and magenta.
+        BufferedImage few = indexed(new IndexColorModel(8, 4,
+                new byte[] {0, (byte) 255, (byte) 255, 0}, new byte[] {0, (byte) 255, 0, (byte) 255},
+                new byte[] {0, (byte) 255, 0, 0}));
+        BufferedImage more = indexed(new IndexColorModel(8, 6,
+                new byte[] {0, (byte) 255, (byte) 255, 0, 0, (byte) 255},
+                new byte[] {0, (byte) 255, 0, (byte) 255, (byte) 255, 0},
+                new byte[] {0, (byte) 255, 0, 0, (byte) 255, (byte) 255}));
+        for (int y = 0; y < few.getHeight(); y++) {
+            for (int x = 0; x < few.getWidth(); x++) {
+                if (few.getRGB(x, y) != more.getRGB(x, y)) {
+                    throw new AssertionError("test images differ at (" + x + ", " + y + ")");
+                }
+            }
+        }
+
+        ResultCache cache = new ResultCache(RESULT_BYTES * 10);
+        BufferedImage fewResult = cache.apply(edit(few, "negative"));
+        BufferedImage moreResult = cache.apply(edit(more, "negative"));
+        expectCounts("two palettes", cache, 0, 2, 0);
+        OperationChainTest.assertSameImage("negative with four colours", edit(few, "negative").apply(), fewResult);
+        OperationChainTest.assertSameImage("negative with six colours", edit(more, "negative").apply(), moreResult);
+    }
+
+    private static void checkEviction() {
+        Random random = new Random(11);
+        BufferedImage a = OperationChainTest.randomImage(random, 100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage b = OperationChainTest.randomImage(random, 100, 100, BufferedImage.TYPE_INT_RGB);
+        BufferedImage c = OperationChainTest.randomImage(random, 100, 100, BufferedImage.TYPE_INT_RGB);
+        ResultCache cache = new ResultCache(RESULT_BYTES * 2);
+
+        cache.apply(edit(a, "negative"));
+        cache.apply(edit(b, "negative"));
+        cache.apply(edit(a, "negative"));
+        expectCounts("two results that fit", cache, 1, 2, 0);
+        // b is now the least recently used, so it makes room for c.
+        cache.apply(edit(c, "negative"));
+        expectCounts("third result", cache, 1, 3, 1);
+        cache.apply(edit(a, "negative"));
+        expectCounts("recently used result", cache, 2, 3, 1);
+        cache.apply(edit(b, "negative"));
+        expectCounts("evicted result", cache, 2, 4, 2);
+        if (cache.sizeBytes() != RESULT_BYTES * 2) {
+            throw new AssertionError("cache holds " + cache.sizeBytes() + " bytes, limit " + RESULT_BYTES * 2);
+        }
+
+        ResultCache tiny = new ResultCache(RESULT_BYTES - 1);
+        tiny.apply(edit(a, "negative"));
+        tiny.apply(edit(a, "negative"));
+        expectCounts("result larger than the limit", tiny, 0, 2, 0);
+        if (tiny.sizeBytes() != 0) {
+            throw new AssertionError("an oversized result was kept: " + tiny.sizeBytes() + " bytes");
+        }
+    }
+
+    // Requests racing for the same result compute it once.
+    private static void checkConcurrentRequests() throws Exception {
+        BufferedImage image = OperationChainTest.randomImage(new Random(12), 300, 300, BufferedImage.TYPE_INT_RGB);
+        ResultCache cache = new ResultCache(RESULT_BYTES * 100);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<BufferedImage>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(threads.submit(() -> cache.apply(edit(image, "exactGaussianBlur(3)"))));
+            }
+            BufferedImage first = results.get(0).get();
+            for (Future<BufferedImage> result : results) {
+                if (result.get() != first) {
+                    throw new AssertionError("concurrent requests returned different images");
+                }
+            }
+        } finally {
+            threads.shutdown();
+        }
+        expectCounts("eight concurrent requests", cache, 7, 1, 0);
+    }
+
+    private static Pipeline edit(BufferedImage image, String chain) {
+        return OperationChain.parse(chain).applyTo(Pipeline.of(image));
+    }
+
+    private static BufferedImage indexed(IndexColorModel palette) {
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_BYTE_INDEXED, palette);
+        Random random = new Random(13);
+        byte[] indices = new byte[100 * 100];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = (byte) random.nextInt(4);
+        }
+        image.getRaster().setDataElements(0, 0, 100, 100, indices);
+        return image;
+    }
+
+    private static void expectCounts(String what, ResultCache cache, long hits, long misses, long evictions) {
+        if (cache.hits() != hits || cache.misses() != misses || cache.evictions() != evictions) {
+            throw new AssertionError(what + ": expected " + hits + " hits, " + misses + " misses and " + evictions
+                    + " evictions, got " + cache);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Checks the arbitrary-angle rotation of operation chains against {@link GeometricTransform#rotate}.
+ *
+ * A {@code rotate(n)} step that is not a quarter turn must give exactly the
+ * raster the transform computes from the same pixels, with transparent
+ * corners for images with alpha and black ones otherwise, including after
+ * point steps that the pipeline folds into its read. Run with
+ * {@code java RotationTest}; a failure throws an AssertionError.
+ */
+public final class RotationTest {
+
+    private RotationTest() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(11);
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB}) {
+            BufferedImage image = OperationChainTest.randomImage(random, 41, 29, type);
+            int background = image.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+            for (int degrees : new int[] {45, -30, 123, 1}) {
+                int[] pixels = PixelLayout.read(image);
+                check("rotate(" + degrees + ") on type " + type, image, "rotate(" + degrees + ")",
+                        GeometricTransform.rotate(pixels, image.getWidth(), image.getHeight(), degrees, background));
+
+                int[] table = ColorMath.brightnessTable(25);
+                ColorMath.applyTable(pixels, pixels, table, 0, pixels.length);
+                check("brightness(25),rotate(" + degrees + ") on type " + type, image,
+                        "brightness(25),rotate(" + degrees + ")",
+                        GeometricTransform.rotate(pixels, image.getWidth(), image.getHeight(), degrees, background));
+            }
+        }
+        System.out.println("RotationTest passed");
+    }
+
+    private static void check(String what, BufferedImage image, String chain, GeometricTransform.Rotated expected) {
+        BufferedImage result = OperationChain.parse(chain).applyTo(Pipeline.of(image)).apply();
+        if (result.getWidth() != expected.width || result.getHeight() != expected.height) {
+            throw new AssertionError(what + ": " + result.getWidth() + "x" + result.getHeight() + ", expected "
+                    + expected.width + "x" + expected.height);
+        }
+        int[] actual = PixelLayout.read(result);
+        for (int i = 0; i < actual.length; i++) {
+            if (actual[i] != expected.pixels[i]) {
+                throw new AssertionError(String.format("%s: pixel (%d, %d) is %08x, expected %08x",
+                        what, i % expected.width, i / expected.width, actual[i], expected.pixels[i]));
+            }
+        }
+    }
+}
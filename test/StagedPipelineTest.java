@@ -0,0 +1,138 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Checks that a {@link StagedPipeline} delivers every item once and stops cleanly.
+ *
+ * Items pass through three stages with different worker counts and small
+ * queues. Every item must run in every stage exactly once, except that an item
+ * whose work throws an exception or an error must go to the failure handler
+ * once and skip the later stages. No stage may run more items at a time than
+ * it has workers, and {@link StagedPipeline#finish()} must return after the
+ * last item. A stage that sleeps must be reported as the bottleneck.
+ * Run with {@code java StagedPipelineTest}; a failure throws an AssertionError.
+ */
+public final class StagedPipelineTest {
+
+    private static final int ITEMS = 2000;
+    private static final long FINISH_TIMEOUT_MILLIS = 30_000;
+
+    private StagedPipelineTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        checkDelivery();
+        checkBottleneck();
+        System.out.println("StagedPipelineTest passed");
+    }
+
+    private static void checkDelivery() throws Exception {
+        String[] names = {"read", "filter", "write"};
+        int[] workers = {2, 3, 1};
+        AtomicIntegerArray[] runs = new AtomicIntegerArray[names.length];
+        AtomicInteger[] active = new AtomicInteger[names.length];
+        AtomicInteger[] peak = new AtomicInteger[names.length];
+        List<String> failures = new CopyOnWriteArrayList<>();
+        StagedPipeline<Integer> pipeline = new StagedPipeline<>(
+                (item, stage, failure) -> failures.add(item + " in " + stage + ": " + failure.getMessage()));
+        for (int s = 0; s < names.length; s++) {
+            int stage = s;
+            runs[s] = new AtomicIntegerArray(ITEMS);
+            active[s] = new AtomicInteger();
+            peak[s] = new AtomicInteger();
+            pipeline.stage(names[s], workers[s], 1 + s, item -> {
+                peak[stage].accumulateAndGet(active[stage].incrementAndGet(), Math::max);
+                try {
+                    runs[stage].incrementAndGet(item);
+                    if (stage == 1 && item % 7 == 0) {
+                        throw new IllegalStateException("bad item");
+                    }
+                    if (stage == 1 && item % 11 == 0) {
+                        throw new Error("worse item");
+                    }
+                    if (item % 97 == 0) {
+                        Thread.yield();
+                    }
+                } finally {
+                    active[stage].decrementAndGet();
+                }
+            });
+        }
+
+        pipeline.start();
+        for (int i = 0; i < ITEMS; i++) {
+            pipeline.submit(i);
+        }
+        finishWithin(pipeline);
+
+        int failed = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            boolean fails = i % 7 == 0 || i % 11 == 0;
+            failed += fails ? 1 : 0;
+            int[] expected = {1, 1, fails ? 0 : 1};
+            for (int s = 0; s < names.length; s++) {
+                if (runs[s].get(i) != expected[s]) {
+                    throw new AssertionError("item " + i + " ran " + runs[s].get(i) + " times in " + names[s]
+                            + ", expected " + expected[s]);
+                }
+            }
+        }
+        if (failures.size() != failed) {
+            throw new AssertionError(failed + " items failed, the handler saw " + failures.size() + ": " + failures);
+        }
+        for (String failure : failures) {
+            if (!failure.contains(" in filter: ")) {
+                throw new AssertionError("failure reported for the wrong stage: " + failure);
+            }
+        }
+        for (int s = 0; s < names.length; s++) {
+            if (peak[s].get() > workers[s]) {
+                throw new AssertionError(names[s] + " ran " + peak[s].get() + " items at once with "
+                        + workers[s] + " workers");
+            }
+        }
+        String report = pipeline.report();
+        if (!report.contains((ITEMS - failed) + " done, " + failed + " failed")) {
+            throw new AssertionError("report does not count the failures:\n" + report);
+        }
+    }
+
+    private static void checkBottleneck() throws Exception {
+        StagedPipeline<Integer> pipeline = new StagedPipeline<Integer>((item, stage, failure) -> {
+            throw new AssertionError("item " + item + " failed in " + stage, failure);
+        })
+                .stage("fast", 1, 4, item -> { })
+                .stage("slow", 1, 4, item -> Thread.sleep(2))
+                .stage("after", 1, 4, item -> { });
+        pipeline.start();
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(i);
+        }
+        finishWithin(pipeline);
+        if (!pipeline.bottleneck().equals("slow")) {
+            throw new AssertionError("bottleneck is " + pipeline.bottleneck() + ":\n" + pipeline.report());
+        }
+    }
+
+    // Runs finish() on its own thread so a pipeline that never stops fails the test instead of hanging it.
+    private static void finishWithin(StagedPipeline<Integer> pipeline) throws InterruptedException {
+        AtomicInteger finished = new AtomicInteger();
+        Thread finisher = new Thread(() -> {
+            try {
+                pipeline.finish();
+                finished.set(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        finisher.setDaemon(true);
+        finisher.start();
+        finisher.join(FINISH_TIMEOUT_MILLIS);
+        if (finished.get() != 1) {
+            throw new AssertionError("finish() did not return within " + FINISH_TIMEOUT_MILLIS + " ms:\n"
+                    + pipeline.report());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.UnaryOperator;
+
+/**
+ * Checks that running filters in parallel bands gives the same result as one thread.
+ *
+ * {@link TileExecutor#forEachBand} must hand every row to exactly one band,
+ * and the filters must produce bit-identical images at parallelism 1 and 4.
+ * Going back to an earlier parallelism must reuse that pool rather than start
+ * another. Run with {@code java TileExecutorTest}; a failure throws an AssertionError.
+ */
+public final class TileExecutorTest {
+
+    private TileExecutorTest() {
+    }
+
+    public static void main(String[] args) {
+        int parallelism = TileExecutor.getParallelism();
+        try {
+            checkRowsCoveredOnce();
+            checkFilters();
+            checkPoolsReused();
+        } finally {
+            TileExecutor.setParallelism(parallelism);
+        }
+        System.out.println("TileExecutorTest passed");
+    }
+
+    private static void checkRowsCoveredOnce() {
+        TileExecutor.setParallelism(4);
+        int[][] sizes = {{1, 1}, {1, 200000}, {200000, 1}, {1000, 1000}, {333, 777}, {4096, 17}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            AtomicIntegerArray visits = new AtomicIntegerArray(height);
+            TileExecutor.forEachBand(height, width, (startRow, endRow) -> {
+                for (int y = startRow; y < endRow; y++) {
+                    visits.incrementAndGet(y);
+                }
+            });
+            for (int y = 0; y < height; y++) {
+                if (visits.get(y) != 1) {
+                    throw new AssertionError(width + "x" + height + ": row " + y + " ran " + visits.get(y) + " times");
+                }
+            }
+        }
+    }
+
+    private static void checkPoolsReused() {
+        TileExecutor.setParallelism(3);
+        Set<String> first = poolNames();
+        TileExecutor.setParallelism(2);
+        Set<String> other = poolNames();
+        TileExecutor.setParallelism(3);
+        Set<String> again = poolNames();
+        if (first.size() != 1 || !first.equals(again) || first.equals(other)) {
+            throw new AssertionError("pools used at parallelism 3, 2 and 3 again: " + first + ", " + other + ", "
+                    + again);
+        }
+    }
+
+    // The names of the pools whose workers ran some work, from worker thread names such as "ForkJoinPool-2-worker-1".
+    private static Set<String> poolNames() {
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        TileExecutor.forEachWorker(TileExecutor.getParallelism(), () -> {
+            String thread = Thread.currentThread().getName();
+            int worker = thread.indexOf("-worker-");
+            names.add(worker < 0 ? thread : thread.substring(0, worker));
+        });
+        return names;
+    }
+
+    private static void checkFilters() {
+        // Large enough to be split into several bands.
+        BufferedImage image = OperationChainTest.randomImage(new Random(9), 520, 410, BufferedImage.TYPE_INT_ARGB);
+        Map<String, UnaryOperator<BufferedImage>> filters = new LinkedHashMap<>();
+        filters.put("brightness", input -> ImageEditor.changeBrightness(input, 30));
+        filters.put("negative", ImageEditor::negative);
+        filters.put("poster", input -> ImageEditor.poster(input, 5));
+        filters.put("blur", input -> ImageEditor.blur(input, 7));
+        filters.put("gaussianBlur", input -> ImageEditor.gaussianBlur(input, 4));
+        filters.put("sharpen", ImageEditor::sharpen);
+        filters.put("exactGaussianBlur", input -> ImageEditor.exactGaussianBlur(input, 2.5));
+        filters.put("rotateByAngle", input -> ImageEditor.rotateByAngle(input, 33));
+        filters.put("autoLevels", ImageEditor::autoLevels);
+        for (Map.Entry<String, UnaryOperator<BufferedImage>> filter : filters.entrySet()) {
+            TileExecutor.setParallelism(1);
+            BufferedImage single = filter.getValue().apply(image);
+            TileExecutor.setParallelism(4);
+            BufferedImage banded = filter.getValue().apply(image);
+            OperationChainTest.assertSameImage(filter.getKey() + " at parallelism 4", single, banded);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PointKernels} that process one SIMD register of pixels at a time.
+ *
+ * Lanes hold whole packed pixels, so a 256-bit register works on 8 pixels and
+ * a 512-bit one on 16. The species is the widest the running CPU prefers.
+ * There is no integer division on SIMD lanes, so divisions by the filter
+ * constants are done as a multiplication and a shift, with multipliers chosen
+ * so the result is exact for every component value.
+ *
+ * Build this class separately, with the module added:
+ * {@code javac --add-modules jdk.incubator.vector -cp . -d . vector/VectorPointKernels.java}.
+ */
+public final class VectorPointKernels implements PointKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+    // n * DIV_100 >>> DIV_100_SHIFT equals n / 100 for every n in [0, 25500].
+    private static final int DIV_100 = 5243;
+    private static final int DIV_100_SHIFT = 19;
+
+    // Handles the pixels left over after the last full register.
+    private final PointKernels tail = new ScalarPointKernels();
+
+    @Override
+    public void negative(int[] pixels, int start, int end) {
+        int i = start;
+        for (int bound = start + INTS.loopBound(end - start); i < bound; i += INTS.length()) {
+            IntVector pixel = IntVector.fromArray(INTS, pixels, i);
+            pixel.lanewise(VectorOperators.XOR, 0x00FFFFFF).intoArray(pixels, i);
+        }
+        tail.negative(pixels, i, end);
+    }
+
+    @Override
+    public void brightness(int[] pixels, int increase, int start, int end) {
+        // Beyond these bounds every component already clamps to 0 or 255.
+        int clamped = Math.max(-100, Math.min(increase, 25500));
+        // Split increase * value / 100 into whole hundreds and a remainder below 100, so the
+        // product that has to be divided never exceeds 255 * 99.
+        int hundreds = clamped / 100;
+        int remainder = Math.abs(clamped % 100);
+        int sign = clamped < 0 ? -1 : 1;
+        int i = start;
+        for (int bound = start + INTS.loopBound(end - start); i < bound; i += INTS.length()) {
+            IntVector pixel = IntVector.fromArray(INTS, pixels, i);
+            IntVector red = brighten(pixel.lanewise(VectorOperators.LSHR, 16).and(0xFF), hundreds, remainder, sign);
+            IntVector green = brighten(pixel.lanewise(VectorOperators.LSHR, 8).and(0xFF), hundreds, remainder, sign);
+            IntVector blue = brighten(pixel.and(0xFF), hundreds, remainder, sign);
+            pack(pixel, red, green, blue).intoArray(pixels, i);
+        }
+        tail.brightness(pixels, increase, i, end);
+    }
+
+    @Override
+    public void poster(int[] pixels, int numLevels, int start, int end) {
+        if (numLevels < 1 || numLevels > 256) {
+            throw new IllegalArgumentException("numLevels must be between 1 and 256: " + numLevels);
+        }
+        int interval = 256 / numLevels;
+        // ceil(65536 / interval) is exact for dividends below 256: the rounding error stays under 1 / 256.
+        int reciprocal = (65536 + interval - 1) / interval;
+        int i = start;
+        for (int bound = start + INTS.loopBound(end - start); i < bound; i += INTS.length()) {
+            IntVector pixel = IntVector.fromArray(INTS, pixels, i);
+            IntVector red = level(pixel.lanewise(VectorOperators.LSHR, 16).and(0xFF), reciprocal).mul(interval);
+            IntVector green = level(pixel.lanewise(VectorOperators.LSHR, 8).and(0xFF), reciprocal).mul(interval);
+            IntVector blue = level(pixel.and(0xFF), reciprocal).mul(interval);
+            pack(pixel, red, green, blue).intoArray(pixels, i);
+        }
+        tail.poster(pixels, numLevels, i, end);
+    }
+
+    @Override
+    public String toString() {
+        return "vector(" + INTS.length() + " lanes)";
+    }
+
+    // Computes value + increase * value / 100, truncated towards zero and clamped to [0, 255].
+    private static IntVector brighten(IntVector value, int hundreds, int remainder, int sign) {
+        IntVector fraction = value.mul(remainder * DIV_100).lanewise(VectorOperators.LSHR, DIV_100_SHIFT);
+        return value.add(value.mul(hundreds)).add(fraction.mul(sign)).max(0).min(255);
+    }
+
+    // Computes value / interval for values in [0, 255] given ceil(65536 / interval).
+    private static IntVector level(IntVector value, int reciprocal) {
+        return value.mul(reciprocal).lanewise(VectorOperators.LSHR, 16);
+    }
+
+    // Packs the components with the alpha of the original pixels.
+    private static IntVector pack(IntVector pixel, IntVector red, IntVector green, IntVector blue) {
+        return red.lanewise(VectorOperators.LSHL, 16)
+                .or(green.lanewise(VectorOperators.LSHL, 8))
+                .or(blue)
+                .or(pixel.and(0xFF000000));
+    }
+}